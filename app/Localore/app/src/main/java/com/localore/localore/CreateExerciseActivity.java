@@ -13,9 +13,11 @@ import android.support.annotation.NonNull;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -23,8 +25,10 @@ import android.widget.EditText;
 import android.widget.Toast;
 
 import com.localore.localore.model.AppDatabase;
+import com.localore.localore.model.CancellationToken;
 import com.localore.localore.model.GeoObject;
 import com.localore.localore.model.NodeShape;
+import com.localore.localore.model.SizeEstimator;
 import com.localore.localore.modelManipulation.SessionControl;
 import com.mapbox.mapboxsdk.annotations.Icon;
 import com.mapbox.mapboxsdk.annotations.Marker;
@@ -39,6 +43,7 @@ import com.mapbox.mapboxsdk.geometry.LatLng;
 import com.mapbox.mapboxsdk.maps.MapView;
 import com.mapbox.mapboxsdk.maps.MapboxMap;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -89,6 +94,11 @@ public class CreateExerciseActivity extends AppCompatActivity {
     private boolean okExerciseName = false;
     private boolean okWorkingArea = false;
 
+    /**
+     * Size-estimation in progress, NULL if none.
+     */
+    private CancellationToken estimation = null;
+
 
     /**
      * @param savedInstanceState
@@ -158,7 +168,7 @@ public class CreateExerciseActivity extends AppCompatActivity {
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == R.id.menuItem_createExercise) {
-            startLoadingNewExerciseActivity();
+            estimateAndCreate();
         }
         else if (item.getItemId() == android.R.id.home) {
             onBackPressed();
@@ -393,6 +403,7 @@ public class CreateExerciseActivity extends AppCompatActivity {
      * @param view
      */
     public void onClearNodesButtonClick(View view) {
+        cancelEstimation();
         this.mapboxMap.clear();
         this.button_clearNodes.hide();
         this.okWorkingArea = false;
@@ -418,7 +429,7 @@ public class CreateExerciseActivity extends AppCompatActivity {
      * @pre okExerciseName and okWorkingArea set according to state.
      */
     private void updateCreateExerciseButton() {
-        if (okExerciseName && okWorkingArea) {
+        if (okExerciseName && okWorkingArea && estimation == null) {
             this.menuItem_createExercise.setEnabled(true);
             menuItem_createExercise.getIcon().setAlpha(255);
         }
@@ -482,13 +493,96 @@ public class CreateExerciseActivity extends AppCompatActivity {
     //region create the exercise (after name and area specified)
 
     /**
-     * Starts the loading-new-exercise activity.
+     * Estimates size of working-area in the background (see SizeEstimator), then
+     * shows the estimate. Creation is only offered if the area is within
+     * R.integer.max_working_area_elements, or if size unknown, if the area is within
+     * R.integer.max_unestimated_working_area_km2.
      */
-    public void startLoadingNewExerciseActivity() {
+    private void estimateAndCreate() {
         String name = this.editText_exerciseName.getText().toString().trim();
         NodeShape workingArea = selectedShape();
         if (workingArea == null) throw new RuntimeException("Dead-end");
 
+        CancellationToken token = new CancellationToken();
+        this.estimation = token;
+        updateCreateExerciseButton();
+        Toast.makeText(this, R.string.estimating_size, Toast.LENGTH_SHORT).show();
+
+        SizeEstimator estimator = new SizeEstimator(getApplicationContext());
+        new Thread(() -> {
+            SizeEstimator.Estimate[] estimate = { null };
+            try {
+                estimate[0] = estimator.estimate(workingArea, token);
+            }
+            catch (IOException | RuntimeException e) {
+                Log.w("<ME>", "Can't estimate size", e);
+            }
+            finally {
+                runOnUiThread(() -> {
+                    if (token.isCancelled()) return;
+                    this.estimation = null;
+                    updateCreateExerciseButton();
+                    onEstimate(name, workingArea, estimate[0]);
+                });
+            }
+        }).start();
+    }
+
+    /**
+     * Too large area: Tell user. Else: Show estimate, and create if user wants to.
+     * Unknown size (e.g no network): Too large by area (of bounds), or create if user
+     * wants to.
+     */
+    private void onEstimate(String name, NodeShape workingArea, SizeEstimator.Estimate estimate) {
+        AlertDialog.Builder alertBuilder = new AlertDialog.Builder(this);
+        int maxElements = getResources().getInteger(R.integer.max_working_area_elements);
+        int maxArea = getResources().getInteger(R.integer.max_unestimated_working_area_km2);
+        double area = SizeEstimator.boundsArea(workingArea);
+
+        if (estimate == null && area > maxArea) {
+            alertBuilder.setTitle(getString(R.string.working_area_too_large_size_unknown, area, maxArea));
+            alertBuilder.setPositiveButton(android.R.string.ok, null);
+        }
+        else if (estimate == null) {
+            alertBuilder.setTitle(getString(R.string.working_area_size_unknown, area));
+
+            CharSequence[] dialogOptions = {getString(R.string.Yes), getString(R.string.No)};
+            alertBuilder.setItems(dialogOptions, (dialog, item) -> {
+                if (item == 0) startLoadingNewExerciseActivity(name, workingArea);
+            });
+        }
+        else if (estimate.getElements() > maxElements) {
+            alertBuilder.setTitle(getString(R.string.working_area_too_large,
+                    estimate.getElements(), maxElements));
+            alertBuilder.setPositiveButton(android.R.string.ok, null);
+        }
+        else {
+            alertBuilder.setTitle(getString(R.string.working_area_size_estimate,
+                    estimate.getElements(), estimate.getBytes() / 1e6));
+
+            CharSequence[] dialogOptions = {getString(R.string.Yes), getString(R.string.No)};
+            alertBuilder.setItems(dialogOptions, (dialog, item) -> {
+                if (item == 0) startLoadingNewExerciseActivity(name, workingArea);
+            });
+        }
+
+        alertBuilder.create().show();
+    }
+
+    /**
+     * Abort size-estimation, if any.
+     */
+    private void cancelEstimation() {
+        if (this.estimation != null) {
+            this.estimation.cancel();
+            this.estimation = null;
+        }
+    }
+
+    /**
+     * Starts the loading-new-exercise activity.
+     */
+    public void startLoadingNewExerciseActivity(String name, NodeShape workingArea) {
         LoadingNewExerciseActivity.freshStart(name, workingArea, this);
     }
 
@@ -523,6 +617,7 @@ public class CreateExerciseActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        cancelEstimation();
         mapView.onDestroy();
     }
     //endregion
@@ -15,11 +15,22 @@ import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import com.localore.localore.model.AppDatabase;
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.CategoryDictionary;
+import com.localore.localore.model.IngestSource;
+import com.localore.localore.model.OverpassIngestSource;
+import com.localore.localore.model.RecordedIngestSource;
+import com.localore.localore.model.TagClassifier;
+import com.localore.localore.modelManipulation.CreationProgress;
 import com.localore.localore.modelManipulation.ExerciseControl;
+import com.localore.localore.modelManipulation.IncrementalDeduper;
 import com.localore.localore.model.NodeShape;
 import com.localore.localore.modelManipulation.SessionControl;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 
 /**
@@ -27,7 +38,10 @@ import java.io.IOException;
  * Fetches OSM-geo-elements using Overpass service, processes these into GeoObjects and
  * constructs quizzes.
  *
- * In: Name and working area.
+ * In: Name and working area (and optionally a recording to read data from, instead of Overpass).
+ *
+ * Each started creation is a job with its own cancellation-token: cancel(name) aborts
+ * connections and stops the job, without affecting later jobs.
  * - Adds the new exercise to db.
  * - Adds geo-objects of this exercise to the database.
  * - Completes exercise with predefined quizzes etc.
@@ -35,11 +49,36 @@ import java.io.IOException;
 public class CreateExerciseService extends IntentService {
     private static final String EXERCISE_NAME_PARAM_KEY = "com.localore.localore.CreateExerciseService.EXERCISE_NAME_PARAM_KEY";
     private static final String WORKING_AREA_PARAM_KEY = "com.localore.localore.CreateExerciseService.WORKING_AREA_PARAM_KEY";
+    private static final String RECORDING_PARAM_KEY = "com.localore.localore.CreateExerciseService.RECORDING_PARAM_KEY";
+    private static final String JOB_ID_PARAM_KEY = "com.localore.localore.CreateExerciseService.JOB_ID_PARAM_KEY";
+    private static final String RECLASSIFY_PARAM_KEY = "com.localore.localore.CreateExerciseService.RECLASSIFY_PARAM_KEY";
     public static final String BROADCAST_ACTION = "com.localore.localore.CreateExerciseService.BROADCAST_ACTION";
+    public static final String PROGRESS_ACTION = "com.localore.localore.CreateExerciseService.PROGRESS_ACTION";
+    public static final String PROGRESS_PARAM_KEY = "com.localore.localore.CreateExerciseService.PROGRESS_PARAM_KEY";
 
     private static final int RUNNING_NOTIFICATION_ID = 1;
     public static final int FINAL_NOTIFICATION_ID = 2;
 
+    /**
+     * Latest progress of running creation, NULL if none.
+     */
+    private static volatile CreationProgress.Snapshot lastProgress = null;
+
+    /**
+     * Started, not finished, jobs by job-id.
+     */
+    private static final Map<Long, Job> jobs = new HashMap<>();
+    private static long nextJobId = 0;
+
+    private static class Job {
+        final String exerciseName;
+        final CancellationToken token = new CancellationToken();
+
+        Job(String exerciseName) {
+            this.exerciseName = exerciseName;
+        }
+    }
+
 
     public CreateExerciseService() {
         super("CreateExerciseService");
@@ -53,12 +92,88 @@ public class CreateExerciseService extends IntentService {
      * @param context
      */
     public static ComponentName start(String exerciseName, NodeShape workingArea, Context context) {
+        return context.startService(startIntent(exerciseName, workingArea, context));
+    }
+
+    private static Intent startIntent(String exerciseName, NodeShape workingArea, Context context) {
         Intent intent = new Intent(context, CreateExerciseService.class);
         intent.putExtra(EXERCISE_NAME_PARAM_KEY, exerciseName);
         intent.putExtra(WORKING_AREA_PARAM_KEY, workingArea);
+        if (exerciseName != null) intent.putExtra(JOB_ID_PARAM_KEY, newJob(exerciseName));
+        return intent;
+    }
+
+    /**
+     * Starts the service with data from recorded Overpass-responses instead of network.
+     *
+     * @param exerciseName
+     * @param workingArea
+     * @param recording Response-file, or directory of response-files.
+     * @param context
+     */
+    public static ComponentName startFromRecording(String exerciseName, NodeShape workingArea, File recording, Context context) {
+        Intent intent = startIntent(exerciseName, workingArea, context);
+        intent.putExtra(RECORDING_PARAM_KEY, recording.getPath());
+        return context.startService(intent);
+    }
+
+    /**
+     * Starts the service to re-classify exercises of an outdated conversion-table (see
+     * ExerciseControl.reclassifyOutdatedExercises). Queued as a job: never runs during
+     * a creation.
+     *
+     * @param context
+     */
+    public static ComponentName startReclassification(Context context) {
+        Intent intent = new Intent(context, CreateExerciseService.class);
+        intent.putExtra(RECLASSIFY_PARAM_KEY, true);
         return context.startService(intent);
     }
 
+    //region jobs
+
+    /**
+     * Cancel all started jobs creating an exercise with name, running or waiting.
+     * A job started later is not affected.
+     *
+     * @param exerciseName
+     */
+    public static synchronized void cancel(String exerciseName) {
+        for (Job job : jobs.values()) {
+            if (job.exerciseName.equals(exerciseName)) job.token.cancel();
+        }
+    }
+
+    /**
+     * @return Id of new job.
+     */
+    private static synchronized long newJob(String exerciseName) {
+        long jobId = nextJobId++;
+        jobs.put(jobId, new Job(exerciseName));
+        return jobId;
+    }
+
+    /**
+     * @return Token of job, or a new token if job unknown (e.g started by an older process).
+     */
+    private static synchronized CancellationToken jobToken(long jobId) {
+        Job job = jobs.get(jobId);
+        return job != null ? job.token : new CancellationToken();
+    }
+
+    private static synchronized void endJob(long jobId) {
+        jobs.remove(jobId);
+    }
+
+    /**
+     * @return True if no job started after job.
+     */
+    private static synchronized boolean isLatestJob(long jobId) {
+        return jobId == nextJobId - 1;
+    }
+
+    //endregion
+
     /**
      * Request foreground.
      *
@@ -73,22 +188,26 @@ public class CreateExerciseService extends IntentService {
         if (exerciseName == null) return super.onStartCommand(intent, flags, startId); //if exerciseName explicitly set to null
 
         // request foreground
+        createNotificationChannel();
+        startForeground(RUNNING_NOTIFICATION_ID, runningNotification().build());
+
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    /**
+     * @return Notification shown while running. Takes user to loading-activity.
+     */
+    private NotificationCompat.Builder runningNotification() {
         Intent notificationIntent = new Intent(this, LoadingNewExerciseActivity.class);
         notificationIntent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
         PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, notificationIntent, 0);
 
-        createNotificationChannel();
-        Notification notification = new NotificationCompat.Builder(this, "default_channel_id")
+        return new NotificationCompat.Builder(this, "default_channel_id")
                 .setSmallIcon(R.drawable.loca_notification_icon)
                 .setContentTitle("Creating new exercise...")
-                //.setContentText(textContent)
                 .setPriority(NotificationCompat.PRIORITY_LOW)
-                .setContentIntent(pendingIntent)
-                .build();
-
-        startForeground(RUNNING_NOTIFICATION_ID, notification);
-
-        return super.onStartCommand(intent, flags, startId);
+                .setOnlyAlertOnce(true)
+                .setContentIntent(pendingIntent);
     }
 
     // required for Android 8.0 and higher
@@ -111,8 +230,8 @@ public class CreateExerciseService extends IntentService {
      * Sets active-exercise to new exercise in session (before work).
      * Sets result: completed/ error in session before exit.
      *
-     * If acquisition-process interrupted by setting volatile flag to true in
-     * exercise-control: Wipe construction and exit service with error-code.
+     * If job cancelled (see cancel), also while waiting to start: Wipe construction and
+     * exit service with interrupted-error (see reportInterrupted).
      *
      * @param intent
      */
@@ -121,20 +240,41 @@ public class CreateExerciseService extends IntentService {
         Log.i("<ME>", "CreateExerciseService started");
         if (intent == null) return;
 
+        if (intent.getBooleanExtra(RECLASSIFY_PARAM_KEY, false)) {
+            int count = ExerciseControl.reclassifyOutdatedExercises(this);
+            Log.i("<ME>", "Re-classified exercises: " + count);
+            return;
+        }
+
         String exerciseName = intent.getStringExtra(EXERCISE_NAME_PARAM_KEY);
         if (exerciseName == null) return; //if exerciseName explicitly set to null
+        long jobId = intent.getLongExtra(JOB_ID_PARAM_KEY, -1);
+        CancellationToken token = jobToken(jobId);
+        if (token.isCancelled()) { //cancelled before started
+            endJob(jobId);
+            reportInterrupted(jobId);
+            return;
+        }
         NodeShape workingArea = (NodeShape)intent.getSerializableExtra(WORKING_AREA_PARAM_KEY);
+        String recording = intent.getStringExtra(RECORDING_PARAM_KEY);
+        IngestSource source = recording != null ?
+                new RecordedIngestSource(new File(recording)) :
+                new OverpassIngestSource(this);
 
         AppDatabase mainDb = AppDatabase.getInstance(this);
         AppDatabase tempDb = AppDatabase.getTempInstance(this);
+        CreationProgress progress = new CreationProgress(this::publishProgress);
+        IncrementalDeduper deduper = ExerciseControl.incrementalDeduper(tempDb, mainDb, token);
 
         long userId = SessionControl.load(mainDb).getUserId();
-        long exerciseId = ExerciseControl.newExercise(userId, exerciseName, workingArea, mainDb);
+        long exerciseId = ExerciseControl.newExercise(userId, exerciseName, workingArea,
+                TagClassifier.getInstance(this).getVersion(), mainDb);
         SessionControl.setActiveExercise(exerciseId, mainDb);
         boolean successful = false;
+        boolean acquired = false;
 
         try {
-            ExerciseControl.acquireGeoObjects(workingArea, tempDb, this);
+            ExerciseControl.acquireGeoObjects(workingArea, source, tempDb, deduper, progress, token, this);
 
             Log.i("<ME>", "N.o raw osm's: " + tempDb.geoDao().count());
             if (tempDb.geoDao().count() < ExerciseControl.MIN_NO_GEO_OBJECTS_IN_AN_EXERCISE) {
@@ -143,7 +283,9 @@ public class CreateExerciseService extends IntentService {
             }
 
             Log.d("<ME>", "Post processing");
-            int noGeoObjects = ExerciseControl.postProcessing(exerciseId, tempDb, mainDb);
+            acquired = true;
+            int noGeoObjects = ExerciseControl.postProcessing(exerciseId, tempDb, mainDb, deduper,
+                    CategoryDictionary.getInstance(this), getCacheDir(), progress, token);
 
             Log.i("<ME>", "N.o geo-objects: " + noGeoObjects);
 
@@ -157,16 +299,28 @@ public class CreateExerciseService extends IntentService {
 
         }
         catch (LocaUtils.WorkInterruptedException e) {
-            report(LoadingNewExerciseActivity.INTERRUPTED_ERROR);
+            Log.i("<ME>", "Creation cancelled: " + exerciseName);
+            reportInterrupted(jobId);
         }
         catch (IOException e) {
-            report(LoadingNewExerciseActivity.NETWORK_ERROR);
+            // a cancel aborts connections: then the failed read is the cancel
+            if (token.isCancelled()) {
+                Log.i("<ME>", "Creation cancelled: " + exerciseName);
+                reportInterrupted(jobId);
+            }
+            else {
+                report(acquired ?
+                        LoadingNewExerciseActivity.UNSPECIFIED_ERROR :
+                        LoadingNewExerciseActivity.NETWORK_ERROR);
+            }
         }
         finally {
+            endJob(jobId);
+            lastProgress = null;
             if (!successful)
                 ExerciseControl.wipeConstruction(exerciseId, this);
 
-            finalNotification(successful);
+            if (!token.isCancelled()) finalNotification(successful);
             stopForeground(true);
         }
     }
@@ -182,6 +336,64 @@ public class CreateExerciseService extends IntentService {
         LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
     }
 
+    /**
+     * Report job cancelled by user. Session-status is only set if no later job has been
+     * started: else the session (restarted by loading-activity) is of that job.
+     * The broadcast is always sent.
+     */
+    private void reportInterrupted(long jobId) {
+        if (isLatestJob(jobId)) {
+            report(LoadingNewExerciseActivity.INTERRUPTED_ERROR);
+            return;
+        }
+
+        Intent localIntent = new Intent(BROADCAST_ACTION);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
+    }
+
+    //region progress
+
+    /**
+     * Show progress in notification and broadcast it (not stored in Session).
+     * Called at a throttled rate, from any thread.
+     */
+    private void publishProgress(CreationProgress.Snapshot snapshot) {
+        lastProgress = snapshot;
+
+        double fraction = snapshot.getStageFraction();
+        Notification notification = runningNotification()
+                .setContentText(progressText(snapshot, this))
+                .setProgress(100, (int)(Math.max(0, fraction) * 100), fraction < 0)
+                .build();
+        NotificationManagerCompat.from(this).notify(RUNNING_NOTIFICATION_ID, notification);
+
+        Intent localIntent = new Intent(PROGRESS_ACTION);
+        localIntent.putExtra(PROGRESS_PARAM_KEY, snapshot);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(localIntent);
+    }
+
+    /**
+     * @return Latest progress of running creation, NULL if none (yet).
+     */
+    public static CreationProgress.Snapshot getLastProgress() {
+        return lastProgress;
+    }
+
+    /**
+     * @return "Stage: objects, objects/s, MB[, ETA]"
+     */
+    public static String progressText(CreationProgress.Snapshot snapshot, Context context) {
+        String stage = context.getResources().getStringArray(R.array.creation_stages)[snapshot.getStage().ordinal()];
+        String text = context.getString(R.string.creation_progress,
+                stage, snapshot.getObjects(), snapshot.getObjectsPerSecond(), snapshot.getBytes() / 1e6);
+
+        if (snapshot.getEta() >= 0)
+            text += context.getString(R.string.creation_progress_eta, (snapshot.getEta() + 999) / 1000);
+        return text;
+    }
+
+    //endregion
+
     /**
      * Adds a final notification that takes user back to this activity.
      * @param successful
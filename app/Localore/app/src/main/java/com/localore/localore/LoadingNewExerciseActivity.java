@@ -16,12 +16,14 @@ import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageButton;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import com.localore.localore.model.AppDatabase;
 import com.localore.localore.model.Exercise;
 import com.localore.localore.model.NodeShape;
 import com.localore.localore.model.Session;
+import com.localore.localore.modelManipulation.CreationProgress;
 import com.localore.localore.modelManipulation.ExerciseControl;
 import com.localore.localore.modelManipulation.SessionControl;
 
@@ -38,9 +40,29 @@ import com.localore.localore.modelManipulation.SessionControl;
 public class LoadingNewExerciseActivity extends AppCompatActivity {
 
     private TextView textView_loadingStatus;
+    private ProgressBar progressBar_loading;
+    private TextView textView_loadingProgress;
     private Button button_enterOrRetry;
     private ImageButton button_exitExerciseLoading;
 
+    /**
+     * Receivers of broadcasts from CreateExerciseService, while this activity exists.
+     */
+    private final BroadcastReceiver statusReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            statusBasedUpdate();
+        }
+    };
+    private final BroadcastReceiver progressReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            CreationProgress.Snapshot snapshot = (CreationProgress.Snapshot)
+                    intent.getSerializableExtra(CreateExerciseService.PROGRESS_PARAM_KEY);
+            progressUpdate(snapshot);
+        }
+    };
+
     //region status-codes
     public static final int NOT_STARTED = 0;
     public static final int RUNNING = 1;
@@ -89,20 +111,23 @@ public class LoadingNewExerciseActivity extends AppCompatActivity {
         if (actionBar != null) actionBar.hide();
 
         this.textView_loadingStatus = findViewById(R.id.textView_loadingStatus);
+        this.progressBar_loading = findViewById(R.id.progressBar_loading);
+        this.textView_loadingProgress = findViewById(R.id.textView_loadingProgress);
         this.button_enterOrRetry = findViewById(R.id.button_enterOrRetry);
         this.button_exitExerciseLoading = findViewById(R.id.button_exitExerciseLoading);
 
         // listen to broadcasts from CreateExerciseService
         LocalBroadcastManager.getInstance(this).registerReceiver(
-                new BroadcastReceiver() {
-                    @Override
-                    public void onReceive(Context context, Intent intent) {
-                        statusBasedUpdate();
-                    }
-                },
+                statusReceiver,
                 new IntentFilter(CreateExerciseService.BROADCAST_ACTION)
         );
 
+        // listen to progress of CreateExerciseService
+        LocalBroadcastManager.getInstance(this).registerReceiver(
+                progressReceiver,
+                new IntentFilter(CreateExerciseService.PROGRESS_ACTION)
+        );
+
 //        validateLoadingExerciseStatus();
 //        statusBasedUpdate();
     }
@@ -116,6 +141,13 @@ public class LoadingNewExerciseActivity extends AppCompatActivity {
         statusBasedUpdate();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(statusReceiver);
+        LocalBroadcastManager.getInstance(this).unregisterReceiver(progressReceiver);
+    }
+
 
     /**
      * If Session-status says Working, but service isn't running, the service has been
@@ -172,9 +204,31 @@ public class LoadingNewExerciseActivity extends AppCompatActivity {
     private void runningLayout() {
         this.textView_loadingStatus.setText(R.string.loading_new_exercise_HEADS_UP);
         this.button_enterOrRetry.setVisibility(View.INVISIBLE);
+        this.progressBar_loading.setVisibility(View.VISIBLE);
+        this.textView_loadingProgress.setVisibility(View.VISIBLE);
+        progressUpdate(CreateExerciseService.getLastProgress());
+    }
+
+    /**
+     * Show progress of running construction.
+     * @param snapshot NULL if no progress yet.
+     */
+    private void progressUpdate(CreationProgress.Snapshot snapshot) {
+        if (snapshot == null || this.progressBar_loading.getVisibility() != View.VISIBLE) return;
+
+        double fraction = snapshot.getStageFraction();
+        this.progressBar_loading.setIndeterminate(fraction < 0);
+        this.progressBar_loading.setProgress((int)(Math.max(0, fraction) * 100));
+        this.textView_loadingProgress.setText(CreateExerciseService.progressText(snapshot, this));
+    }
+
+    private void hideProgress() {
+        this.progressBar_loading.setVisibility(View.INVISIBLE);
+        this.textView_loadingProgress.setVisibility(View.INVISIBLE);
     }
 
     private void completedLayout() {
+        hideProgress();
         this.textView_loadingStatus.setText(R.string.completed_loading_of_new_exercise_HEADS_UP);
         this.button_enterOrRetry.setText(R.string.enter_exercise);
         this.button_enterOrRetry.setVisibility(View.VISIBLE);
@@ -182,6 +236,7 @@ public class LoadingNewExerciseActivity extends AppCompatActivity {
     }
 
     private void errorLayout(int status) {
+        hideProgress();
         this.button_enterOrRetry.setText(R.string.retry);
         this.button_enterOrRetry.setVisibility(View.VISIBLE);
 
@@ -250,10 +305,11 @@ public class LoadingNewExerciseActivity extends AppCompatActivity {
     }
 
     /**
-     * Service cleans up construction and exits.
+     * Service cancels the construction (at once, also if downloading), cleans up and exits.
      */
     public void killService() {
-        ExerciseControl.interruptAcquisition = true;
+        String name = SessionControl.load(AppDatabase.getInstance(this)).getLoadingExerciseName();
+        CreateExerciseService.cancel(name);
     }
 
     /**
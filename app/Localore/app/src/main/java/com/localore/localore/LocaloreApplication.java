@@ -1,6 +1,7 @@
 package com.localore.localore;
 
 import android.app.Application;
+import android.util.Log;
 
 import com.localore.localore.model.AppDatabase;
 import com.localore.localore.model.Session;
@@ -29,5 +30,13 @@ public class LocaloreApplication extends Application {
         else {
             SessionControl.login(users.get(0).getId(), db);
         }
+
+        // conversion-table changed by an update: re-classify without re-download
+        try {
+            CreateExerciseService.startReclassification(this);
+        }
+        catch (IllegalStateException e) { // started in background (API 26+): at a later launch
+            Log.w("<ME>", "Re-classification not started", e);
+        }
     }
 }
@@ -25,6 +25,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.localore.localore.model.AppDatabase;
+import com.localore.localore.model.CategoryDictionary;
 import com.localore.localore.model.Exercise;
 import com.localore.localore.model.GeoObject;
 import com.localore.localore.model.NodeShape;
@@ -263,7 +264,7 @@ public class QuizActivity extends AppCompatActivity {
         QuizCategory quizCategory = ExerciseControl.loadQuizCategoryOfGeoObject(geoObject, this);
 
         this.questionCategoryIcon.setImageResource( QuizCategory.getIconResource(quizCategory.getType()) );
-        this.textView_questionContent.setText(geoObject.getCategory());
+        this.textView_questionContent.setText(CategoryDictionary.getInstance(this).getDisplayName(geoObject.getCategory()));
         this.textView_questionContent.setBackgroundColor(geoObject.getColor());
 
         updateMap_nameIt(geoObject);
@@ -445,7 +446,7 @@ public class QuizActivity extends AppCompatActivity {
         QuizCategory quizCategory = ExerciseControl.loadQuizCategoryOfGeoObject(geoObject, this);
 
         this.questionCategoryIcon.setImageResource( QuizCategory.getIconResource(quizCategory.getType()) );
-        this.textView_questionContent.setText(String.format("%s (%s)", geoObject.getName(), geoObject.getCategory()));
+        this.textView_questionContent.setText(String.format("%s (%s)", geoObject.getName(), CategoryDictionary.getInstance(this).getDisplayName(geoObject.getCategory())));
         this.textView_questionContent.setBackgroundColor(geoObject.getColor());
 
         updateMap_placeIt(currentQuestion.getContent());
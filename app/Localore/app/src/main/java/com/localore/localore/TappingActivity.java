@@ -13,6 +13,7 @@ import android.widget.Switch;
 import android.widget.Toast;
 
 import com.localore.localore.model.AppDatabase;
+import com.localore.localore.model.CategoryDictionary;
 import com.localore.localore.model.Exercise;
 import com.localore.localore.model.GeoObject;
 import com.localore.localore.model.NodeShape;
@@ -106,7 +107,7 @@ public class TappingActivity extends AppCompatActivity {
 
                     String str = String.format("%s (%s)",
                             geoObject.getName(),
-                            geoObject.getCategory());
+                            CategoryDictionary.getInstance(TappingActivity.this).getDisplayName(geoObject.getCategory()));
                     Toast.makeText(TappingActivity.this, str, Toast.LENGTH_LONG).show();
                 }
 
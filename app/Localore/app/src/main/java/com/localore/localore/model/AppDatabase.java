@@ -1,13 +1,17 @@
 package com.localore.localore.model;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.Room;
 import android.arch.persistence.room.RoomDatabase;
 import android.arch.persistence.room.TypeConverters;
+import android.arch.persistence.room.migration.Migration;
 import android.content.Context;
+import android.database.Cursor;
 
 
 @Database(entities = {
+        CategoryCode.class,
         Exercise.class,
         GeoObject.class,
         Question.class,
@@ -16,9 +20,10 @@ import android.content.Context;
         RunningQuiz.class,
         Session.class,
         User.class},
-        version = 1)
+        version = 2)
 @TypeConverters({AppDatabaseConverters.class})
 public abstract class AppDatabase extends RoomDatabase {
+    public abstract CategoryCodeDao categoryCodeDao();
     public abstract ExerciseDao exerciseDao();
     public abstract GeoObjectDao geoDao();
     public abstract QuestionDao questionDao();
@@ -34,6 +39,51 @@ public abstract class AppDatabase extends RoomDatabase {
     private static AppDatabase TEMP_INSTANCE;
     private static String temp_database_name = "temp-db";
 
+    /**
+     * - Exercises: version of conversion-table classified by (NULL: not known).
+     * - Geo-objects: kept raw tags (NULL: not known), and category as a code (see
+     *   CategoryDictionary) instead of supercat and subcat. Codes of the existing
+     *   categories are stored in CategoryCode.
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE Exercise ADD COLUMN tagTableVersion TEXT");
+
+            database.execSQL("CREATE TABLE GeoObject_new (id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, " +
+                    "quizId INTEGER NOT NULL, osmId TEXT, name TEXT, rank REAL NOT NULL, shapes TEXT, " +
+                    "category INTEGER NOT NULL, tags BLOB, timeOfPreviousCorrectAnswer INTEGER NOT NULL, " +
+                    "timesAsked REAL NOT NULL, noCorrectAnswers REAL NOT NULL, color INTEGER NOT NULL)");
+            database.execSQL("INSERT INTO GeoObject_new SELECT id, quizId, osmId, name, rank, shapes, -1, NULL, " +
+                    "timeOfPreviousCorrectAnswer, timesAsked, noCorrectAnswers, color FROM GeoObject");
+
+            database.execSQL("CREATE TABLE CategoryCode " +
+                    "(code INTEGER NOT NULL, supercat TEXT, subcat TEXT, PRIMARY KEY(code))");
+            Cursor cursor = database.query("SELECT DISTINCT supercat, subcat FROM GeoObject " +
+                    "WHERE supercat IS NOT NULL AND subcat IS NOT NULL");
+            try {
+                int code = 0;
+                while (cursor.moveToNext()) {
+                    String supercat = cursor.getString(0);
+                    String subcat = cursor.getString(1);
+                    database.execSQL("INSERT INTO CategoryCode (code, supercat, subcat) VALUES (?, ?, ?)",
+                            new Object[]{ code, supercat, subcat });
+                    database.execSQL("UPDATE GeoObject_new SET category = ? WHERE id IN " +
+                            "(SELECT id FROM GeoObject WHERE supercat = ? AND subcat = ?)",
+                            new Object[]{ code, supercat, subcat });
+                    code++;
+                }
+            }
+            finally {
+                cursor.close();
+            }
+
+            database.execSQL("DROP TABLE GeoObject");
+            database.execSQL("ALTER TABLE GeoObject_new RENAME TO GeoObject");
+            database.execSQL("CREATE INDEX index_GeoObject_category ON GeoObject (category)");
+        }
+    };
+
     // allow main thread queries for now..
 
     /**
@@ -42,7 +92,8 @@ public abstract class AppDatabase extends RoomDatabase {
      */
     public static AppDatabase getInstance(Context context) {
         if (INSTANCE == null) {
-            INSTANCE = Room.databaseBuilder(context, AppDatabase.class, database_name).allowMainThreadQueries().build();
+            INSTANCE = Room.databaseBuilder(context, AppDatabase.class, database_name).allowMainThreadQueries()
+                    .addMigrations(MIGRATION_1_2).build();
         }
         return INSTANCE;
     }
@@ -54,7 +105,8 @@ public abstract class AppDatabase extends RoomDatabase {
      */
     public static AppDatabase getTempInstance(Context context) {
         if (TEMP_INSTANCE == null) {
-            TEMP_INSTANCE = Room.databaseBuilder(context, AppDatabase.class, temp_database_name).allowMainThreadQueries().build();
+            TEMP_INSTANCE = Room.databaseBuilder(context, AppDatabase.class, temp_database_name).allowMainThreadQueries()
+                    .addMigrations(MIGRATION_1_2).build();
         }
         return TEMP_INSTANCE;
     }
@@ -0,0 +1,87 @@
+package com.localore.localore.model;
+
+import android.util.Log;
+
+import com.localore.localore.LocaUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cancellation of one job (e.g creation of one exercise).
+ *
+ * Work checks the token between steps. Blocking resources (e.g connections) are
+ * registered, and closed at cancel so blocked work fails at once.
+ */
+public class CancellationToken {
+
+    private volatile boolean cancelled = false;
+    private final List<Closeable> onCancel = new ArrayList<>();
+
+    /**
+     * Cancel job, close registered resources. Idempotent.
+     */
+    public void cancel() {
+        List<Closeable> closeables;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+            closeables = new ArrayList<>(onCancel);
+            onCancel.clear();
+            notifyAll();
+        }
+        for (Closeable closeable : closeables) closeQuietly(closeable);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void throwIfCancelled() throws LocaUtils.WorkInterruptedException {
+        if (cancelled) throw new LocaUtils.WorkInterruptedException("Cancelled");
+    }
+
+    /**
+     * @param closeable Closed at cancel. Closed at once if already cancelled.
+     */
+    public void register(Closeable closeable) {
+        synchronized (this) {
+            if (!cancelled) {
+                onCancel.add(closeable);
+                return;
+            }
+        }
+        closeQuietly(closeable);
+    }
+
+    /**
+     * @param closeable No longer closed at cancel.
+     */
+    public synchronized void unregister(Closeable closeable) {
+        onCancel.remove(closeable);
+    }
+
+    /**
+     * Sleep, woken early if cancelled.
+     *
+     * @param ms Time to sleep.
+     * @return False if cancelled.
+     */
+    public synchronized boolean sleep(long ms) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + ms;
+        long left;
+        while (!cancelled && (left=deadline - System.currentTimeMillis()) > 0) wait(left);
+        return !cancelled;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        }
+        catch (IOException | RuntimeException e) {
+            Log.d("<ME>", "Close at cancel: " + e.toString());
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.localore.localore.model;
+
+import android.arch.persistence.room.Entity;
+import android.arch.persistence.room.PrimaryKey;
+
+/**
+ * A category (supercat, subcat) and its code (see CategoryDictionary).
+ */
+@Entity
+public class CategoryCode {
+
+    @PrimaryKey
+    private int code;
+
+    private String supercat;
+    private String subcat;
+
+    /**
+     * @param code
+     * @param supercat
+     * @param subcat
+     */
+    public CategoryCode(int code, String supercat, String subcat) {
+        this.code = code;
+        this.supercat = supercat;
+        this.subcat = subcat;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public void setCode(int code) {
+        this.code = code;
+    }
+
+    public String getSupercat() {
+        return supercat;
+    }
+
+    public void setSupercat(String supercat) {
+        this.supercat = supercat;
+    }
+
+    public String getSubcat() {
+        return subcat;
+    }
+
+    public void setSubcat(String subcat) {
+        this.subcat = subcat;
+    }
+}
@@ -0,0 +1,21 @@
+package com.localore.localore.model;
+
+import android.arch.persistence.room.Dao;
+import android.arch.persistence.room.Insert;
+import android.arch.persistence.room.OnConflictStrategy;
+import android.arch.persistence.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface CategoryCodeDao {
+
+    /**
+     * Fails if code is taken.
+     */
+    @Insert(onConflict = OnConflictStrategy.ABORT)
+    public void insert(CategoryCode categoryCode);
+
+    @Query("SELECT * FROM CategoryCode ORDER BY code")
+    public List<CategoryCode> loadAll();
+}
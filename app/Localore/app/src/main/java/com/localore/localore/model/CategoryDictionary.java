@@ -0,0 +1,163 @@
+package com.localore.localore.model;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary of categories (supercat, subcat) <-> small integer codes. Geo-objects
+ * store the code of their category (in both databases, and in the tile-store).
+ * Filled from the conversion-table (see TagClassifier), held in memory: a code's
+ * names and quiz-category type are looked up in O(1).
+ *
+ * Append-only: a category keeps its code forever, also when it leaves the table
+ * (geo-objects not re-classified still have it).
+ *
+ * Stored in the main db (see CategoryCode), a code is stored before it's handed out:
+ * a code in a geo-object is always known, and never given to another category.
+ */
+public class CategoryDictionary {
+
+    private static CategoryDictionary INSTANCE;
+
+    /**
+     * NULL: not stored.
+     */
+    private final CategoryCodeDao dao;
+
+    private final List<String> supercats = new ArrayList<>();
+    private final List<String> subcats = new ArrayList<>();
+    private final List<String> displayNames = new ArrayList<>();
+    private final List<Integer> types = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+
+    /**
+     * @return Shared dictionary in main db.
+     */
+    public static synchronized CategoryDictionary getInstance(Context context) {
+        if (INSTANCE == null) INSTANCE = new CategoryDictionary(AppDatabase.getInstance(context).categoryCodeDao());
+        return INSTANCE;
+    }
+
+    /**
+     * Dictionary in memory only.
+     */
+    public CategoryDictionary() {
+        this.dao = null;
+    }
+
+    /**
+     * @param dao Stored categories are read.
+     * @throws IllegalStateException If stored codes are not 0, 1, 2, ...
+     */
+    public CategoryDictionary(CategoryCodeDao dao) {
+        this.dao = dao;
+        for (CategoryCode categoryCode : dao.loadAll()) {
+            if (categoryCode.getCode() != size())
+                throw new IllegalStateException("Category-code missing: " + size());
+            add(categoryCode.getSupercat(), categoryCode.getSubcat());
+        }
+    }
+
+    //region encode
+
+    /**
+     * @return Code of category. Added (and stored) if new.
+     * @throws IOException If a new category couldn't be stored.
+     */
+    public synchronized int code(String supercat, String subcat) throws IOException {
+        Integer code = codes.get(supercat + ":" + subcat);
+        if (code != null) return code;
+
+        code = add(supercat, subcat);
+        try {
+            if (dao != null) dao.insert(new CategoryCode(code, supercat, subcat));
+        }
+        catch (RuntimeException e) {
+            remove(supercat, subcat);
+            throw new IOException("Can't store category " + supercat + ":" + subcat, e);
+        }
+        return code;
+    }
+
+    private int add(String supercat, String subcat) {
+        int code = supercats.size();
+        supercats.add(supercat);
+        subcats.add(subcat);
+        displayNames.add(subcat.isEmpty() ? subcat : subcat.substring(0, 1).toUpperCase() + subcat.substring(1));
+        types.add(Arrays.asList(QuizCategory.TYPES).indexOf(supercat));
+        codes.put(supercat + ":" + subcat, code);
+        return code;
+    }
+
+    private void remove(String supercat, String subcat) {
+        int last = supercats.size() - 1;
+        supercats.remove(last);
+        subcats.remove(last);
+        displayNames.remove(last);
+        types.remove(last);
+        codes.remove(supercat + ":" + subcat);
+    }
+
+    //endregion
+
+    //region lookup
+
+    /**
+     * @return N.o categories.
+     */
+    public synchronized int size() {
+        return supercats.size();
+    }
+
+    /**
+     * @return Supercat, NULL if unknown code.
+     */
+    public synchronized String getSupercat(int code) {
+        return isKnown(code) ? supercats.get(code) : null;
+    }
+
+    /**
+     * @return Subcat, NULL if unknown code.
+     */
+    public synchronized String getSubcat(int code) {
+        return isKnown(code) ? subcats.get(code) : null;
+    }
+
+    /**
+     * @return Subcat, capitalized. Empty if unknown code.
+     */
+    public synchronized String getDisplayName(int code) {
+        return isKnown(code) ? displayNames.get(code) : "";
+    }
+
+    /**
+     * @return Quiz-category type (index in QuizCategory.TYPES) of supercat, -1 if none
+     * (or unknown code).
+     */
+    public synchronized int getQuizCategoryType(int code) {
+        return isKnown(code) ? types.get(code) : -1;
+    }
+
+    private boolean isKnown(int code) {
+        return code >= 0 && code < supercats.size();
+    }
+
+    /**
+     * @return Codes of categories with quiz-category type.
+     */
+    public synchronized List<Integer> codesOfQuizCategoryType(int type) {
+        List<Integer> codes = new ArrayList<>();
+        for (int code = 0; code < types.size(); code++) {
+            if (types.get(code) == type) codes.add(code);
+        }
+        return codes;
+    }
+
+    //endregion
+}
@@ -55,6 +55,12 @@ public class Exercise {
      */
     private int color;
 
+    /**
+     * Version of the conversion-table geo-objects were classified by (see TagClassifier).
+     * NULL if not known.
+     */
+    private String tagTableVersion = null;
+
 
     /**
      * Default constructor. Display-index = 0 (top of list).
@@ -140,6 +146,14 @@ public class Exercise {
         this.color = color;
     }
 
+    public String getTagTableVersion() {
+        return tagTableVersion;
+    }
+
+    public void setTagTableVersion(String tagTableVersion) {
+        this.tagTableVersion = tagTableVersion;
+    }
+
     @Override
     public String toString(){
         return "Exercise: " + this.name + ", index: " + this.displayIndex;
@@ -7,16 +7,15 @@ import android.util.Log;
 import com.localore.localore.LocaUtils;
 import com.localore.localore.R;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
 import java.net.URI;
-import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -24,31 +23,91 @@ import java.util.regex.Pattern;
 /**
  * Helper for building geo-objects.
  * Iterator that fetches geo-object data and iterates over
- * instructions for building the geo-objects.
+ * records for building the geo-objects.
+ * Query sent to Overpass-endpoints with hedging and fail-over (see OverpassEndpoints).
+ * Responses are cached on disk (see ResponseCache): A response is only stored if
+ * read to its end (</osm>) without Overpass remarking an error (e.g. timeout).
+ *
+ * Spooling (see setSpool): The response is first read whole to a file of the cache,
+ * then parsed from memory (see MappedResponse). Network-time isn't spent parsing,
+ * and the file is there for a re-run.
+ *
+ * Two interchangeable parsers of the response (same records out):
+ * - PULL: Streaming pull-parser, reading bytes directly (default).
+ * - LINES: Line by line, with regexes.
  */
 public class GeoObjInstructionsIter {
-    private static final String[] OVERPASS_ENDPOINTS = new String[]{
-            "https://overpass-api.de/api/interpreter",
-            "http://overpass.openstreetmap.ru/cgi/interpreter",
-            "https://overpass.kumi.systems/api/interpreter"};
+    public enum Parser { PULL, LINES }
 
-    private URL url;
+    private static final byte[] NODE = "NODE".getBytes();
+    private static final byte[] WAY = "WAY".getBytes();
+    private static final byte[] REL = "REL".getBytes();
+    private static final byte[] TAG = "tag".getBytes();
+    private static final byte[] ID = "id".getBytes();
+    private static final byte[] LAT = "lat".getBytes();
+    private static final byte[] LON = "lon".getBytes();
+    private static final byte[] K = "k".getBytes();
+    private static final byte[] V = "v".getBytes();
+    private static final byte[] NAME_KEY = "name".getBytes();
+    private static final byte[] VERSION_KEY = "version".getBytes();
+    private static final byte[] REMARK = "remark".getBytes();
+    private static final byte[] OSM = "osm".getBytes();
+
+    /**
+     * Url-encoded query.
+     */
+    private String query = null;
+    private OverpassEndpoints endpoints = OverpassEndpoints.getInstance();
+    private ResponseCache cache = null;
+    private final Parser parser;
+    private ResponseStream response = null;
+    private ResponseCache.TeeStream cacheWriter = null;
+    private CancellationToken token = null;
+    private Closeable abort = null;
+    private boolean cacheHit = false;
+    private boolean spool = false;
+
+    /**
+     * Response complete if end reached and Overpass remarked no error.
+     */
+    private boolean endReached = false;
+    private boolean remarked = false;
     private Scanner scanner = null;
+    private OverpassPullParser pullParser = null;
 
     public GeoObjInstructionsIter(NodeShape area, Context context) {
-        try {
-            this.url = getQueryURL(area, context);
-            Log.i("<ME>", "Query: " + url.toString());
-        }
-        catch(MalformedURLException e) {
-            throw new RuntimeException(e.toString());
-        }
+        this(area, context, Parser.PULL);
+    }
+
+    public GeoObjInstructionsIter(NodeShape area, Context context, Parser parser) {
+        this.parser = parser;
+        this.query = getQuery(area, context);
+        this.cache = ResponseCache.getInstance(context);
+        Log.i("<ME>", "Query: " + query);
+    }
+
+    /**
+     * Iterator fetching a rendered query, without cache (see setCache).
+     *
+     * @param query Url-encoded query.
+     */
+    public GeoObjInstructionsIter(String query, Parser parser) {
+        this.parser = parser;
+        this.query = query;
     }
 
     /**
-     * @return URL that provides geo-objects-data.
+     * Iterator over an already fetched response. Open with open(InputStream).
      */
-    private URL getQueryURL(NodeShape area, Context context) throws MalformedURLException {
+    public GeoObjInstructionsIter(Parser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * @return Url-encoded query that provides geo-objects-data: named elements
+     * with a tag in the conversion-table.
+     */
+    private String getQuery(NodeShape area, Context context) {
         double[] bs = area.getBounds();
         String bs_str = String.format("%s,%s,%s,%s", bs[1], bs[0], bs[3], bs[2]);
         String poly_str = area.toRawString();
@@ -56,76 +115,303 @@ public class GeoObjInstructionsIter {
         String query = LocaUtils.readTextFile(R.raw.ql_query, context);
         query = query.replace("{{bbox}}", bs_str);
         query = query.replace("{{poly}}", poly_str);
-        query = URLEncoder.encode(query);
+        query = TagFilter.getInstance(context).expand(query);
+        return URLEncoder.encode(query);
+    }
 
-        String endpoint = OVERPASS_ENDPOINTS[0];
-        return new URL(endpoint + "?data=" + query);
+    /**
+     * @param endpoints Endpoints to send query to. Default: shared instance.
+     */
+    public void setEndpoints(OverpassEndpoints endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    /**
+     * @param cache Cache of responses, NULL for none. Default: shared instance.
+     */
+    public void setCache(ResponseCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @param spool True: read response to a file before parsing it (needs a cache).
+     * Default: false, parsed while read.
+     */
+    public void setSpool(boolean spool) {
+        this.spool = spool;
     }
 
     /**
      * Call before next().
      */
     public void open() throws IOException {
+        open(new CancellationToken());
+    }
+
+    /**
+     * Call before next().
+     *
+     * @param token If cancelled: connection aborted, a blocked open() or next() fails.
+     */
+    public void open(CancellationToken token) throws IOException {
+        String key = this.cache != null ? ResponseCache.key(this.query) : null;
+        boolean mapped = key != null && this.spool && this.parser == Parser.PULL;
+
+        File cachedFile = mapped ? this.cache.getFile(key) : null;
+        if (cachedFile != null) {
+            Log.i("<ME>", "Response from cache (mapped): " + key);
+            this.cacheHit = true;
+            open(new MappedResponse(cachedFile).getBuffer());
+            return;
+        }
+        InputStream cached = key != null && !mapped ? this.cache.get(key) : null;
+        if (cached != null) {
+            Log.i("<ME>", "Response from cache: " + key);
+            this.cacheHit = true;
+            open(new BufferedInputStream(cached));
+            return;
+        }
+
         try {
-            URLConnection con = this.url.openConnection();
-            con.setConnectTimeout(0);
-            con.setReadTimeout(0);
-            InputStream in = con.getInputStream();
-            this.scanner = new Scanner(in);
+            this.response = this.endpoints.open(this.query, token);
+            this.token = token;
+            this.abort = this.response::abort;
+            token.register(this.abort);
+            if (mapped) openSpooled(key);
+            else if (key != null) open(this.cache.put(key, this.response));
+            else open(this.response);
         }
         catch (IOException e) {
-            Log.d("<ME>", e.toString() + ". URL: " + url.toString());
+            Log.d("<ME>", e.toString() + ". Query: " + query);
             throw e;
         }
     }
 
     /**
-     * Returns instructions to build geo-objects. Closes connection
-     * if called when no more instructions.
-     *
-     * e.g:
-     * ["lat_lon 59.0206802 18.5453333",
-     *  "lat_lon ... ...",
-     *  "id NODE/43664464",
-     *  "version 1",
-     *  "name Ängsön-Marskär",
-     *  "tag natural=coastline",
-     *  "tag place=island"]
+     * Read response whole to a file, store it in cache if complete, and open
+     * the mapped file.
+     */
+    private void openSpooled(String key) throws IOException {
+        ResponseCache.TeeStream tee = this.cache.put(key, this.response);
+        try {
+            MappedResponse mapped = new MappedResponse(tee.spool());
+            this.token.unregister(this.abort);
+
+            if (mapped.isComplete()) tee.commit();
+            else Log.i("<ME>", "Response incomplete, not cached. Query: " + query);
+            open(mapped.getBuffer());
+        }
+        finally {
+            tee.close();
+        }
+    }
+
+    /**
+     * Call before next(), instead of open(), to iterate over a response in memory
+     * (e.g a range of a MappedResponse). Pull-parser only.
+     */
+    public void open(ByteBuffer buf) {
+        if (this.parser != Parser.PULL) throw new IllegalStateException("Not a pull-parser: " + this.parser);
+        this.pullParser = new OverpassPullParser(buf);
+    }
+
+    /**
+     * Call before next(), instead of open(), to iterate over a response in a stream.
+     * If in is a cache-entry being written, it's committed when completely iterated.
+     */
+    public void open(InputStream in) {
+        if (in instanceof ResponseCache.TeeStream) this.cacheWriter = (ResponseCache.TeeStream)in;
+        if (this.parser == Parser.LINES) this.scanner = new Scanner(in);
+        else this.pullParser = new OverpassPullParser(in);
+    }
+
+    /**
+     * Close response (if not completely read), stop listening to cancel. Idempotent.
+     */
+    public void close() {
+        try {
+            if (this.pullParser != null) this.pullParser.close();
+            if (this.scanner != null) this.scanner.close();
+        }
+        catch (IOException e) {
+            Log.d("<ME>", e.toString());
+        }
+        if (this.token != null) this.token.unregister(this.abort);
+    }
+
+    /**
+     * @return True if response read from cache.
+     */
+    public boolean isCacheHit() {
+        return this.cacheHit;
+    }
+
+    /**
+     * @return Bytes received from network so far (compressed), 0 if not opened from network.
+     */
+    public long getBytesOnWire() {
+        return this.response != null ? this.response.getBytesOnWire() : 0;
+    }
+
+    /**
+     * @return Bytes of response decompressed so far, 0 if not opened from network.
+     */
+    public long getBytesDecoded() {
+        return this.response != null ? this.response.getBytesDecoded() : 0;
+    }
+
+    /**
+     * Returns data to build next geo-object. Closes connection
+     * if called when no more geo-objects.
      *
-     * @return Next instruction, or NULL if no more.
+     * @return Next record, or NULL if no more.
+     * @throws InterruptedIOException If cancelled (an aborted response ends early).
+     * @throws IOException If a response from network ended before </osm> (disconnected),
+     * or if Overpass remarked an error (e.g timeout): the response is cut short, also if
+     * ended by </osm>.
+     */
+    public GeoObjRecord next() throws IOException {
+        GeoObjRecord record = this.parser == Parser.LINES ? nextFromLines() : nextFromPullParser();
+        if (record != null) return record;
+
+        if (this.remarked) throw new IOException("Overpass remarked an error");
+        if (this.response == null) return null;
+
+        if (this.token != null && this.token.isCancelled()) throw new InterruptedIOException("Cancelled");
+        if (!this.endReached) throw new IOException("Response incomplete");
+        return null;
+    }
+
+    //region pull
+
+    /**
+     * @return Next record, or NULL if no more.
+     */
+    private GeoObjRecord nextFromPullParser() throws IOException {
+        OverpassPullParser p = this.pullParser;
+        GeoObjRecord record = null;
+        int event;
+
+        while ((event=p.next()) != OverpassPullParser.END_DOCUMENT) {
+            if (event == OverpassPullParser.END_TAG) {
+                if (p.isName(OSM)) this.endReached = true;
+                if (record != null && isElement(p)) return record;
+                continue;
+            }
+
+            if (p.isName(REMARK)) {
+                this.remarked = true;
+                continue;
+            }
+            if (isElement(p)) {
+                record = new GeoObjRecord();
+                int id = p.getAttributeIndex(ID);
+                if (id != -1) record.setOsmId(p.getName() + "/" + p.getAttributeValue(id));
+                continue;
+            }
+            if (record == null) continue;
+
+            try {
+                int lat = p.getAttributeIndex(LAT);
+                int lon = p.getAttributeIndex(LON);
+                if (lat != -1 && lon != -1) {
+                    record.addNode(p.getAttributeDouble(lat), p.getAttributeDouble(lon));
+                    continue;
+                }
+
+                int k = p.getAttributeIndex(K);
+                int v = p.getAttributeIndex(V);
+                if (p.isName(TAG) && k != -1 && v != -1) {
+                    if (p.attributeValueEquals(k, NAME_KEY))
+                        record.setName(p.getAttributeValue(v));
+                    else if (p.attributeValueEquals(k, VERSION_KEY))
+                        record.setVersion(p.getAttributeInt(v));
+                    else
+                        record.addTag(p.getAttributeValue(k) + "=" + p.getAttributeValue(v));
+                }
+            }
+            catch (NumberFormatException e) {
+                Log.d("<ME>", "Bad number in " + record.getOsmId() + ": " + e.toString());
+            }
+        }
+
+        commitToCache();
+        close();
+        return null;
+    }
+
+    /**
+     * @return True if current tag is a geo-object element (NODE/WAY/REL).
+     */
+    private static boolean isElement(OverpassPullParser p) {
+        return p.isName(NODE) || p.isName(WAY) || p.isName(REL);
+    }
+
+    //endregion
+
+    /**
+     * Response read: store in cache, unless incomplete.
      */
-    public List<String> next() {
-        List<String> instr = new ArrayList<>();
+    private void commitToCache() {
+        if (this.cacheWriter == null) return;
+
+        try {
+            if (!this.endReached || this.remarked)
+                Log.i("<ME>", "Response incomplete, not cached. Query: " + query);
+            else
+                this.cacheWriter.commit();
+        }
+        catch (IOException e) {
+            Log.w("<ME>", "Can't cache response: " + e.toString());
+        }
+    }
+
+    //region lines
+
+    /**
+     * @return Next record, or NULL if no more.
+     */
+    private GeoObjRecord nextFromLines() {
+        GeoObjRecord record = new GeoObjRecord();
 
         while (this.scanner.hasNextLine()) {
             String line = scanner.nextLine().trim();
+            if (line.startsWith("<remark")) this.remarked = true;
+            if (line.equals("</osm>")) this.endReached = true;
 
             if (line.equals("</NODE>") ||
                     line.equals("</WAY>") ||
                     line.equals("</REL>")) {
 
-                return instr;
+                return record;
             }
 
-            String res;
-            if ((res=extractID(line)) != null) {
-                instr.add("id " + res);
-            }
-            if ((res=extractName(line)) != null) {
-                instr.add("name " + res);
+            try {
+                String res;
+                if ((res=extractID(line)) != null) {
+                    record.setOsmId(res);
+                }
+                if ((res=extractName(line)) != null) {
+                    record.setName(res);
+                }
+                else if ((res=extractPoint(line)) != null) {
+                    String[] latLon = res.split(" ");
+                    record.addNode(Double.parseDouble(latLon[0]), Double.parseDouble(latLon[1]));
+                }
+                else if ((res=extractVersion(line)) != null) {
+                    record.setVersion(Integer.parseInt(res));
+                }
+                else if ((res=extractTag(line)) != null) {
+                    record.addTag(res);
+                }
             }
-            else if ((res=extractPoint(line)) != null) {
-                instr.add("lat_lon " + res);
-            }
-            else if ((res=extractVersion(line)) != null) {
-                instr.add("version " + res);
-            }
-            else if ((res=extractTag(line)) != null) {
-                instr.add("tag " + res);
+            catch (NumberFormatException e) {
+                Log.d("<ME>", "Bad number in " + record.getOsmId() + ": " + e.toString());
             }
         }
 
-        scanner.close();
+        commitToCache();
+        close();
         return null;
     }
 
@@ -180,4 +466,6 @@ public class GeoObjInstructionsIter {
         if (m.find()) return m.group(1) + "=" + m.group(2);
         else return null;
     }
-}
\ No newline at end of file
+
+    //endregion
+}
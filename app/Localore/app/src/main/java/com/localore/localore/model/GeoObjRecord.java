@@ -0,0 +1,134 @@
+package com.localore.localore.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data for building one geo-object, as read from an Overpass-response.
+ * Filled by GeoObjInstructionsIter, consumed by GeoObject's constructor.
+ */
+public class GeoObjRecord {
+
+    /**
+     * "type/number", type = NODE/WAY/REL. NULL if not set.
+     */
+    private String osmId = null;
+
+    /**
+     * OSM-version, -1 if not set.
+     */
+    private int version = -1;
+
+    /**
+     * NULL if not set.
+     */
+    private String name = null;
+
+    /**
+     * Packed nodes: [lat0 lon0 lat1 lon1 ...]. Only first 2*nodeCount values used.
+     */
+    private double[] coords = new double[8];
+    private int nodeCount = 0;
+
+    /**
+     * ["key=value"], except name and version.
+     */
+    private List<String> tags = new ArrayList<>();
+
+    public void setOsmId(String osmId) {
+        this.osmId = osmId;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public void addNode(double lat, double lon) {
+        if (2 * nodeCount == coords.length) {
+            double[] grown = new double[2 * coords.length];
+            System.arraycopy(coords, 0, grown, 0, coords.length);
+            coords = grown;
+        }
+        coords[2*nodeCount] = lat;
+        coords[2*nodeCount + 1] = lon;
+        nodeCount++;
+    }
+
+    /**
+     * @param tag "key=value"
+     */
+    public void addTag(String tag) {
+        this.tags.add(tag);
+    }
+
+    public String getOsmId() {
+        return osmId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public double getLat(int i) {
+        return coords[2*i];
+    }
+
+    public double getLon(int i) {
+        return coords[2*i + 1];
+    }
+
+    /**
+     * @return ["key=value"]
+     */
+    public List<String> getTags() {
+        return tags;
+    }
+
+    /**
+     * @return Nodes [lon lat], as used by NodeShape.
+     */
+    public List<double[]> getNodes() {
+        List<double[]> nodes = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++)
+            nodes.add(new double[]{getLon(i), getLat(i)});
+        return nodes;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof GeoObjRecord)) return false;
+        return toString().equals(object.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * e.g: "NODE/43664464 v1 'Ängsön-Marskär' [59.0206802 18.5453333] [natural=coastline, place=island]"
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(osmId).append(" v").append(version).append(" '").append(name).append("' [");
+        for (int i = 0; i < nodeCount; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(getLat(i)).append(' ').append(getLon(i));
+        }
+        sb.append("] ").append(tags);
+        return sb.toString();
+    }
+}
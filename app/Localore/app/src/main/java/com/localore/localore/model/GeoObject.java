@@ -1,14 +1,14 @@
 package com.localore.localore.model;
 
+import android.arch.persistence.room.ColumnInfo;
 import android.arch.persistence.room.Entity;
 import android.arch.persistence.room.PrimaryKey;
+import android.util.Log;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonArray;
 import com.localore.localore.LocaUtils;
 
 /**
@@ -47,14 +47,18 @@ public class GeoObject {
     private List<NodeShape> shapes = null;
 
     /**
-     * Used during creation. After that redundant. (It's the quiz-category).
+     * Code of category (see CategoryDictionary), -1 if not set. More precise than
+     * quiz-category, which its supercat is.
      */
-    private String supercat = null;
+    @ColumnInfo(index = true)
+    private int category = -1;
 
     /**
-     * Category of geo-object. More precise than quiz-category.
+     * Raw OSM-tags with a key of the conversion-table (see TagClassifier.relevant), as
+     * codes of the tag-dictionary (see TagDictionary.encode). Kept for
+     * re-classification. NULL if not known (built before tags were kept).
      */
-    private String subcat = null;
+    private byte[] tags = null;
 
     /**
      * Time when a question defined by this geo-object was most recently answered correctly.
@@ -79,25 +83,25 @@ public class GeoObject {
     public GeoObject() {}
 
     /**
-     * Construct the object from instructions.
+     * Construct the object from a record read from the response.
      * Constructs geo-object with one shape (not multiple).
      * QuizId of geo-objects set to -1.
      */
-    public GeoObject(List<String> instr, JsonObject convTable) throws BuildException {
+    public GeoObject(GeoObjRecord record, TagClassifier classifier, TagDictionary dictionary) throws BuildException {
         try {
-            setFields(instr, convTable);
+            setFields(record, classifier, dictionary);
             testFields();
         }
         catch (Exception e) {
-            throw new BuildException(e.getMessage(), instr);
+            throw new BuildException(e.getMessage(), record);
         }
 
         this.quizId = -1;
         this.color = generateColor();
     }
     public class BuildException extends Exception {
-        public BuildException(String msg, List<String> instr) {
-            super(msg + "\n" + Arrays.toString(instr.toArray()));
+        public BuildException(String msg, GeoObjRecord record) {
+            super(msg + "\n" + record.toString());
         }
     }
 
@@ -109,52 +113,49 @@ public class GeoObject {
     }
 
     /**
-     * Set fields of this object as indicated by the instructions.
-     * Absent/bad instructions results in field not set.
+     * Set fields of this object from the record.
+     * Absent data in record results in field not set.
      */
-    private void setFields(List<String> instr, JsonObject convTable) {
-        List<double[]> ps = new ArrayList<double[]>();
-        List<String> tags = new ArrayList<String>();
-        int version = -1;
+    private void setFields(GeoObjRecord record, TagClassifier classifier, TagDictionary dictionary) {
+        List<String> tags = record.getTags();
+        int version = record.getVersion();
+        this.osmId = record.getOsmId();
+        this.name = record.getName();
 
-        for (String ins : instr) {
-            String[] parts = ins.split(" ");
-
-            if (parts[0].equals("id")) {
-                this.osmId = ins.substring(3, ins.length());
-            }
-            else if (parts[0].equals("name")) {
-                this.name = ins.substring(5, ins.length());
-            }
-            else if (parts[0].equals("version")) {
-                version = Integer.parseInt(parts[1]);
-            }
-            else if (parts[0].equals("lat_lon")) {
-                double lat = Double.parseDouble(parts[1]);
-                double lon = Double.parseDouble(parts[2]);
-                ps.add(new double[]{lon, lat});
-            }
-            else if (parts[0].equals("tag")) {
-                tags.add(ins.substring(4, ins.length()));
-            }
-            else {
-                throw new RuntimeException("Illegal instruction: " + ins);
-            }
-        }
-
-        if (ps.size() > 0) {
+        if (record.getNodeCount() > 0) {
             this.shapes = new ArrayList<NodeShape>();
-            this.shapes.add(new NodeShape(ps));
+            this.shapes.add(new NodeShape(record.getNodes()));
         }
         if (version != -1) this.rank = getRank(version, tags);
 
-        String cat = findCategory(tags, convTable);
-        if (cat != null) {
-            this.supercat = cat.split(":")[0];
-            this.subcat = cat.split(":")[1];
+        TagClassifier.Category cat = classifier.classify(tags);
+        if (cat != null) this.category = cat.getCode();
+
+        try {
+            this.tags = dictionary.encode(classifier.relevant(tags));
+        }
+        catch (IOException e) {
+            Log.w("<ME>", "Tags not kept: " + osmId, e);
         }
     }
 
+    /**
+     * Set category from kept tags, by a (changed) conversion-table.
+     * Unchanged if tags not kept, or if no category matches.
+     *
+     * @return True if category changed.
+     */
+    public boolean reclassify(TagClassifier classifier, TagDictionary dictionary) {
+        if (this.tags == null) return false;
+
+        TagClassifier.Category cat = classifier.classify(dictionary.decode(this.tags));
+        if (cat == null) return false;
+        if (cat.getCode() == this.category) return false;
+
+        this.category = cat.getCode();
+        return true;
+    }
+
     /**
      * @throws Exception with message if a field doesn't have
      * a proper value.
@@ -164,8 +165,7 @@ public class GeoObject {
                 this.name == null ||
                 this.shapes == null ||
                 this.rank == -1 ||
-                this.supercat == null ||
-                this.subcat == null)
+                this.category == -1)
             throw new Exception("Field not set");
 
         if (name.length() < 2) throw new Exception("Name too short");
@@ -264,24 +264,20 @@ public class GeoObject {
         this.shapes = shapes;
     }
 
-    public String getSupercat() {
-        return supercat;
+    public int getCategory() {
+        return category;
     }
 
-    public void setSupercat(String supercat) {
-        this.supercat = supercat;
+    public void setCategory(int category) {
+        this.category = category;
     }
 
-    public String getSubcat() {
-        return subcat;
+    public byte[] getTags() {
+        return tags;
     }
 
-    public String getCategory() {
-        return getSubcat().substring(0, 1).toUpperCase() + getSubcat().substring(1);
-    }
-
-    public void setSubcat(String subcat) {
-        this.subcat = subcat;
+    public void setTags(byte[] tags) {
+        this.tags = tags;
     }
 
     public long getTimeOfPreviousCorrectAnswer() {
@@ -344,88 +340,6 @@ public class GeoObject {
         return new double[]{ (bs[0] + bs[2]) / 2, (bs[1] + bs[3]) / 2 };
     }
 
-    /**
-     * Extracts relevant category from conversion-table.
-     *
-     * @param tags ["key=value"]
-     * @return "supercat:subcat" or NULL.
-     */
-    private String findCategory(List<String> tags, JsonObject convTable) {
-        CatData cat = null;
-        int minIndex = Integer.MAX_VALUE;
-
-        for (String tag : tags) {
-            CatData c = getCatData(tag, convTable);
-
-            if (c != null && c.index < minIndex) {
-                cat = c;
-            }
-        }
-
-        if (cat == null) return null;
-        else return cat.supercat + ":" + cat.subcat;
-    }
-
-    class CatData {
-        public final int index;
-        public final String supercat;
-        public final String subcat;
-        public CatData(int i, String sup, String sub) {
-            index = i;
-            supercat = sup;
-            subcat = sub;
-        }
-    }
-    /**
-     * @param tag Arbitrary OSM-tag.
-     * @param table Conversion table.
-     * @return Category and importance (index in table) of category
-     * of tag, or NULL if tag not described in table.
-     */
-    private CatData getCatData(String tag, JsonObject table) {
-        String[] mains = new String[]{"transport", "constructions", "nature", "settlements", "roads"};
-        int index = 0;
-
-        for (String supercat : mains) {
-            JsonArray cats = table.getAsJsonArray(supercat);
-
-            for (int i = 0; i < cats.size(); i++) {
-                JsonArray cat = cats.get(i).getAsJsonArray();
-                int catIndex = index++;
-                String subcat = cat.get(0).getAsString();
-
-                if (containsTag(cat, tag))
-                    return new CatData(catIndex, supercat, subcat);
-            }
-        }
-        return null;
-    }
-
-    /**
-     * @param cat Section of the conv-table describing tag-conversion
-     * of one particular category.
-     * @param tag A tag "key=value".
-     * @return True if tag in section cat.
-     */
-    private boolean containsTag(JsonArray cat, String tag) {
-        for (int i = 1; i < cat.size(); i++) {
-            String tag2 = cat.get(i).getAsString();
-            if (tag.equals(tag2))
-                return true;
-
-            String key = tag.split("=")[0];
-            String value = tag.split("=")[1];
-            String key2 = tag2.split("=")[0];
-            String value2 = tag2.split("=")[1];
-
-            if (key.equals(key2) && value2.equals("*") && !value.equals("no"))
-                return true;
-
-        }
-        return false;
-    }
-
-
     /**
      * @return Link to this osm-object.
      */
@@ -438,11 +352,10 @@ public class GeoObject {
      */
     @Override
     public String toString() {
-        return String.format("%s.%s, %s, %s, rank:%s, prev-correct:%s, times-asked:%s, no-corrects:%s, %s",
+        return String.format("%s.%s, category:%s, rank:%s, prev-correct:%s, times-asked:%s, no-corrects:%s, %s",
                 this.id,
                 this.name,
-                this.supercat,
-                this.subcat,
+                this.category,
                 this.rank,
                 this.timeOfPreviousCorrectAnswer,
                 this.timesAsked,
@@ -467,8 +380,7 @@ public class GeoObject {
                 "osmId: " + this.osmId + "\n" +
                         "name: " + this.name + "\n" +
                         "rank: " + this.rank + "\n" +
-                        "supercat: " + this.supercat + "\n" +
-                        "subcat: " + this.subcat + "\n" +
+                        "category: " + this.category + "\n" +
                         "quizId: " + this.quizId + "\n" +
                         "url: " + getLink() + "\n" +
                         "shape:\n" + sStr.toString();
@@ -18,6 +18,14 @@ public abstract class GeoObjectDao {
 
     private static int BATCH_SIZE = 500;
 
+    /**
+     * Kept tags of a geo-object (see GeoObject.getTags).
+     */
+    public static class KeptTags {
+        public long id;
+        public byte[] tags;
+    }
+
     // refined
 
     @Transaction
@@ -45,6 +53,9 @@ public abstract class GeoObjectDao {
     @Update
     public abstract void update(GeoObject geoObject);
 
+    @Update
+    public abstract void update(List<GeoObject> gos);
+
     @Delete
     public abstract void delete(GeoObject go);
 
@@ -63,12 +74,24 @@ public abstract class GeoObjectDao {
     @Query("SELECT * FROM GeoObject WHERE id = :id")
     public abstract GeoObject load(long id);
 
+    @Query("SELECT * FROM GeoObject WHERE id > :id ORDER BY id LIMIT :limit")
+    public abstract List<GeoObject> loadWithIdAbove(long id, int limit);
+
     @Transaction @Query("SELECT * FROM geoobject WHERE id IN (:ids)")
     public abstract List<GeoObject> loadWithIdIn_(List<Long> ids);
 
     @Transaction @Query("SELECT * FROM GeoObject WHERE name = :name COLLATE NOCASE")
     public abstract List<GeoObject> loadWithSimilarName(String name);
 
+    @Query("SELECT DISTINCT name FROM GeoObject")
+    public abstract List<String> loadNames();
+
+    @Query("SELECT id, tags FROM GeoObject WHERE id > :id AND tags IS NOT NULL ORDER BY id LIMIT :limit")
+    public abstract List<KeptTags> loadKeptTagsWithIdAbove(long id, int limit);
+
+    @Query("UPDATE GeoObject SET tags = :tags WHERE id = :id")
+    public abstract void updateTags(long id, byte[] tags);
+
     @Transaction @Query("SELECT * FROM geoobject WHERE quizId = :quizId")
     public abstract List<GeoObject> loadWithQuiz(long quizId);
 
@@ -96,8 +119,8 @@ public abstract class GeoObjectDao {
     @Transaction @Query("SELECT id FROM geoobject WHERE quizId IN (:quizIds)")
     public abstract List<Long> loadIdsWithQuizIn(List<Long> quizIds);
 
-    @Transaction @Query("SELECT id FROM GeoObject WHERE quizId = -1 AND supercat = :supercat ORDER BY rank DESC")
-    public abstract List<Long> loadQuizlessIdsWithSupercatOrderdByRank(String supercat);
+    @Transaction @Query("SELECT id FROM GeoObject WHERE quizId = -1 AND category IN (:categories) ORDER BY rank DESC")
+    public abstract List<Long> loadQuizlessIdsWithCategoryInOrderedByRank(List<Integer> categories);
 
     @Query("SELECT count(*) FROM GeoObject")
     public abstract int count();
@@ -0,0 +1,54 @@
+package com.localore.localore.model;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Source of OSM-data for building the geo-objects of a working-area.
+ * Data is split into parts that are read independently (possibly in parallel).
+ *
+ * - OverpassIngestSource: Queries Overpass, one part per tile. Tiles may be stored (see StoredPart).
+ * - RecordedIngestSource: Recorded responses, one or more parts per file.
+ */
+public interface IngestSource {
+
+    /**
+     * One independently read part of the data.
+     */
+    interface Part {
+        /**
+         * Restartable: May be called again after a failure, then reads from start.
+         *
+         * @param token If cancelled: reading fails (promptly).
+         * @return Opened iterator over records of this part. Close when done.
+         */
+        GeoObjInstructionsIter open(CancellationToken token) throws IOException;
+    }
+
+    /**
+     * Part whose built geo-objects can be stored, and later loaded instead of read.
+     * Stored geo-objects may reach outside the working-area: only accepted ones are used.
+     */
+    interface StoredPart extends Part {
+        /**
+         * @return Stored geo-objects, or NULL if none (then read with open()).
+         */
+        List<GeoObject> load();
+
+        /**
+         * @param built All geo-objects built from a complete read (started at fetchTime).
+         */
+        void store(List<GeoObject> built, long fetchTime) throws IOException;
+
+        /**
+         * @return True if geo-object (loaded or built) is of the working-area.
+         */
+        boolean accepts(GeoObject go);
+    }
+
+    /**
+     * @param workingArea Area of exercise.
+     * @return Parts with all data of area.
+     */
+    List<Part> parts(NodeShape workingArea);
+}
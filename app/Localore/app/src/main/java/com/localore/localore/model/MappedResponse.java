@@ -0,0 +1,121 @@
+package com.localore.localore.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An Overpass-response spooled to a file, memory-mapped for parsing without
+ * copying it into the heap (see OverpassPullParser(ByteBuffer)).
+ *
+ * The response can be split at element-boundaries (<NODE, <WAY, <REL) into
+ * ranges that are parsed independently: in parallel, or again after a failure.
+ */
+public class MappedResponse {
+
+    private static final byte[] REMARK = "<remark".getBytes();
+    private static final byte[] END = "</osm>".getBytes();
+    private static final byte[][] ELEMENTS = {"NODE".getBytes(), "WAY".getBytes(), "REL".getBytes()};
+
+    private final MappedByteBuffer buf;
+
+    /**
+     * Map whole file (read-only). The mapping stays valid if the file is
+     * renamed or deleted.
+     */
+    public MappedResponse(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            this.buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return Whole response, in a buffer of its own position and limit.
+     */
+    public ByteBuffer getBuffer() {
+        return buf.duplicate();
+    }
+
+    /**
+     * @return True if response ends with </osm> and Overpass remarked no error
+     * (e.g timeout, which truncates the response).
+     */
+    public boolean isComplete() {
+        int end = buf.limit();
+        while (end > 0 && isSpace(buf.get(end - 1))) end--;
+        if (end < END.length || !bytesEqual(end - END.length, END)) return false;
+        return indexOf(REMARK, 0) == -1;
+    }
+
+    /**
+     * @param n Wanted n.o ranges (at least 1).
+     * @return Consecutive ranges covering the response, each starting at an element
+     * (except first). Fewer than n if elements too few.
+     */
+    public List<ByteBuffer> split(int n) {
+        int size = buf.limit();
+        List<ByteBuffer> ranges = new ArrayList<>(n);
+        int start = 0;
+
+        for (int i = 1; i <= n; i++) {
+            int end = i == n ? size : elementStart(Math.max(start + 1, (int)((long)size * i / n)));
+            if (end <= start) continue;
+
+            ByteBuffer range = buf.duplicate();
+            range.position(start);
+            range.limit(end);
+            ranges.add(range);
+            start = end;
+        }
+        return ranges;
+    }
+
+    /**
+     * @return Index of first element start-tag at or after from, or size if none.
+     */
+    private int elementStart(int from) {
+        int size = buf.limit();
+        for (int i = from; i < size; i++) {
+            if (buf.get(i) != '<') continue;
+            for (byte[] element : ELEMENTS) {
+                int after = i + 1 + element.length;
+                if (after < size && bytesEqual(i + 1, element) && isSpace(buf.get(after)))
+                    return i;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return Index of first occurrence of bytes at or after from, or -1.
+     */
+    private int indexOf(byte[] bytes, int from) {
+        int last = buf.limit() - bytes.length;
+        for (int i = from; i <= last; i++) {
+            if (buf.get(i) == bytes[0] && bytesEqual(i, bytes)) return i;
+        }
+        return -1;
+    }
+
+    private boolean bytesEqual(int start, byte[] bytes) {
+        if (start + bytes.length > buf.limit()) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (buf.get(start + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+}
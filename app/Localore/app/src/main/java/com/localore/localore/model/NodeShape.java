@@ -303,6 +303,134 @@ public class NodeShape implements Serializable {
     }
     //endregion
 
+    //region clip
+
+    /**
+     * Clip this shape (as a polygon) by a rectangle (Sutherland-Hodgman).
+     *
+     * @param bounds [wsen]
+     * @return Part of shape inside bounds (open polygon), or NULL if no area inside.
+     */
+    public NodeShape clip(double[] bounds) {
+        List<double[]> ns = new ArrayList<>(this.nodes);
+        if (ns.size() > 1 && isClosed()) ns.remove(ns.size() - 1);
+
+        for (int edge = 0; edge < 4 && ns.size() > 0; edge++) {
+            List<double[]> clipped = new ArrayList<>();
+
+            for (int i = 0; i < ns.size(); i++) {
+                double[] cur = ns.get(i);
+                double[] prev = ns.get((i + ns.size() - 1) % ns.size());
+                boolean curIn = inside(cur, edge, bounds);
+                boolean prevIn = inside(prev, edge, bounds);
+
+                if (curIn) {
+                    if (!prevIn) clipped.add(edgeIntersection(prev, cur, edge, bounds));
+                    clipped.add(cur);
+                }
+                else if (prevIn) {
+                    clipped.add(edgeIntersection(prev, cur, edge, bounds));
+                }
+            }
+            ns = clipped;
+        }
+
+        if (ns.size() < 3) return null;
+        return new NodeShape(ns);
+    }
+
+    /**
+     * @param edge 0:west 1:south 2:east 3:north
+     * @return True if node on inner side of edge.
+     */
+    private static boolean inside(double[] node, int edge, double[] bounds) {
+        switch (edge) {
+            case 0: return node[0] >= bounds[0];
+            case 1: return node[1] >= bounds[1];
+            case 2: return node[0] <= bounds[2];
+            default: return node[1] <= bounds[3];
+        }
+    }
+
+    /**
+     * @return Point where segment n1-n2 crosses edge.
+     */
+    private static double[] edgeIntersection(double[] n1, double[] n2, int edge, double[] bounds) {
+        if (edge == 0 || edge == 2) {
+            double lon = bounds[edge];
+            double t = (lon - n1[0]) / (n2[0] - n1[0]);
+            return new double[]{ lon, n1[1] + t * (n2[1] - n1[1]) };
+        }
+        else {
+            double lat = bounds[edge];
+            double t = (lat - n1[1]) / (n2[1] - n1[1]);
+            return new double[]{ n1[0] + t * (n2[0] - n1[0]), lat };
+        }
+    }
+
+    //endregion
+
+    //region overlap
+
+    /**
+     * @param area Polygon.
+     * @return True if this shape (as polygon if closed, else as line or node) and area
+     * have a point in common.
+     */
+    public boolean overlaps(NodeShape area) {
+        double[] bs = getBounds();
+        double[] areaBs = area.getBounds();
+        if (bs[0] > areaBs[2] || areaBs[0] > bs[2] || bs[1] > areaBs[3] || areaBs[1] > bs[3])
+            return false;
+
+        for (double[] node : this.nodes) {
+            if (area.contains(node)) return true;
+        }
+        if (isClosed() && contains(area.getFirst())) return true;
+
+        List<double[]> areaNodes = area.asClosed().nodes;
+        for (int i = 0; i < this.nodes.size() - 1; i++) {
+            for (int j = 0; j < areaNodes.size() - 1; j++) {
+                if (crosses(nodes.get(i), nodes.get(i+1), areaNodes.get(j), areaNodes.get(j+1)))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param node [lon lat]
+     * @return True if node inside this shape as a polygon (even-odd rule).
+     */
+    public boolean contains(double[] node) {
+        boolean inside = false;
+        for (int i = 0, j = nodes.size() - 1; i < nodes.size(); j = i++) {
+            double[] a = nodes.get(i);
+            double[] b = nodes.get(j);
+            if ((a[1] > node[1]) != (b[1] > node[1]) &&
+                    node[0] < (b[0] - a[0]) * (node[1] - a[1]) / (b[1] - a[1]) + a[0])
+                inside = !inside;
+        }
+        return inside;
+    }
+
+    /**
+     * @return True if segment a1-a2 crosses segment b1-b2.
+     */
+    private static boolean crosses(double[] a1, double[] a2, double[] b1, double[] b2) {
+        return side(a1, a2, b1) * side(a1, a2, b2) < 0 &&
+                side(b1, b2, a1) * side(b1, b2, a2) < 0;
+    }
+
+    /**
+     * @return Sign of which side of line p1-p2 p is on, 0 if on line.
+     */
+    private static double side(double[] p1, double[] p2, double[] p) {
+        return Math.signum((p2[0] - p1[0]) * (p[1] - p1[1]) - (p2[1] - p1[1]) * (p[0] - p1[0]));
+    }
+
+    //endregion
+
     /**
      * @return A defiantly closed node-shape (this or a new constructed from this).)
      */
@@ -0,0 +1,136 @@
+package com.localore.localore.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A tile in the standard (slippy map) web-mercator grid: zoom/x/y.
+ * Used for splitting a working-area into separately fetched parts.
+ */
+public class OsmTile {
+
+    /**
+     * Zoom of tiles when fetching geo-objects. A tile is ~10*10km at equator,
+     * ~5*5km in Sweden.
+     */
+    public static final int FETCH_ZOOM = 12;
+
+    private static final double LAT_MAX = 85.0511287798;
+
+    private final int zoom;
+    private final int x;
+    private final int y;
+
+    public OsmTile(int zoom, int x, int y) {
+        this.zoom = zoom;
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * @param lon,lat
+     * @return Tile containing point.
+     */
+    public static OsmTile at(double lon, double lat, int zoom) {
+        int n = 1 << zoom;
+        lat = Math.max(-LAT_MAX, Math.min(LAT_MAX, lat));
+
+        int x = (int)Math.floor((lon + 180) / 360 * n);
+        double latRad = Math.toRadians(lat);
+        int y = (int)Math.floor((1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2 * n);
+
+        return new OsmTile(zoom, clamp(x, n), clamp(y, n));
+    }
+
+    /**
+     * @param bounds [wsen]
+     * @return All tiles intersecting bounds.
+     */
+    public static List<OsmTile> covering(double[] bounds, int zoom) {
+        OsmTile nw = at(bounds[0], bounds[3], zoom);
+        OsmTile se = at(bounds[2], bounds[1], zoom);
+
+        List<OsmTile> tiles = new ArrayList<>();
+        for (int y = nw.y; y <= se.y; y++) {
+            for (int x = nw.x; x <= se.x; x++) {
+                tiles.add(new OsmTile(zoom, x, y));
+            }
+        }
+        return tiles;
+    }
+
+    private static int clamp(int i, int n) {
+        return Math.max(0, Math.min(n - 1, i));
+    }
+
+    /**
+     * @return [wsen]
+     */
+    public double[] getBounds() {
+        return new double[]{ lon(x), lat(y + 1), lon(x + 1), lat(y) };
+    }
+
+    /**
+     * @param area Polygon.
+     * @return Part of tile covered by area, 0-1 (in degrees, ok within a tile).
+     */
+    public double coverage(NodeShape area) {
+        double[] bs = getBounds();
+        NodeShape clipped = area.clip(bs);
+        if (clipped == null) return 0;
+
+        List<double[]> ns = clipped.getNodes();
+        double sum = 0;
+        for (int i = 0; i < ns.size(); i++) {
+            double[] a = ns.get(i);
+            double[] b = ns.get((i + 1) % ns.size());
+            sum += a[0] * b[1] - b[0] * a[1];
+        }
+        return Math.abs(sum) / 2 / ((bs[2] - bs[0]) * (bs[3] - bs[1]));
+    }
+
+    private double lon(int x) {
+        return (double)x / (1 << zoom) * 360 - 180;
+    }
+
+    private double lat(int y) {
+        double n = Math.PI - 2 * Math.PI * y / (1 << zoom);
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    public int getZoom() {
+        return zoom;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * @return "zoom/x/y"
+     */
+    public String getKey() {
+        return zoom + "/" + x + "/" + y;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof OsmTile)) return false;
+        OsmTile tile = (OsmTile)object;
+        return tile.zoom == zoom && tile.x == x && tile.y == y;
+    }
+
+    @Override
+    public int hashCode() {
+        return (zoom * 31 + x) * 31 + y;
+    }
+
+    @Override
+    public String toString() {
+        return getKey();
+    }
+}
@@ -0,0 +1,467 @@
+package com.localore.localore.model;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Selection of Overpass-endpoint (mirror) for a query.
+ *
+ * - Tracks recent time-to-first-byte and failures of each endpoint. Overpass sends
+ *   its first byte only when the whole query is evaluated, so latencies are kept per
+ *   kind of query: by its timeout ([timeout:N], e.g a tile vs a count).
+ * - Prefers fast endpoints. Endpoints failing repeatedly are skipped for a while
+ *   (circuit open), then given one new chance (half-open).
+ * - Hedging: If the first endpoint hasn't produced any bytes within a deadline
+ *   (a high percentile of its recent latencies of the kind, or half the query's
+ *   timeout if too few known), the same query is sent to the next endpoint. First
+ *   to respond wins, the other is aborted.
+ * - Fail-over: If an endpoint fails, next one is tried at once.
+ *
+ * State is shared by all queries of the process (see getInstance()).
+ */
+public class OverpassEndpoints {
+
+    public static final String[] DEFAULT_ENDPOINTS = new String[]{
+            "https://overpass-api.de/api/interpreter",
+            "http://overpass.openstreetmap.ru/cgi/interpreter",
+            "https://overpass.kumi.systems/api/interpreter"};
+
+    /**
+     * Number of recent latencies remembered per endpoint.
+     */
+    private static final int LATENCY_WINDOW = 16;
+
+    /**
+     * Consecutive failures before circuit of endpoint is opened.
+     */
+    private static final int FAILURES_TO_OPEN = 3;
+
+    /**
+     * Time in ms an open circuit stays open before next attempt.
+     */
+    private static final long OPEN_CIRCUIT_TIME = 2 * 60 * 1000;
+
+    /**
+     * Hedge after this percentile of primary endpoint's recent latencies.
+     */
+    private static final double HEDGE_PERCENTILE = 0.9;
+
+    /**
+     * Min hedge-deadline [ms]. Max is the query's timeout (or the read-timeout).
+     */
+    private static final long MIN_HEDGE_DELAY = 2 * 1000;
+    private static final int MIN_SAMPLES_FOR_PERCENTILE = 4;
+
+    /**
+     * Overpass' timeout [s] of a query without [timeout:N].
+     */
+    private static final int DEFAULT_QUERY_TIMEOUT = 180;
+    private static final Pattern QUERY_TIMEOUT = Pattern.compile("\\[timeout:(\\d+)\\]");
+
+    /**
+     * Max number of simultaneous requests for one query (primary + hedge).
+     */
+    private static final int MAX_IN_FLIGHT = 2;
+
+    /**
+     * Default timeouts in ms.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT = 3 * 60 * 1000;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Max ms between checks for cancel while waiting for a response.
+     */
+    private static final long CANCEL_CHECK_INTERVAL = 100;
+
+    private static OverpassEndpoints INSTANCE;
+
+    private final List<Endpoint> endpoints = new ArrayList<>();
+    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int readTimeout = DEFAULT_READ_TIMEOUT;
+
+    /**
+     * @return Shared instance, with default endpoints.
+     */
+    public static synchronized OverpassEndpoints getInstance() {
+        if (INSTANCE == null) INSTANCE = new OverpassEndpoints(DEFAULT_ENDPOINTS);
+        return INSTANCE;
+    }
+
+    /**
+     * @param urls Interpreter-urls, in order of preference when nothing known.
+     */
+    public OverpassEndpoints(String[] urls) {
+        for (String url : urls) endpoints.add(new Endpoint(url));
+    }
+
+    /**
+     * @param connectTimeout Ms, 0 for infinite.
+     * @param readTimeout Ms between bytes, 0 for infinite.
+     */
+    public synchronized void setTimeouts(int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Thrown when an endpoint refuses a query because all its slots (for this client) are taken.
+     * Not counted as a failure of the endpoint.
+     */
+    public static class RateLimitException extends IOException {
+        public RateLimitException(String endpoint) {
+            super("Rate limited by: " + endpoint);
+        }
+    }
+
+    //region health
+
+    /**
+     * Recent latencies of one kind of query at one endpoint.
+     */
+    private static class Latencies {
+        final long[] values = new long[LATENCY_WINDOW];
+        int count = 0;
+        int next = 0;
+
+        void add(long latency) {
+            values[next] = latency;
+            next = (next + 1) % LATENCY_WINDOW;
+            count = Math.min(count + 1, LATENCY_WINDOW);
+        }
+
+        /**
+         * @return Latency at percentile p <- [0,1], or -1 if unknown.
+         */
+        long percentile(double p) {
+            if (count == 0) return -1;
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            int i = (int)Math.ceil(p * count) - 1;
+            return sorted[Math.max(0, Math.min(i, count - 1))];
+        }
+    }
+
+    /**
+     * Health of one endpoint.
+     */
+    private static class Endpoint {
+        final String url;
+
+        /**
+         * By query-timeout [s].
+         */
+        final Map<Integer, Latencies> latencies = new HashMap<>();
+        int consecutiveFailures = 0;
+        long openUntil = 0;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        boolean isOpen(long now) {
+            return consecutiveFailures >= FAILURES_TO_OPEN && now < openUntil;
+        }
+
+        Latencies latencies(int queryTimeout) {
+            Latencies of = latencies.get(queryTimeout);
+            if (of == null) {
+                of = new Latencies();
+                latencies.put(queryTimeout, of);
+            }
+            return of;
+        }
+    }
+
+    /**
+     * @param query Url-encoded query.
+     * @return Timeout of query in s (Overpass' default if not set).
+     */
+    private static int queryTimeout(String query) {
+        try {
+            Matcher m = QUERY_TIMEOUT.matcher(URLDecoder.decode(query, "UTF-8"));
+            return m.find() ? Integer.parseInt(m.group(1)) : DEFAULT_QUERY_TIMEOUT;
+        }
+        catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return DEFAULT_QUERY_TIMEOUT;
+        }
+    }
+
+    /**
+     * @return Endpoints in order to try: Closed circuits by median latency of queries
+     * with timeout (unknown first), then open circuits by time until half-open.
+     */
+    private synchronized List<Endpoint> ranked(int queryTimeout) {
+        long now = System.currentTimeMillis();
+        List<Endpoint> closed = new ArrayList<>();
+        List<Endpoint> open = new ArrayList<>();
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.isOpen(now)) open.add(endpoint);
+            else closed.add(endpoint);
+        }
+
+        Collections.sort(closed, (a, b) -> Long.compare(
+                a.latencies(queryTimeout).percentile(0.5), b.latencies(queryTimeout).percentile(0.5)));
+        Collections.sort(open, (a, b) -> Long.compare(a.openUntil, b.openUntil));
+        closed.addAll(open);
+        return closed;
+    }
+
+    private synchronized void reportSuccess(Endpoint endpoint, int queryTimeout, long latency) {
+        reportLatency(endpoint, queryTimeout, latency);
+        endpoint.consecutiveFailures = 0;
+    }
+
+    /**
+     * @param latency Time to first byte, or time waited (lower bound) if aborted.
+     */
+    private synchronized void reportLatency(Endpoint endpoint, int queryTimeout, long latency) {
+        endpoint.latencies(queryTimeout).add(latency);
+    }
+
+    private synchronized void reportFailure(Endpoint endpoint) {
+        endpoint.consecutiveFailures++;
+        if (endpoint.consecutiveFailures >= FAILURES_TO_OPEN) {
+            endpoint.openUntil = System.currentTimeMillis() + OPEN_CIRCUIT_TIME;
+            Log.i("<ME>", "Circuit opened: " + endpoint.url);
+        }
+    }
+
+    /**
+     * @return Ms to wait for first byte from endpoint before hedging: high percentile
+     * of recent latencies of queries with timeout, or half the timeout if too few known.
+     * At most the timeout (or read-timeout): an endpoint still evaluating then has failed.
+     */
+    private synchronized long hedgeDelay(Endpoint endpoint, int queryTimeout) {
+        long maxDelay = queryTimeout * 1000L;
+        if (readTimeout > 0) maxDelay = Math.min(maxDelay, readTimeout);
+
+        Latencies latencies = endpoint.latencies(queryTimeout);
+        if (latencies.count < MIN_SAMPLES_FOR_PERCENTILE) return maxDelay / 2;
+        long delay = latencies.percentile(HEDGE_PERCENTILE);
+        return Math.max(Math.min(MIN_HEDGE_DELAY, maxDelay), Math.min(delay, maxDelay));
+    }
+
+    //endregion
+
+    //region open
+
+    /**
+     * One request to one endpoint.
+     */
+    private class Attempt {
+        final Endpoint endpoint;
+        final URL url;
+        final String query;
+        final int queryTimeout;
+        private URLConnection con = null;
+        private ResponseStream in = null;
+        private boolean aborted = false;
+        private long start = 0;
+
+        Attempt(Endpoint endpoint, String query, int queryTimeout) throws IOException {
+            this.endpoint = endpoint;
+            this.url = new URL(endpoint.url);
+            this.query = query;
+            this.queryTimeout = queryTimeout;
+        }
+
+        /**
+         * Connects, posts query (too long for a GET-url with tag-filtration) and
+         * waits for first byte.
+         * @return Decompressed stream positioned at first byte.
+         */
+        ResponseStream call() throws IOException {
+            synchronized (this) {
+                start = System.currentTimeMillis();
+            }
+            ResponseStream in = null;
+            try {
+                URLConnection con = url.openConnection();
+                con.setConnectTimeout(connectTimeout);
+                con.setReadTimeout(readTimeout);
+                con.setRequestProperty("Accept-Encoding", ResponseStream.ACCEPT_ENCODING);
+                con.setDoOutput(true);
+                con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                synchronized (this) {
+                    if (aborted) throw new IOException("Aborted");
+                    this.con = con;
+                }
+                OutputStream out = con.getOutputStream();
+                out.write(("data=" + query).getBytes("UTF-8"));
+                out.close();
+
+                if (con instanceof HttpURLConnection &&
+                        ((HttpURLConnection)con).getResponseCode() == HTTP_TOO_MANY_REQUESTS)
+                    throw new RateLimitException(endpoint.url);
+
+                in = ResponseStream.open(con);
+                in.mark(1);
+                if (in.read() == -1) throw new IOException("Empty response");
+                in.reset();
+            }
+            catch (RateLimitException e) {
+                throw e;
+            }
+            catch (IOException e) {
+                if (in != null) in.close();
+                if (!isAborted()) reportFailure(endpoint);
+                throw e;
+            }
+
+            reportSuccess(endpoint, queryTimeout, System.currentTimeMillis() - start);
+            synchronized (this) {
+                if (!aborted) {
+                    this.in = in;
+                    return in;
+                }
+            }
+            in.close();
+            throw new IOException("Aborted");
+        }
+
+        synchronized boolean isAborted() {
+            return aborted;
+        }
+
+        /**
+         * Stop the request (lost race). Closes response if already received.
+         */
+        void abort() {
+            URLConnection con;
+            ResponseStream in;
+            long start;
+            synchronized (this) {
+                aborted = true;
+                con = this.con;
+                in = this.in;
+                start = this.start;
+            }
+
+            if (in == null && start != 0)
+                reportLatency(endpoint, queryTimeout, System.currentTimeMillis() - start);
+
+            try {
+                if (in != null) in.close();
+            }
+            catch (IOException e) {
+                Log.d("<ME>", e.toString());
+            }
+            if (con instanceof HttpURLConnection)
+                ((HttpURLConnection)con).disconnect();
+        }
+    }
+
+    /**
+     * Sends query to best endpoint(s), with hedging and fail-over.
+     *
+     * @param query Url-encoded Overpass-query.
+     * @return Response-stream of first endpoint to answer (decompressed).
+     * @throws IOException If all endpoints fail.
+     */
+    public ResponseStream open(String query) throws IOException {
+        return open(query, new CancellationToken());
+    }
+
+    /**
+     * Sends query to best endpoint(s), with hedging and fail-over.
+     *
+     * @param query Url-encoded Overpass-query.
+     * @param token If cancelled: all requests aborted.
+     * @return Response-stream of first endpoint to answer (decompressed).
+     * @throws IOException If all endpoints fail. InterruptedIOException if cancelled.
+     */
+    public ResponseStream open(String query, CancellationToken token) throws IOException {
+        int queryTimeout = queryTimeout(query);
+        List<Endpoint> candidates = ranked(queryTimeout);
+        List<Attempt> attempts = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_IN_FLIGHT);
+        CompletionService<ResponseStream> completion = new ExecutorCompletionService<>(executor);
+        List<Future<ResponseStream>> futures = new ArrayList<>();
+
+        IOException lastException = new IOException("No endpoints");
+        int inFlight = 0;
+        long hedgeAt = 0;
+
+        try {
+            while (inFlight > 0 || attempts.size() < candidates.size()) {
+                if (token.isCancelled()) {
+                    for (Attempt attempt : attempts) attempt.abort();
+                    throw new InterruptedIOException("Cancelled");
+                }
+
+                boolean canStartMore = attempts.size() < candidates.size() && inFlight < MAX_IN_FLIGHT;
+                long now = System.currentTimeMillis();
+
+                if (canStartMore && (inFlight == 0 || now >= hedgeAt)) {
+                    Endpoint endpoint = candidates.get(attempts.size());
+                    Attempt attempt = new Attempt(endpoint, query, queryTimeout);
+                    attempts.add(attempt);
+                    futures.add(completion.submit(attempt::call));
+                    if (inFlight > 0) Log.i("<ME>", "Hedging with: " + endpoint.url);
+                    inFlight++;
+                    hedgeAt = System.currentTimeMillis() + hedgeDelay(endpoint, queryTimeout);
+                    continue;
+                }
+
+                long wait = canStartMore ?
+                        Math.min(hedgeAt - now, CANCEL_CHECK_INTERVAL) : CANCEL_CHECK_INTERVAL;
+                Future<ResponseStream> done = completion.poll(wait, TimeUnit.MILLISECONDS);
+                if (done == null) continue;
+                inFlight--;
+
+                try {
+                    ResponseStream in = done.get();
+                    Attempt winner = attempts.get(futures.indexOf(done));
+                    Log.i("<ME>", "Response from: " + winner.endpoint.url);
+                    for (Attempt attempt : attempts)
+                        if (attempt != winner) attempt.abort();
+                    return in;
+                }
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    lastException = cause instanceof IOException ?
+                            (IOException)cause : new IOException(cause);
+                    Log.d("<ME>", "Endpoint failed: " + lastException.toString());
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            for (Attempt attempt : attempts) attempt.abort();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        throw lastException;
+    }
+
+    //endregion
+}
@@ -0,0 +1,144 @@
+package com.localore.localore.model;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Geo-object data from Overpass. The working-area is split into tiles,
+ * one query per tile (working-area clipped to tile).
+ *
+ * With a TileStore (default): Stored tiles are loaded instead of queried. A tile not
+ * stored is queried whole, and stored when read, if the working-area covers at least
+ * MIN_STORED_COVERAGE of it: more to download now, but reused by every later
+ * working-area overlapping the tile.
+ */
+public class OverpassIngestSource implements IngestSource {
+
+    /**
+     * Min part of a tile (by area) covered by the working-area, for the tile to be
+     * queried whole and stored.
+     */
+    private static final double MIN_STORED_COVERAGE = 0.25;
+
+    private final Context context;
+    private final boolean spool;
+    private TileStore store;
+
+    /**
+     * Responses spooled to file before parsed.
+     */
+    public OverpassIngestSource(Context context) {
+        this(context, true);
+    }
+
+    /**
+     * @param spool True: response spooled to file before parsed, else parsed while read
+     * (see GeoObjInstructionsIter.setSpool).
+     */
+    public OverpassIngestSource(Context context, boolean spool) {
+        this.context = context;
+        this.spool = spool;
+        this.store = TileStore.getInstance(context);
+    }
+
+    /**
+     * @param store Store of tiles, NULL for none.
+     */
+    public void setTileStore(TileStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public List<Part> parts(NodeShape workingArea) {
+        List<Part> parts = new ArrayList<>();
+        for (OsmTile tile : OsmTile.covering(workingArea.getBounds(), OsmTile.FETCH_ZOOM)) {
+            NodeShape tileArea = workingArea.clip(tile.getBounds());
+            if (tileArea == null) continue;
+
+            if (store != null && (store.isFresh(tile) || tile.coverage(tileArea) >= MIN_STORED_COVERAGE))
+                parts.add(new StoredTilePart(tile, workingArea, store));
+            else
+                parts.add(new TilePart(tile, tileArea));
+        }
+        return parts;
+    }
+
+    /**
+     * Working-area clipped to a tile.
+     */
+    private class TilePart implements Part {
+        final OsmTile tile;
+        final NodeShape area;
+
+        TilePart(OsmTile tile, NodeShape area) {
+            this.tile = tile;
+            this.area = area;
+        }
+
+        @Override
+        public GeoObjInstructionsIter open(CancellationToken token) throws IOException {
+            GeoObjInstructionsIter iter = new GeoObjInstructionsIter(area, context);
+            iter.setSpool(spool);
+            iter.open(token);
+            return iter;
+        }
+
+        @Override
+        public String toString() {
+            return "tile " + tile;
+        }
+    }
+
+    /**
+     * Whole tile: loaded from store, or queried and then stored.
+     */
+    private class StoredTilePart extends TilePart implements StoredPart {
+        private final NodeShape workingArea;
+        private final TileStore store;
+
+        StoredTilePart(OsmTile tile, NodeShape workingArea, TileStore store) {
+            super(tile, rectangle(tile.getBounds()));
+            this.workingArea = workingArea;
+            this.store = store;
+        }
+
+        @Override
+        public List<GeoObject> load() {
+            return store.load(tile);
+        }
+
+        @Override
+        public void store(List<GeoObject> built, long fetchTime) throws IOException {
+            store.store(tile, built, fetchTime);
+        }
+
+        @Override
+        public boolean accepts(GeoObject go) {
+            for (NodeShape shape : go.getShapes()) {
+                if (shape.overlaps(workingArea)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "stored tile " + tile;
+        }
+    }
+
+    /**
+     * @param bounds [wsen]
+     * @return Bounds as a polygon.
+     */
+    private static NodeShape rectangle(double[] bounds) {
+        return new NodeShape(Arrays.asList(
+                new double[]{bounds[0], bounds[1]},
+                new double[]{bounds[2], bounds[1]},
+                new double[]{bounds[2], bounds[3]},
+                new double[]{bounds[0], bounds[3]}));
+    }
+}
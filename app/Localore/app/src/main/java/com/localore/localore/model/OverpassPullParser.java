@@ -0,0 +1,461 @@
+package com.localore.localore.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Streaming pull-parser for Overpass xml-responses.
+ * Reads markup straight from bytes: no lines, no regexes, no trimming.
+ *
+ * Supports what Overpass emits: start-, end- and empty-element tags with quoted
+ * attributes. Text, comments, declarations and processing instructions are skipped.
+ * An empty-element tag is reported as START_TAG followed by END_TAG.
+ *
+ * Tag-name and attribute accessors refer to the current tag and are valid
+ * until next call to next().
+ *
+ * Usage:
+ *  int event;
+ *  while ((event=parser.next()) != OverpassPullParser.END_DOCUMENT) {...}
+ */
+public class OverpassPullParser {
+    public static final int END_DOCUMENT = 0;
+    public static final int START_TAG = 1;
+    public static final int END_TAG = 2;
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Powers of ten exactly representable as doubles.
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /**
+     * Max digits of a mantissa exactly representable as a double (< 2^53).
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    /**
+     * Source of bytes. NULL if all bytes are in the buffer.
+     */
+    private final InputStream in;
+
+    /**
+     * Bytes [0, limit) are valid. Parser is at pos.
+     */
+    private ByteBuffer buf;
+    private int pos = 0;
+    private int limit = 0;
+
+    /**
+     * Current tag. Positions in buf.
+     */
+    private int nameStart;
+    private int nameEnd;
+    private int attributeCount;
+
+    /**
+     * [nameStart, nameEnd, valueStart, valueEnd] of each attribute.
+     */
+    private int[] attributes = new int[4 * 8];
+
+    /**
+     * True if current tag is an empty-element tag, whose END_TAG not yet reported.
+     */
+    private boolean pendingEndTag = false;
+
+    /**
+     * Scratch for decoding attribute-values from a buffer without backing array.
+     */
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Parse xml from a stream.
+     */
+    public OverpassPullParser(InputStream in) {
+        this.in = in;
+        this.buf = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Parse xml from bytes [position, limit) of a buffer.
+     */
+    public OverpassPullParser(ByteBuffer buf) {
+        this.in = null;
+        this.buf = buf;
+        this.pos = buf.position();
+        this.limit = buf.limit();
+    }
+
+    /**
+     * @return Next event: START_TAG, END_TAG or END_DOCUMENT.
+     * @throws IOException If stream fails or markup is malformed.
+     */
+    public int next() throws IOException {
+        if (pendingEndTag) {
+            pendingEndTag = false;
+            return END_TAG;
+        }
+
+        while (true) {
+            if (!skipToTag()) return END_DOCUMENT;
+
+            if (startsWith(pos + 1, '!', '-', '-')) {
+                skipPast('-', '-', '>');
+                continue;
+            }
+
+            int end = findTagEnd();
+            byte second = buf.get(pos + 1);
+
+            if (second == '?' || second == '!') {
+                pos = end + 1;
+                continue;
+            }
+
+            if (second == '/') {
+                readName(pos + 2, end);
+                attributeCount = 0;
+                pos = end + 1;
+                return END_TAG;
+            }
+
+            boolean empty = buf.get(end - 1) == '/';
+            int contentEnd = empty ? end - 1 : end;
+            int i = readName(pos + 1, contentEnd);
+            readAttributes(i, contentEnd);
+            pendingEndTag = empty;
+            pos = end + 1;
+            return START_TAG;
+        }
+    }
+
+    //region accessors
+
+    /**
+     * @return True if name of current tag equals name (ascii).
+     */
+    public boolean isName(byte[] name) {
+        return bytesEqual(nameStart, nameEnd, name);
+    }
+
+    /**
+     * @return Name of current tag.
+     */
+    public String getName() {
+        return decode(nameStart, nameEnd);
+    }
+
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    /**
+     * @return Index of attribute with name (ascii), or -1.
+     */
+    public int getAttributeIndex(byte[] name) {
+        for (int i = 0; i < attributeCount; i++) {
+            if (bytesEqual(attributes[4*i], attributes[4*i + 1], name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return True if value of attribute i equals value (ascii).
+     */
+    public boolean attributeValueEquals(int i, byte[] value) {
+        return bytesEqual(attributes[4*i + 2], attributes[4*i + 3], value);
+    }
+
+    /**
+     * @return Decoded value (entities resolved) of attribute i.
+     */
+    public String getAttributeValue(int i) {
+        return unescape(decode(attributes[4*i + 2], attributes[4*i + 3]));
+    }
+
+    /**
+     * Parsed from the bytes (no string) if a plain decimal as Overpass emits,
+     * e.g "-59.0355543". Same result as Double.parseDouble.
+     *
+     * @return Value of attribute i as a double.
+     * @throws NumberFormatException If not a number.
+     */
+    public double getAttributeDouble(int i) {
+        int start = attributes[4*i + 2];
+        int end = attributes[4*i + 3];
+
+        int j = start;
+        boolean negative = j < end && buf.get(j) == '-';
+        if (negative) j++;
+
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; j < end; j++) {
+            byte b = buf.get(j);
+            if (b >= '0' && b <= '9') {
+                mantissa = 10 * mantissa + (b - '0');
+                digits++;
+                if (decimals >= 0) decimals++;
+            }
+            else if (b == '.' && decimals < 0) {
+                decimals = 0;
+            }
+            else {
+                break;
+            }
+        }
+
+        // exact if mantissa and 10^decimals are exact doubles: then one correctly rounded division
+        if (j == end && digits > 0 && digits <= MAX_EXACT_DIGITS && decimals < POWERS_OF_TEN.length) {
+            double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(decode(start, end));
+    }
+
+    /**
+     * @return Value of attribute i as an int, parsed from the bytes.
+     * @throws NumberFormatException If not an int.
+     */
+    public int getAttributeInt(int i) {
+        int start = attributes[4*i + 2];
+        int end = attributes[4*i + 3];
+
+        int j = start;
+        boolean negative = j < end && buf.get(j) == '-';
+        if (negative) j++;
+        if (j == end || end - j > 9) return Integer.parseInt(decode(start, end));
+
+        int value = 0;
+        for (; j < end; j++) {
+            byte b = buf.get(j);
+            if (b < '0' || b > '9') return Integer.parseInt(decode(start, end));
+            value = 10 * value + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    //endregion
+
+    //region scanning
+
+    /**
+     * Moves pos to next '<', with at least "<!--".length bytes available
+     * from it (unless end of document).
+     * @return False if end of document.
+     */
+    private boolean skipToTag() throws IOException {
+        while (true) {
+            while (pos < limit && buf.get(pos) != '<') pos++;
+            if (pos + 3 < limit) return true;
+
+            if (!fill()) {
+                if (pos >= limit) return false;
+                if (pos + 1 >= limit) throw new IOException("Unterminated tag");
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return Index of '>' closing the tag starting at pos. Quote-aware.
+     */
+    private int findTagEnd() throws IOException {
+        int i = pos + 1;
+        byte quote = 0;
+
+        while (true) {
+            for (; i < limit; i++) {
+                byte b = buf.get(i);
+                if (quote != 0) {
+                    if (b == quote) quote = 0;
+                }
+                else if (b == '"' || b == '\'') {
+                    quote = b;
+                }
+                else if (b == '>') {
+                    return i;
+                }
+            }
+
+            int offset = i - pos;
+            if (!fill()) throw new IOException("Unterminated tag");
+            i = pos + offset;
+        }
+    }
+
+    /**
+     * Moves pos past first occurrence of bytes a,b,c.
+     */
+    private void skipPast(char a, char b, char c) throws IOException {
+        while (true) {
+            for (; pos + 2 < limit; pos++) {
+                if (startsWith(pos, a, b, c)) {
+                    pos += 3;
+                    return;
+                }
+            }
+            if (!fill()) throw new IOException("Unterminated comment");
+        }
+    }
+
+    /**
+     * Sets name of current tag.
+     * @return Index after name.
+     */
+    private int readName(int i, int end) {
+        nameStart = i;
+        while (i < end && !isSpace(buf.get(i))) i++;
+        nameEnd = i;
+        return i;
+    }
+
+    /**
+     * Reads attributes name="value" in [i, end).
+     */
+    private void readAttributes(int i, int end) throws IOException {
+        attributeCount = 0;
+
+        while (true) {
+            while (i < end && isSpace(buf.get(i))) i++;
+            if (i >= end) return;
+
+            int nStart = i;
+            while (i < end && buf.get(i) != '=' && !isSpace(buf.get(i))) i++;
+            int nEnd = i;
+            while (i < end && buf.get(i) != '"' && buf.get(i) != '\'') i++;
+            if (i >= end) throw new IOException("Malformed attribute");
+
+            byte quote = buf.get(i++);
+            int vStart = i;
+            while (i < end && buf.get(i) != quote) i++;
+            int vEnd = i++;
+
+            if (4 * attributeCount == attributes.length) {
+                int[] grown = new int[2 * attributes.length];
+                System.arraycopy(attributes, 0, grown, 0, attributes.length);
+                attributes = grown;
+            }
+            attributes[4*attributeCount] = nStart;
+            attributes[4*attributeCount + 1] = nEnd;
+            attributes[4*attributeCount + 2] = vStart;
+            attributes[4*attributeCount + 3] = vEnd;
+            attributeCount++;
+        }
+    }
+
+    /**
+     * Discards bytes before pos and reads more from stream.
+     * Grows buffer if full.
+     * @return False if no more bytes.
+     */
+    private boolean fill() throws IOException {
+        if (in == null) return false;
+
+        byte[] bytes = buf.array();
+        int keep = limit - pos;
+
+        if (pos == 0 && keep == bytes.length) {
+            byte[] grown = new byte[2 * bytes.length];
+            System.arraycopy(bytes, 0, grown, 0, keep);
+            buf = ByteBuffer.wrap(grown);
+            bytes = grown;
+        }
+        else if (pos > 0) {
+            System.arraycopy(bytes, pos, bytes, 0, keep);
+        }
+        pos = 0;
+        limit = keep;
+
+        int n = in.read(bytes, limit, bytes.length - limit);
+        if (n == -1) return false;
+        limit += n;
+        return true;
+    }
+
+    /**
+     * Closes underlying stream.
+     */
+    public void close() throws IOException {
+        if (in != null) in.close();
+    }
+
+    //endregion
+
+    //region helpers
+
+    private boolean startsWith(int i, char a, char b, char c) {
+        return i + 2 < limit &&
+                buf.get(i) == a && buf.get(i + 1) == b && buf.get(i + 2) == c;
+    }
+
+    private boolean bytesEqual(int start, int end, byte[] bytes) {
+        if (end - start != bytes.length) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (buf.get(start + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * @return Utf-8 bytes [start, end) as a string.
+     */
+    private String decode(int start, int end) {
+        int length = end - start;
+        if (buf.hasArray())
+            return new String(buf.array(), buf.arrayOffset() + start, length, UTF_8);
+
+        if (scratch.length < length) scratch = new byte[length];
+        for (int i = 0; i < length; i++) scratch[i] = buf.get(start + i);
+        return new String(scratch, 0, length, UTF_8);
+    }
+
+    /**
+     * @return String with xml-entities resolved.
+     */
+    private static String unescape(String s) {
+        int amp = s.indexOf('&');
+        if (amp == -1) return s;
+
+        StringBuilder sb = new StringBuilder(s.length());
+        sb.append(s, 0, amp);
+
+        for (int i = amp; i < s.length(); i++) {
+            char c = s.charAt(i);
+            int semi;
+            if (c != '&' || (semi = s.indexOf(';', i)) == -1) {
+                sb.append(c);
+                continue;
+            }
+
+            String entity = s.substring(i + 1, semi);
+            if (entity.equals("amp")) sb.append('&');
+            else if (entity.equals("lt")) sb.append('<');
+            else if (entity.equals("gt")) sb.append('>');
+            else if (entity.equals("quot")) sb.append('"');
+            else if (entity.equals("apos")) sb.append('\'');
+            else if (entity.startsWith("#x")) sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+            else if (entity.startsWith("#")) sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+            else {
+                sb.append(c);
+                continue;
+            }
+            i = semi;
+        }
+        return sb.toString();
+    }
+
+    //endregion
+}
@@ -0,0 +1,92 @@
+package com.localore.localore.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Geo-object data from recorded Overpass-responses (e.g data_processing/resp_uppsala.xml),
+ * for replaying an acquisition without network. The working-area is not used for
+ * selecting data: the recording is assumed to be of it.
+ *
+ * Files are memory-mapped, and large files split at element-boundaries into
+ * several parts (see MappedResponse).
+ */
+public class RecordedIngestSource implements IngestSource {
+
+    private static final String RECORDING_SUFFIX = ".xml";
+
+    /**
+     * Approximate size of a part of a file.
+     */
+    public static final long PART_SIZE = 4 * 1024 * 1024;
+
+    private final File recording;
+
+    /**
+     * @param recording Response-file, or directory of response-files (*.xml, one part each).
+     */
+    public RecordedIngestSource(File recording) {
+        this.recording = recording;
+    }
+
+    @Override
+    public List<Part> parts(NodeShape workingArea) {
+        List<Part> parts = new ArrayList<>();
+
+        if (!recording.isDirectory()) {
+            addParts(recording, parts);
+            return parts;
+        }
+
+        File[] files = recording.listFiles((dir, name) -> name.endsWith(RECORDING_SUFFIX));
+        if (files == null) return parts;
+        List<File> sorted = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(sorted);
+        for (File file : sorted) addParts(file, parts);
+        return parts;
+    }
+
+    /**
+     * Add parts of one file, about PART_SIZE each.
+     */
+    private static void addParts(File file, List<Part> parts) {
+        int count = (int)Math.max(1, (file.length() + PART_SIZE - 1) / PART_SIZE);
+        for (int i = 0; i < count; i++) parts.add(new FilePart(file, i, count));
+    }
+
+    /**
+     * Range i of a recorded response split in count ranges.
+     * Empty if the file has too few elements for count ranges.
+     */
+    private static class FilePart implements Part {
+        private final File file;
+        private final int index;
+        private final int count;
+
+        FilePart(File file, int index, int count) {
+            this.file = file;
+            this.index = index;
+            this.count = count;
+        }
+
+        @Override
+        public GeoObjInstructionsIter open(CancellationToken token) throws IOException {
+            List<ByteBuffer> ranges = new MappedResponse(file).split(count);
+            ByteBuffer range = index < ranges.size() ? ranges.get(index) : ByteBuffer.allocate(0);
+
+            GeoObjInstructionsIter iter = new GeoObjInstructionsIter(GeoObjInstructionsIter.Parser.PULL);
+            iter.open(range);
+            return iter;
+        }
+
+        @Override
+        public String toString() {
+            return "recording " + file.getName() + " (" + (index + 1) + "/" + count + ")";
+        }
+    }
+}
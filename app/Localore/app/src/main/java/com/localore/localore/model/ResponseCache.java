@@ -0,0 +1,324 @@
+package com.localore.localore.model;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.localore.localore.LocaUtils;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk cache of Overpass-responses, keyed by the query.
+ *
+ * - Entries older than a TTL are not used (OSM-data is perishable).
+ * - Total size is capped, least recently used entries are evicted first.
+ * - Integrity: An entry is written to a temp-file while the response is read, and
+ *   only committed (renamed) if the response was read completely. Length and CRC32
+ *   are stored beside the entry and verified before use.
+ *
+ * Entry: <dir>/<sha256 of query>.xml, with <..>.meta: "length crc32 creationTime"
+ */
+public class ResponseCache {
+
+    public static final long DEFAULT_TTL = 7 * 24 * 60 * 60 * 1000L;
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    private static final String DIR_NAME = "overpass-responses";
+    private static final String DATA_SUFFIX = ".xml";
+    private static final String META_SUFFIX = ".meta";
+
+    private static ResponseCache INSTANCE;
+
+    private final File dir;
+    private final long ttl;
+    private final long maxBytes;
+
+    /**
+     * @return Shared cache in app's cache-dir, with default TTL and size.
+     */
+    public static synchronized ResponseCache getInstance(Context context) {
+        if (INSTANCE == null) {
+            File dir = new File(context.getCacheDir(), DIR_NAME);
+            INSTANCE = new ResponseCache(dir, DEFAULT_TTL, DEFAULT_MAX_BYTES);
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @param dir Directory of entries. Created if needed.
+     * @param ttl Max age of a used entry, ms.
+     * @param maxBytes Max total size of entries.
+     */
+    public ResponseCache(File dir, long ttl, long maxBytes) {
+        this.dir = dir;
+        this.ttl = ttl;
+        this.maxBytes = maxBytes;
+        dir.mkdirs();
+    }
+
+    /**
+     * @param query Rendered query (template with bbox and poly filled in).
+     * @return Key of query.
+     */
+    public static String key(String query) {
+        return LocaUtils.sha256(query);
+    }
+
+    //region read
+
+    /**
+     * @return Cached response, or NULL if none (or expired/corrupt).
+     */
+    public synchronized InputStream get(String key) {
+        File data = dataFile(key);
+        File meta = metaFile(key);
+        if (!data.exists() || !meta.exists()) return null;
+
+        try {
+            long[] lengthCrcTime = readMeta(meta);
+            boolean expired = System.currentTimeMillis() - lengthCrcTime[2] > ttl;
+
+            if (expired || data.length() != lengthCrcTime[0] || crc(data) != lengthCrcTime[1]) {
+                Log.i("<ME>", "Cache-entry " + (expired ? "expired: " : "corrupt: ") + key);
+                remove(key);
+                return null;
+            }
+
+            data.setLastModified(System.currentTimeMillis());
+            return new FileInputStream(data);
+        }
+        catch (IOException | RuntimeException e) {
+            Log.w("<ME>", "Bad cache-entry: " + key, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * @return File of cached response, or NULL if none (or expired/corrupt).
+     */
+    public File getFile(String key) {
+        InputStream in = get(key);
+        if (in == null) return null;
+
+        try {
+            in.close();
+        }
+        catch (IOException e) {
+            return null;
+        }
+        return dataFile(key);
+    }
+
+    private static long[] readMeta(File meta) throws IOException {
+        Scanner scanner = new Scanner(meta);
+        try {
+            return new long[]{ scanner.nextLong(), scanner.nextLong(), scanner.nextLong() };
+        }
+        finally {
+            scanner.close();
+        }
+    }
+
+    private static long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            byte[] buf = new byte[16 * 1024];
+            int n;
+            while ((n=in.read(buf)) != -1) crc.update(buf, 0, n);
+        }
+        finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    //endregion
+
+    //region write
+
+    /**
+     * Caches a response while it's read.
+     *
+     * @param in Response.
+     * @return Stream of same bytes as in. Call commit() on it when completely read
+     * (and valid), or the entry is discarded on close.
+     */
+    public TeeStream put(String key, InputStream in) throws IOException {
+        return new TeeStream(key, in);
+    }
+
+    /**
+     * Response-stream also writing to a temp-file of the cache.
+     */
+    public class TeeStream extends FilterInputStream {
+        private final String key;
+        private final File temp;
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        private long length = 0;
+        private boolean spooled = false;
+        private boolean finished = false;
+
+        private TeeStream(String key, InputStream in) throws IOException {
+            super(in);
+            this.key = key;
+            this.temp = File.createTempFile("entry", ".tmp", dir);
+            this.out = new FileOutputStream(temp);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) write(new byte[]{(byte)b}, 0, 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) write(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buf = new byte[(int)Math.min(n, 8192)];
+            int read = read(buf, 0, buf.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void write(byte[] b, int off, int len) throws IOException {
+            if (spooled || finished) return;
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            length += len;
+        }
+
+        /**
+         * Reads remaining bytes of response to the temp-file, without storing entry.
+         * Then commit() or close().
+         *
+         * @return Temp-file with whole response. Deleted on close, unless committed.
+         */
+        public File spool() throws IOException {
+            if (!spooled) {
+                byte[] buf = new byte[8192];
+                while (read(buf, 0, buf.length) != -1);
+                spooled = true;
+                out.close();
+            }
+            return temp;
+        }
+
+        /**
+         * Response completely read and valid: reads any remaining bytes and
+         * stores entry.
+         */
+        public void commit() throws IOException {
+            if (finished) return;
+
+            spool();
+            finished = true;
+            store(key, temp, length, crc.getValue());
+        }
+
+        /**
+         * Closes response. Discards entry if not committed.
+         */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                finished = true;
+                out.close();
+                temp.delete();
+            }
+            super.close();
+        }
+    }
+
+    private synchronized void store(String key, File temp, long length, long crc) throws IOException {
+        File meta = metaFile(key);
+        PrintWriter writer = new PrintWriter(meta);
+        writer.print(length + " " + crc + " " + System.currentTimeMillis());
+        writer.close();
+
+        if (!temp.renameTo(dataFile(key))) {
+            temp.delete();
+            meta.delete();
+            throw new IOException("Can't store cache-entry: " + key);
+        }
+        evict();
+    }
+
+    //endregion
+
+    //region evict
+
+    /**
+     * Remove least recently used entries until total size within max.
+     */
+    private synchronized void evict() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(DATA_SUFFIX));
+        if (files == null) return;
+
+        List<File> entries = new ArrayList<>(Arrays.asList(files));
+        long total = 0;
+        for (File entry : entries) total += entry.length();
+
+        Collections.sort(entries, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File entry : entries) {
+            if (total <= maxBytes) break;
+            total -= entry.length();
+            String name = entry.getName();
+            remove(name.substring(0, name.length() - DATA_SUFFIX.length()));
+        }
+    }
+
+    /**
+     * Remove entry.
+     */
+    public synchronized void remove(String key) {
+        dataFile(key).delete();
+        metaFile(key).delete();
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) file.delete();
+    }
+
+    //endregion
+
+    private File dataFile(String key) {
+        return new File(dir, key + DATA_SUFFIX);
+    }
+
+    private File metaFile(String key) {
+        return new File(dir, key + META_SUFFIX);
+    }
+}
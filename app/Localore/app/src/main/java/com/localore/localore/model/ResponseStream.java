@@ -0,0 +1,94 @@
+package com.localore.localore.model;
+
+import com.google.common.io.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Body of an http-response, decompressed as indicated by its Content-Encoding
+ * (gzip, deflate or none). Counts bytes on wire (as received) and bytes decoded.
+ * Supports mark/reset.
+ *
+ * Request compression with: con.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING)
+ */
+public class ResponseStream extends FilterInputStream {
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final URLConnection con;
+    private final CountingInputStream wire;
+    private final CountingInputStream decoded;
+
+    private ResponseStream(URLConnection con, CountingInputStream wire, CountingInputStream decoded) {
+        super(new BufferedInputStream(decoded, BUFFER_SIZE));
+        this.con = con;
+        this.wire = wire;
+        this.decoded = decoded;
+    }
+
+    /**
+     * @param con Connection, not yet read from.
+     * @return Decompressed response-body.
+     */
+    public static ResponseStream open(URLConnection con) throws IOException {
+        CountingInputStream wire = new CountingInputStream(con.getInputStream());
+        String encoding = con.getContentEncoding();
+        InputStream in;
+
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            in = new GZIPInputStream(wire, BUFFER_SIZE);
+        }
+        else if ("deflate".equalsIgnoreCase(encoding)) {
+            BufferedInputStream buffered = new BufferedInputStream(wire);
+            in = new InflaterInputStream(buffered, new Inflater(!isZlibWrapped(buffered)), BUFFER_SIZE);
+        }
+        else {
+            in = wire;
+        }
+
+        return new ResponseStream(con, wire, new CountingInputStream(in));
+    }
+
+    /**
+     * Servers send "deflate" either zlib-wrapped (as specified) or raw.
+     * @return True if stream starts with a zlib-header.
+     */
+    private static boolean isZlibWrapped(BufferedInputStream in) throws IOException {
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        return b0 != -1 && b1 != -1 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+    }
+
+    /**
+     * Disconnect and close, from any thread. A blocked read fails.
+     */
+    public void abort() throws IOException {
+        if (con instanceof HttpURLConnection) ((HttpURLConnection)con).disconnect();
+        close();
+    }
+
+    /**
+     * @return Number of bytes received (compressed if compression).
+     */
+    public long getBytesOnWire() {
+        return wire.getCount();
+    }
+
+    /**
+     * @return Number of bytes decompressed (read ahead of consumer by at most a buffer).
+     */
+    public long getBytesDecoded() {
+        return decoded.getCount();
+    }
+}
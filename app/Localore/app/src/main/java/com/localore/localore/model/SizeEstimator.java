@@ -0,0 +1,165 @@
+package com.localore.localore.model;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.localore.localore.LocaUtils;
+import com.localore.localore.R;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.util.List;
+
+/**
+ * Pre-flight estimate of the size of a working-area: n.o elements and download-size,
+ * so that a pathologically large area is refused before its exercise is created.
+ *
+ * - Stored tiles (see TileStore): their geo-objects, scaled by the part of the tile
+ *   the area covers. Nothing to download.
+ * - Other tiles: an Overpass count-query (ql_count.txt) of the area, scaled by the part
+ *   of the area these tiles cover. Relations are not counted (slow, and few).
+ */
+public class SizeEstimator {
+
+    /**
+     * Downloaded (gzipped) bytes per element, measured on recorded responses.
+     */
+    private static final long WIRE_BYTES_PER_ELEMENT = 100;
+
+    private final TileStore store;
+    private final OverpassEndpoints endpoints;
+    private final String countQuery;
+
+    /**
+     * Estimate of a working-area.
+     */
+    public static class Estimate {
+        private final long elements;
+        private final long bytes;
+
+        Estimate(long elements, long bytes) {
+            this.elements = elements;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return N.o elements (about as many geo-objects before dedupe).
+         */
+        public long getElements() {
+            return elements;
+        }
+
+        /**
+         * @return Bytes to download.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("~%d elements, ~%.1f MB", elements, bytes / 1e6);
+        }
+    }
+
+    /**
+     * Estimator of shared tile-store and endpoints, with the app's tag-filtration.
+     */
+    public SizeEstimator(Context context) {
+        this(TileStore.getInstance(context), OverpassEndpoints.getInstance(),
+                TagFilter.getInstance(context).expand(LocaUtils.readTextFile(R.raw.ql_count, context)));
+    }
+
+    /**
+     * @param store Stored tiles, NULL for none.
+     * @param countQuery Count-query with {{bbox}} and {{poly}} placeholders.
+     */
+    public SizeEstimator(TileStore store, OverpassEndpoints endpoints, String countQuery) {
+        this.store = store;
+        this.endpoints = endpoints;
+        this.countQuery = countQuery;
+    }
+
+    /**
+     * @param token If cancelled: count-query aborted.
+     * @return Estimate of area.
+     * @throws IOException If count-query failed.
+     */
+    public Estimate estimate(NodeShape workingArea, CancellationToken token) throws IOException {
+        double stored = 0;
+        double coveredStored = 0;
+        double coveredAll = 0;
+
+        List<OsmTile> tiles = OsmTile.covering(workingArea.getBounds(), OsmTile.FETCH_ZOOM);
+        for (OsmTile tile : tiles) {
+            double coverage = tile.coverage(workingArea);
+            coveredAll += coverage;
+
+            if (store != null && store.isFresh(tile)) {
+                stored += store.getCount(tile) * coverage;
+                coveredStored += coverage;
+            }
+        }
+
+        double notStoredPart = coveredAll > 0 ? 1 - coveredStored / coveredAll : 0;
+        if (notStoredPart < 1e-9) return new Estimate(Math.round(stored), 0);
+
+        long counted = count(workingArea, token);
+        double notStored = counted * notStoredPart;
+        Estimate estimate = new Estimate(Math.round(stored + notStored),
+                Math.round(notStored * WIRE_BYTES_PER_ELEMENT));
+
+        Log.i("<ME>", "Size-estimate: " + estimate + ", stored part: " + (1 - notStoredPart));
+        return estimate;
+    }
+
+    /**
+     * @return Area of bounds of working-area in km²: a cap when size can't be estimated.
+     */
+    public static double boundsArea(NodeShape workingArea) {
+        double[] bs = workingArea.getBounds();
+        double midLat = (bs[1] + bs[3]) / 2;
+        double width = NodeShape.distance(new double[]{bs[0], midLat}, new double[]{bs[2], midLat});
+        double height = NodeShape.distance(new double[]{bs[0], bs[1]}, new double[]{bs[0], bs[3]});
+        return width * height / 1e6;
+    }
+
+    /**
+     * @return N.o elements in area, by a count-query.
+     */
+    private long count(NodeShape area, CancellationToken token) throws IOException {
+        double[] bs = area.getBounds();
+        String query = countQuery
+                .replace("{{bbox}}", String.format("%s,%s,%s,%s", bs[1], bs[0], bs[3], bs[2]))
+                .replace("{{poly}}", area.toRawString());
+
+        InputStream in = endpoints.open(URLEncoder.encode(query, "UTF-8"), token);
+        try {
+            return parseCount(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param in Json-response of "out count;":
+     *           {"elements": [{"type": "count", "tags": {"total": "123", ..}}]}
+     * @return Total count.
+     */
+    private static long parseCount(InputStream in) throws IOException {
+        try {
+            JsonObject response = new JsonParser().parse(new InputStreamReader(in, "UTF-8")).getAsJsonObject();
+            JsonArray elements = response.getAsJsonArray("elements");
+            return elements.get(0).getAsJsonObject().getAsJsonObject("tags").get("total").getAsLong();
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Bad count-response", e);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.localore.localore.model;
+
+import android.content.Context;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonObject;
+import com.localore.localore.LocaUtils;
+import com.localore.localore.R;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The conversion-table (tag_categories.json) compiled for classifying OSM-tags:
+ * "key=value" -> category, and "key=*" -> category (any value except "no").
+ *
+ * Priority of a category is its index in the table (supercats in SUPERCATS-order,
+ * then categories in order): a tag of several categories gets the first one, and of
+ * an element's tags the one with the first category decides.
+ *
+ * Categories are coded by a CategoryDictionary, geo-objects store the code.
+ */
+public class TagClassifier {
+
+    /**
+     * Supercats of the table, in priority-order.
+     */
+    private static final String[] SUPERCATS = {"transport", "constructions", "nature", "settlements", "roads"};
+
+    private static TagClassifier INSTANCE = null;
+
+    /**
+     * A category of the table.
+     */
+    public static class Category {
+        private final int index;
+        private final int code;
+        private final String supercat;
+        private final String subcat;
+
+        Category(int index, int code, String supercat, String subcat) {
+            this.index = index;
+            this.code = code;
+            this.supercat = supercat;
+            this.subcat = subcat;
+        }
+
+        /**
+         * @return Priority, lower first.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return Code in category-dictionary.
+         */
+        public int getCode() {
+            return code;
+        }
+
+        public String getSupercat() {
+            return supercat;
+        }
+
+        public String getSubcat() {
+            return subcat;
+        }
+
+        @Override
+        public String toString() {
+            return supercat + ":" + subcat;
+        }
+    }
+
+    /**
+     * "key=value" -> first category with it.
+     */
+    private final Map<String, Category> exact = new HashMap<>();
+
+    /**
+     * key -> first category with "key=*".
+     */
+    private final Map<String, Category> wildcards = new HashMap<>();
+
+    /**
+     * Keys of the table's tags.
+     */
+    private final Set<String> keys = new HashSet<>();
+
+    /**
+     * Hash of the table.
+     */
+    private final String version;
+
+    private final CategoryDictionary categories;
+
+    /**
+     * @return Classifier of app's conversion-table, compiled once, with shared
+     * category-dictionary.
+     */
+    public static synchronized TagClassifier getInstance(Context context) {
+        if (INSTANCE == null) {
+            String json = LocaUtils.readTextFile(R.raw.tag_categories, context);
+            try {
+                INSTANCE = new TagClassifier(new JsonParser().parse(json).getAsJsonObject(),
+                        LocaUtils.sha256(json), CategoryDictionary.getInstance(context));
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Can't store categories", e);
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @param convTable {supercat: [[subcat, "key=value", ...], ...], ...}
+     * @param categories Categories of table are added.
+     * @throws IOException If new categories couldn't be stored.
+     */
+    public TagClassifier(JsonObject convTable, CategoryDictionary categories) throws IOException {
+        this(convTable, LocaUtils.sha256(convTable.toString()), categories);
+    }
+
+    private TagClassifier(JsonObject convTable, String version, CategoryDictionary categories) throws IOException {
+        this.version = version;
+        this.categories = categories;
+        int index = 0;
+        for (String supercat : SUPERCATS) {
+            JsonArray cats = convTable.getAsJsonArray(supercat);
+            if (cats == null) continue;
+
+            for (int i = 0; i < cats.size(); i++) {
+                JsonArray cat = cats.get(i).getAsJsonArray();
+                String subcat = cat.get(0).getAsString();
+                Category category = new Category(index++, categories.code(supercat, subcat), supercat, subcat);
+
+                for (int j = 1; j < cat.size(); j++) {
+                    String tag = cat.get(j).getAsString();
+                    int eq = tag.indexOf('=');
+                    if (eq == -1) continue;
+
+                    keys.add(tag.substring(0, eq));
+                    if (tag.substring(eq + 1).equals("*")) putFirst(wildcards, tag.substring(0, eq), category);
+                    else putFirst(exact, tag, category);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Hash of the conversion-table. Changes when the table does.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Dictionary of category-codes.
+     */
+    public CategoryDictionary getCategories() {
+        return categories;
+    }
+
+    private static void putFirst(Map<String, Category> map, String key, Category category) {
+        if (!map.containsKey(key)) map.put(key, category);
+    }
+
+    /**
+     * @param tag "key=value"
+     * @return First category of tag, or NULL if none.
+     */
+    public Category classify(String tag) {
+        Category category = exact.get(tag);
+
+        int eq = tag.indexOf('=');
+        boolean no = tag.length() == eq + 3 && tag.startsWith("no", eq + 1);
+        if (eq != -1 && !no && !wildcards.isEmpty()) {
+            Category wildcard = wildcards.get(tag.substring(0, eq));
+            if (wildcard != null && (category == null || wildcard.index < category.index))
+                category = wildcard;
+        }
+        return category;
+    }
+
+    /**
+     * @param tags ["key=value"]
+     * @return Tags with a key of the table (only these are kept, see TagDictionary):
+     * other values of these keys may classify by a changed table.
+     */
+    public List<String> relevant(List<String> tags) {
+        List<String> relevant = new ArrayList<>();
+        for (String tag : tags) {
+            int eq = tag.indexOf('=');
+            if (eq != -1 && keys.contains(tag.substring(0, eq))) relevant.add(tag);
+        }
+        return relevant;
+    }
+
+    /**
+     * @param tags ["key=value"]
+     * @return First category of any of tags, or NULL if none.
+     */
+    public Category classify(List<String> tags) {
+        Category first = null;
+        for (String tag : tags) {
+            Category category = classify(tag);
+            if (category != null && (first == null || category.index < first.index))
+                first = category;
+        }
+        return first;
+    }
+}
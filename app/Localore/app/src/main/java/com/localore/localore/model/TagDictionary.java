@@ -0,0 +1,345 @@
+package com.localore.localore.model;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dictionary of raw OSM-tags ("key=value") <-> codes, shared by all geo-objects
+ * (in both databases, and in the tile-store). A geo-object keeps its tags as packed
+ * codes (see encode), so that it can be re-classified when the conversion-table
+ * changes, without re-download.
+ *
+ * Only tags with a key of the conversion-table are kept (see TagClassifier.relevant),
+ * and tags no longer used are dropped by compact.
+ *
+ * Append-only: a tag keeps its code until compacted. New tags are appended to the
+ * file before their codes are handed out. A failed append is cut off the file, and a
+ * half-written last line (app killed mid-append) is cut off when read: its code was
+ * never handed out.
+ *
+ * File: "\b<base>" (if compacted), then one tag per line, code = base + line-number
+ * ("\", newlines escaped).
+ */
+public class TagDictionary {
+
+    private static final String FILE_NAME = "tag-dictionary.txt";
+
+    /**
+     * Starts first line with base. Not an escaped tag.
+     */
+    private static final String BASE_PREFIX = "\\b";
+
+    private static TagDictionary INSTANCE;
+
+    private final File file;
+    private final List<String> tags = new ArrayList<>();
+
+    /**
+     * Code of first tag: lower codes are dropped.
+     */
+    private int base = 0;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private OutputStream out = null;
+
+    /**
+     * Bytes of file with complete lines: appended from here. -1 if file not readable,
+     * then no tags are added (their codes could be taken).
+     */
+    private long length = 0;
+
+    /**
+     * @return Shared dictionary in app's files-dir.
+     */
+    public static synchronized TagDictionary getInstance(Context context) {
+        if (INSTANCE == null) INSTANCE = new TagDictionary(new File(context.getFilesDir(), FILE_NAME));
+        return INSTANCE;
+    }
+
+    /**
+     * @param file Read if exists, else created on first new tag.
+     */
+    public TagDictionary(File file) {
+        this.file = file;
+        if (!file.exists()) return;
+
+        try {
+            length = read();
+        }
+        catch (IOException | RuntimeException e) {
+            length = -1;
+            Log.w("<ME>", "Bad tag-dictionary, " + tags.size() + " tags read, no tags added", e);
+        }
+    }
+
+    /**
+     * Add tags of file. A half-written last line is cut off.
+     *
+     * @return Length of file.
+     */
+    private long read() throws IOException {
+        byte[] bytes;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            bytes = new byte[(int)raf.length()];
+            raf.readFully(bytes);
+        }
+        finally {
+            raf.close();
+        }
+
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') continue;
+            String line = new String(bytes, start, i - start, "UTF-8");
+            if (start == 0 && line.startsWith(BASE_PREFIX)) base = Integer.parseInt(line.substring(BASE_PREFIX.length()));
+            else add(unescape(line));
+            start = i + 1;
+        }
+
+        if (start < bytes.length) {
+            Log.w("<ME>", "Half-written tag cut off tag-dictionary");
+            truncate(start);
+        }
+        return start;
+    }
+
+    /**
+     * @return N.o tags.
+     */
+    public synchronized int size() {
+        return tags.size();
+    }
+
+    //region encode
+
+    /**
+     * @param tags ["key=value"]
+     * @return Codes of tags, packed as varints. New tags are added.
+     * @throws IOException If new tags couldn't be stored.
+     */
+    public synchronized byte[] encode(List<String> tags) throws IOException {
+        int[] codes = new int[tags.size()];
+        int size = this.tags.size();
+        long appended = 0;
+
+        try {
+            for (int i = 0; i < codes.length; i++) {
+                String tag = tags.get(i);
+                Integer code = this.codes.get(tag);
+                if (code == null) {
+                    appended += append(tag);
+                    code = add(tag);
+                }
+                codes[i] = code;
+            }
+            if (appended > 0) out.flush();
+        }
+        catch (IOException e) {
+            while (this.tags.size() > size) this.codes.remove(this.tags.remove(this.tags.size() - 1));
+            rollBack();
+            throw e;
+        }
+
+        length += appended;
+        return pack(codes);
+    }
+
+    private int add(String tag) {
+        int code = base + tags.size();
+        tags.add(tag);
+        codes.put(tag, code);
+        return code;
+    }
+
+    /**
+     * @return N.o bytes appended (maybe still buffered).
+     */
+    private int append(String tag) throws IOException {
+        if (length == -1) throw new IOException("Tag-dictionary not readable");
+
+        if (out == null) out = new BufferedOutputStream(new FileOutputStream(file, true));
+        byte[] line = (escape(tag) + "\n").getBytes("UTF-8");
+        out.write(line);
+        return line.length;
+    }
+
+    /**
+     * Drop buffered lines, and cut file to its known length. If it can't be cut, no
+     * more tags are added.
+     */
+    private void rollBack() {
+        if (length == -1) return;
+
+        if (out != null) {
+            try {
+                out.close();
+            }
+            catch (IOException ignored) {}
+            out = null;
+        }
+
+        try {
+            truncate(length);
+        }
+        catch (IOException e) {
+            length = -1;
+            Log.w("<ME>", "Can't cut tag-dictionary, no tags added", e);
+        }
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return Codes as unsigned varints: 7 bits per byte, high bit set on all but the last.
+     */
+    static byte[] pack(int[] codes) {
+        byte[] bytes = new byte[5 * codes.length];
+        int n = 0;
+        for (int code : codes) {
+            while ((code & ~0x7f) != 0) {
+                bytes[n++] = (byte)((code & 0x7f) | 0x80);
+                code >>>= 7;
+            }
+            bytes[n++] = (byte)code;
+        }
+
+        byte[] packed = new byte[n];
+        System.arraycopy(bytes, 0, packed, 0, n);
+        return packed;
+    }
+
+    //endregion
+
+    //region compact
+
+    /**
+     * Drop tags not used. Used tags get new codes: they're appended again (encode gives
+     * the new codes, decode takes old and new), geo-objects are re-coded by recode,
+     * then the file is rewritten with the new codes only. Codes in the file don't
+     * change: if stopped at any step, old codes are still known.
+     *
+     * @param used Tags still used (all codes of geo-objects, decoded).
+     * @param recode Re-code kept tags of all geo-objects (encode(decode(tags))), in one
+     * transaction.
+     * @return N.o dropped tags.
+     * @throws IOException If file couldn't be written.
+     * @pre No tags encoded but by recode, until done.
+     */
+    public synchronized int compact(Set<String> used, Runnable recode) throws IOException {
+        int dropped = tags.size() - used.size();
+        if (dropped <= 0) return 0;
+
+        long appended = 0;
+        try {
+            for (String tag : used) appended += append(tag);
+            if (appended > 0) out.flush();
+        }
+        catch (IOException e) {
+            rollBack();
+            throw e;
+        }
+        length += appended;
+
+        int first = tags.size();
+        for (String tag : used) add(tag);
+        recode.run();
+        rewrite(first);
+        return dropped;
+    }
+
+    /**
+     * Replace file by one with tags from index first (temp-file, then rename). Tags
+     * before are dropped.
+     */
+    private void rewrite(int first) throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        OutputStream tempOut = new BufferedOutputStream(new FileOutputStream(temp));
+        try {
+            tempOut.write((BASE_PREFIX + (base + first) + "\n").getBytes("UTF-8"));
+            for (int i = first; i < tags.size(); i++) tempOut.write((escape(tags.get(i)) + "\n").getBytes("UTF-8"));
+        }
+        finally {
+            tempOut.close();
+        }
+        if (!temp.renameTo(file)) throw new IOException("Can't replace tag-dictionary");
+
+        base += first;
+        tags.subList(0, first).clear();
+        codes.clear();
+        for (int i = 0; i < tags.size(); i++) codes.put(tags.get(i), base + i);
+        length = file.length();
+    }
+
+    //endregion
+
+    //region decode
+
+    /**
+     * @param packed Output of encode.
+     * @return ["key=value"]. Unknown codes (dictionary lost, or dropped) are skipped.
+     */
+    public synchronized List<String> decode(byte[] packed) {
+        List<String> tags = new ArrayList<>();
+        int code = 0;
+        int shift = 0;
+
+        for (byte b : packed) {
+            code |= (b & 0x7f) << shift;
+            shift += 7;
+            if ((b & 0x80) != 0) continue;
+
+            if (code >= base && code - base < this.tags.size()) tags.add(this.tags.get(code - base));
+            code = 0;
+            shift = 0;
+        }
+        return tags;
+    }
+
+    //endregion
+
+    private static String escape(String tag) {
+        return tag.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String line) {
+        if (line.indexOf('\\') == -1) return line;
+
+        StringBuilder sb = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                c = line.charAt(++i);
+                if (c == 'n') c = '\n';
+                else if (c == 'r') c = '\r';
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,137 @@
+package com.localore.localore.model;
+
+import android.content.Context;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.localore.localore.LocaUtils;
+import com.localore.localore.R;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Overpass tag-predicates generated from the conversion-table (tag_categories.json),
+ * so that only elements with a classifiable tag are downloaded.
+ *
+ * Matches what GeoObject classifies: "key=value" exactly, and "key=*" as any
+ * value except "no".
+ */
+public class TagFilter {
+
+    private static TagFilter INSTANCE = null;
+
+    /**
+     * {{filter:<statement>}} in a query is replaced by a union-body of statement
+     * with each predicate appended, e.g {{filter:node.ns[name]}}.
+     */
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\{\\{filter:(.+?)\\}\\}");
+
+    /**
+     * Characters escaped in regex-values.
+     */
+    private static final String REGEX_SPECIAL = ".[]{}()\\*+?^$|";
+
+    /**
+     * Key -> values. Keys with a *-value in wildcards instead.
+     */
+    private final Map<String, Set<String>> values = new LinkedHashMap<>();
+    private final Set<String> wildcards = new LinkedHashSet<>();
+
+    /**
+     * @return Filter of app's conversion-table.
+     */
+    public static synchronized TagFilter getInstance(Context context) {
+        if (INSTANCE == null) {
+            String json = LocaUtils.readTextFile(R.raw.tag_categories, context);
+            INSTANCE = new TagFilter(new JsonParser().parse(json).getAsJsonObject());
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @param convTable {supercat: [[subcat, "key=value", ...], ...], ...}
+     */
+    public TagFilter(JsonObject convTable) {
+        for (Map.Entry<String, JsonElement> supercat : convTable.entrySet()) {
+            for (JsonElement cat : supercat.getValue().getAsJsonArray()) {
+                JsonArray tags = cat.getAsJsonArray();
+                for (int i = 1; i < tags.size(); i++) add(tags.get(i).getAsString());
+            }
+        }
+        for (String key : wildcards) values.remove(key);
+    }
+
+    /**
+     * @param tag "key=value", split as GeoObject does.
+     */
+    private void add(String tag) {
+        String[] kv = tag.split("=");
+        if (kv.length < 2) return;
+
+        if (kv[1].equals("*")) {
+            wildcards.add(kv[0]);
+        }
+        else if (!wildcards.contains(kv[0])) {
+            Set<String> vs = values.get(kv[0]);
+            if (vs == null) {
+                vs = new LinkedHashSet<>();
+                values.put(kv[0], vs);
+            }
+            vs.add(kv[1]);
+        }
+    }
+
+    /**
+     * @param statement Overpass-statement without ';', e.g "node.ns[name]".
+     * @return Union-body: statement once per key, with tag-predicate appended.
+     */
+    public String union(String statement) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Set<String>> e : values.entrySet()) {
+            sb.append(statement).append("[\"").append(e.getKey()).append("\"~\"^(");
+            boolean first = true;
+            for (String value : e.getValue()) {
+                if (!first) sb.append('|');
+                appendEscaped(value, sb);
+                first = false;
+            }
+            sb.append(")$\"]; ");
+        }
+        for (String key : wildcards) {
+            sb.append(statement).append("[\"").append(key).append("\"][\"")
+                    .append(key).append("\"!=\"no\"]; ");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param query Query containing {{filter:<statement>}}-placeholders.
+     * @return Query with placeholders replaced by union-bodies.
+     */
+    public String expand(String query) {
+        Matcher m = PLACEHOLDER.matcher(query);
+        StringBuffer sb = new StringBuffer();
+        while (m.find()) m.appendReplacement(sb, Matcher.quoteReplacement(union(m.group(1))));
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Escaped for a regex in an Overpass string-literal (backslash doubled).
+     */
+    private static void appendEscaped(String value, StringBuilder sb) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (REGEX_SPECIAL.indexOf(c) != -1) sb.append("\\\\");
+            else if (c == '"') sb.append('\\');
+            sb.append(c);
+        }
+    }
+}
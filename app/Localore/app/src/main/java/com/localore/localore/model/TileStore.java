@@ -0,0 +1,280 @@
+package com.localore.localore.model;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Scanner;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk store of built (classified) geo-objects per tile, shared by all exercises:
+ * a new working-area is assembled from stored tiles, and only missing or stale tiles
+ * are fetched (see OverpassIngestSource).
+ *
+ * - A tile holds all geo-objects with a node in the tile, not only those of the
+ *   working-area it was fetched for.
+ * - Tiles fetched longer than a TTL ago, or built with another conversion-table
+ *   (version), are stale.
+ * - Total size is capped, least recently used tiles are evicted first.
+ *
+ * Tile: <dir>/<zoom>_<x>_<y>.json.gz (gzipped json-list of geo-objects),
+ * with <..>.meta: "fetchTime version count"
+ */
+public class TileStore {
+
+    public static final long DEFAULT_TTL = 30 * 24 * 60 * 60 * 1000L;
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    /**
+     * Of stored geo-objects. Increase when GeoObject's fields change.
+     */
+    private static final int FORMAT = 3;
+
+    private static final String DIR_NAME = "osm-tiles";
+    private static final String DATA_SUFFIX = ".json.gz";
+    private static final String META_SUFFIX = ".meta";
+
+    private static final Type LIST_TYPE = new TypeToken<List<GeoObject>>(){}.getType();
+
+    private static TileStore INSTANCE;
+
+    private final File dir;
+    private final String version;
+    private final long ttl;
+    private final long maxBytes;
+    private final Gson gson = new Gson();
+
+    /**
+     * @return Shared store in app's files-dir (kept when cache is cleared), with
+     * default TTL and size. Version: hash of the app's conversion-table, and of the
+     * geo-object format.
+     */
+    public static synchronized TileStore getInstance(Context context) {
+        if (INSTANCE == null) {
+            File dir = new File(context.getFilesDir(), DIR_NAME);
+            String version = TagClassifier.getInstance(context).getVersion() + "." + FORMAT;
+            INSTANCE = new TileStore(dir, version, DEFAULT_TTL, DEFAULT_MAX_BYTES);
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * @param dir Directory of tiles. Created if needed.
+     * @param version Of how geo-objects are built. Tiles of other versions are stale.
+     * @param ttl Max age of a used tile, ms.
+     * @param maxBytes Max total size of tiles.
+     */
+    public TileStore(File dir, String version, long ttl, long maxBytes) {
+        this.dir = dir;
+        this.version = version;
+        this.ttl = ttl;
+        this.maxBytes = maxBytes;
+        dir.mkdirs();
+    }
+
+    //region read
+
+    /**
+     * @return Time tile was fetched, or -1 if not stored (or of other version).
+     */
+    public long getFetchTime(OsmTile tile) {
+        long[] meta = readMeta(tile);
+        return meta != null ? meta[0] : -1;
+    }
+
+    /**
+     * @return N.o geo-objects of tile, or -1 if not stored (or of other version).
+     */
+    public long getCount(OsmTile tile) {
+        long[] meta = readMeta(tile);
+        return meta != null ? meta[1] : -1;
+    }
+
+    /**
+     * @return [fetchTime count], or NULL if not stored (or of other version).
+     */
+    private synchronized long[] readMeta(OsmTile tile) {
+        File meta = metaFile(tile);
+        if (!meta.exists() || !dataFile(tile).exists()) return null;
+
+        try {
+            Scanner scanner = new Scanner(meta);
+            try {
+                long fetchTime = scanner.nextLong();
+                if (!version.equals(scanner.next())) return null;
+                return new long[]{ fetchTime, scanner.nextLong() };
+            }
+            finally {
+                scanner.close();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return True if tile stored, and neither expired nor of other version.
+     */
+    public boolean isFresh(OsmTile tile) {
+        long fetchTime = getFetchTime(tile);
+        return fetchTime != -1 && System.currentTimeMillis() - fetchTime <= ttl;
+    }
+
+    /**
+     * @return Geo-objects of tile, or NULL if none (or stale/corrupt).
+     */
+    public List<GeoObject> load(OsmTile tile) {
+        Reader reader;
+        synchronized (this) {
+            if (!isFresh(tile)) return null;
+            try {
+                File data = dataFile(tile);
+                reader = new InputStreamReader(new GZIPInputStream(
+                        new BufferedInputStream(new FileInputStream(data))), "UTF-8");
+                data.setLastModified(System.currentTimeMillis());
+            }
+            catch (IOException e) {
+                Log.w("<ME>", "Bad tile: " + tile, e);
+                remove(tile);
+                return null;
+            }
+        }
+
+        try {
+            List<GeoObject> geoObjects = gson.fromJson(reader, LIST_TYPE);
+            if (geoObjects == null) throw new IOException("Empty");
+            return geoObjects;
+        }
+        catch (IOException | RuntimeException e) {
+            Log.w("<ME>", "Bad tile: " + tile, e);
+            remove(tile);
+            return null;
+        }
+        finally {
+            try {
+                reader.close();
+            }
+            catch (IOException ignored) {}
+        }
+    }
+
+    //endregion
+
+    //region write
+
+    /**
+     * Store (replace) tile.
+     *
+     * @param geoObjects All geo-objects with a node in tile, built from a complete read.
+     * @param fetchTime When the read started.
+     */
+    public void store(OsmTile tile, List<GeoObject> geoObjects, long fetchTime) throws IOException {
+        File temp = File.createTempFile("tile", ".tmp", dir);
+        try {
+            Writer writer = new OutputStreamWriter(new GZIPOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temp))), "UTF-8");
+            try {
+                gson.toJson(geoObjects, LIST_TYPE, writer);
+            }
+            finally {
+                writer.close();
+            }
+            commit(tile, temp, fetchTime, geoObjects.size());
+        }
+        finally {
+            temp.delete();
+        }
+    }
+
+    private synchronized void commit(OsmTile tile, File temp, long fetchTime, int count) throws IOException {
+        File meta = metaFile(tile);
+        meta.delete();
+
+        if (!temp.renameTo(dataFile(tile))) throw new IOException("Can't store tile: " + tile);
+
+        PrintWriter writer = new PrintWriter(meta);
+        writer.print(fetchTime + " " + version + " " + count);
+        writer.close();
+        evict();
+    }
+
+    //endregion
+
+    //region evict
+
+    /**
+     * Remove least recently used tiles until total size within max.
+     */
+    private synchronized void evict() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(DATA_SUFFIX));
+        if (files == null) return;
+
+        List<File> tiles = new ArrayList<>(Arrays.asList(files));
+        long total = 0;
+        for (File tile : tiles) total += tile.length();
+
+        Collections.sort(tiles, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File tile : tiles) {
+            if (total <= maxBytes) break;
+            total -= tile.length();
+            String name = tile.getName();
+            remove(name.substring(0, name.length() - DATA_SUFFIX.length()));
+        }
+    }
+
+    /**
+     * Remove tile.
+     */
+    public void remove(OsmTile tile) {
+        remove(name(tile));
+    }
+
+    private synchronized void remove(String name) {
+        new File(dir, name + DATA_SUFFIX).delete();
+        new File(dir, name + META_SUFFIX).delete();
+    }
+
+    /**
+     * Remove all tiles.
+     */
+    public synchronized void clear() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) file.delete();
+    }
+
+    //endregion
+
+    private static String name(OsmTile tile) {
+        return tile.getZoom() + "_" + tile.getX() + "_" + tile.getY();
+    }
+
+    private File dataFile(OsmTile tile) {
+        return new File(dir, name(tile) + DATA_SUFFIX);
+    }
+
+    private File metaFile(OsmTile tile) {
+        return new File(dir, name(tile) + META_SUFFIX);
+    }
+}
@@ -0,0 +1,546 @@
+package com.localore.localore.modelManipulation;
+
+import android.util.Log;
+
+import com.localore.localore.LocaUtils;
+import com.localore.localore.model.AppDatabase;
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.GeoObjInstructionsIter;
+import com.localore.localore.model.GeoObjRecord;
+import com.localore.localore.model.GeoObject;
+import com.localore.localore.model.IngestSource;
+import com.localore.localore.model.TagClassifier;
+import com.localore.localore.model.TagDictionary;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Staged acquisition of geo-objects, so network and CPU work overlap:
+ *
+ *   readers (one per part in progress) -> records -> N builders -> geo-objects -> 1 writer
+ *
+ * - Readers: Read and parse responses into records (threads of the TileFetchScheduler).
+ * - Builders: Build (classify) geo-objects from records.
+ * - Writer: Dedupes by OSM-id and inserts into db, in batches (see BatchInserter).
+ *
+ * A stored part (IngestSource.StoredPart) is loaded by its reader straight to the writer,
+ * if stored. Else it's read as other parts, and when completely read the writer stores
+ * all its geo-objects. Only geo-objects it accepts are inserted.
+ *
+ * Items are passed in chunks through bounded queues: a fast stage blocks (back-pressure)
+ * instead of buffering a whole response. A part retried from scratch re-emits records,
+ * the writer's dedupe drops them.
+ *
+ * If a stage fails, or the job is cancelled, all stages stop and the failure is thrown
+ * from run(). A cancel also aborts the connections of the readers.
+ *
+ * Progress: DOWNLOAD-stage while parts are read (units: parts), then BUILD-stage while
+ * remaining records are built and inserted (units: records).
+ */
+public class AcquisitionPipeline {
+
+    /**
+     * Items per chunk passed between stages.
+     */
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * Max chunks waiting between two stages.
+     */
+    private static final int QUEUE_CAPACITY = 16;
+
+    private static final int MAX_BUILDERS = 4;
+
+    /**
+     * Ms between checks for failure/interrupt when blocked.
+     */
+    private static final long POLL_TIME = 100;
+
+    /**
+     * End of stream-marker (compared by identity).
+     */
+    private static final Chunk<?> END = new Chunk<>(null, null, 0);
+
+    @SuppressWarnings("unchecked")
+    private static <T> Chunk<T> end() {
+        return (Chunk<T>)END;
+    }
+
+    /**
+     * Items passed between stages, from one attempt at reading a part.
+     */
+    private static class Chunk<T> {
+        final Attempt attempt;
+        final List<T> items;
+
+        /**
+         * N.o records the items are from.
+         */
+        final int records;
+
+        Chunk(Attempt attempt, List<T> items, int records) {
+            this.attempt = attempt;
+            this.items = items;
+            this.records = records;
+        }
+    }
+
+    /**
+     * One read of a part. Complete when all its records have passed the writer.
+     */
+    private static class Attempt {
+        final IngestSource.Part part;
+        final AtomicLong written = new AtomicLong();
+        final AtomicBoolean complete = new AtomicBoolean();
+        final long start = System.currentTimeMillis();
+
+        /**
+         * All geo-objects built, if a stored part read (not loaded). Only used by writer.
+         */
+        List<GeoObject> built = null;
+
+        /**
+         * Records read, -1 until read to end.
+         */
+        volatile long total = -1;
+
+        Attempt(IngestSource.Part part) {
+            this.part = part;
+        }
+    }
+
+    /**
+     * Throughput of a stage.
+     */
+    public static class Stage {
+        private final String name;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong blockedNanos = new AtomicLong();
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        public long getItems() {
+            return items.get();
+        }
+
+        /**
+         * @return Summed time (all threads of stage) waiting on a queue, ms.
+         */
+        public long getBlockedTime() {
+            return blockedNanos.get() / 1000000;
+        }
+
+        /**
+         * @param time Ms since start.
+         */
+        String toString(long time) {
+            return String.format("%s: %d items, %.0f/s, blocked %d ms",
+                    name, getItems(), getItems() * 1000.0 / Math.max(1, time), getBlockedTime());
+        }
+    }
+
+    private final TagClassifier classifier;
+    private final TagDictionary dictionary;
+    private final int noBuilders;
+
+    private final BlockingQueue<Chunk<GeoObjRecord>> records = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Chunk<GeoObject>> geoObjects = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final Stage reading = new Stage("read");
+    private final Stage building = new Stage("build");
+    private final Stage writing = new Stage("write");
+    private final BatchInserter inserter;
+    private final CreationProgress progress;
+    private final CancellationToken token;
+    private final AtomicLong partsRead = new AtomicLong();
+    private final AtomicLong recordsConsumed = new AtomicLong();
+    private final AtomicLong bytesOnWire = new AtomicLong();
+    private final AtomicLong bytesDecoded = new AtomicLong();
+
+    private final AtomicLong partsLoaded = new AtomicLong();
+    private long partsStored = 0;
+
+    private final Queue<Attempt> completedAttempts = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Only used by writer.
+     */
+    private final Set<String> insertedOsmIds = new HashSet<>();
+
+    private volatile Throwable failure = null;
+
+    /**
+     * @param classifier Classifier of tags into categories.
+     * @param dictionary Where tags of built geo-objects are kept.
+     * @param tempDb Where geo-objects are inserted.
+     * @param insertBatchSize Max geo-objects inserted in one transaction.
+     * @param insertBatchDelay Max ms a geo-object waits for its batch to be inserted.
+     * @param progress Updated with bytes, objects and parts read.
+     * @param token Cancels the acquisition.
+     */
+    public AcquisitionPipeline(TagClassifier classifier, TagDictionary dictionary, AppDatabase tempDb, int insertBatchSize, long insertBatchDelay, CreationProgress progress, CancellationToken token) {
+        this.classifier = classifier;
+        this.dictionary = dictionary;
+        this.progress = progress;
+        this.token = token;
+        this.inserter = new BatchInserter(tempDb, insertBatchSize, insertBatchDelay);
+        this.noBuilders = Math.max(1, Math.min(MAX_BUILDERS, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /**
+     * Reads all parts and inserts their geo-objects. Returns when all inserted.
+     *
+     * @param parts Data to read.
+     * @param scheduler Runs the readers.
+     */
+    public void run(List<IngestSource.Part> parts, TileFetchScheduler scheduler) throws IOException, LocaUtils.WorkInterruptedException {
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(noBuilders + 1);
+        List<Future<Void>> futures = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < noBuilders; i++) futures.add(executor.submit(this::build));
+            futures.add(executor.submit(this::write));
+
+            progress.setStage(CreationProgress.Stage.DOWNLOAD, parts.size());
+            scheduler.fetchAll(parts, this::read);
+            progress.setStage(CreationProgress.Stage.BUILD, reading.getItems());
+            progress.setDone(CreationProgress.Stage.BUILD, recordsConsumed.get());
+
+            for (int i = 0; i < noBuilders; i++) put(records, end(), null);
+            for (Future<Void> future : futures) future.get();
+        }
+        catch (ExecutionException e) {
+            fail(failure != null ? failure : e.getCause());
+        }
+        catch (RuntimeException e) {
+            fail(failure != null ? failure : e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LocaUtils.WorkInterruptedException();
+        }
+        finally {
+            executor.shutdownNow();
+            log(System.currentTimeMillis() - start);
+        }
+    }
+
+    //region stages
+
+    /**
+     * Reader: Parse part into records.
+     */
+    private void read(IngestSource.Part part) throws IOException, LocaUtils.WorkInterruptedException {
+        Attempt attempt = new Attempt(part);
+        if (part instanceof IngestSource.StoredPart) {
+            List<GeoObject> stored = ((IngestSource.StoredPart)part).load();
+            if (stored != null) {
+                load(attempt, stored);
+                return;
+            }
+            attempt.built = new ArrayList<>();
+        }
+
+        GeoObjInstructionsIter iter = part.open(token);
+        List<GeoObjRecord> chunk = new ArrayList<>(CHUNK_SIZE);
+        GeoObjRecord record;
+        long bytesReported = 0;
+        long total = 0;
+
+        try {
+            while ((record=iter.next()) != null) {
+                chunk.add(record);
+                if (chunk.size() == CHUNK_SIZE) {
+                    put(records, new Chunk<>(attempt, chunk, chunk.size()), reading);
+                    reading.items.addAndGet(chunk.size());
+                    total += chunk.size();
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+
+                    long bytes = iter.getBytesOnWire();
+                    progress.addBytes(bytes - bytesReported);
+                    bytesReported = bytes;
+                }
+            }
+            if (chunk.size() > 0) {
+                put(records, new Chunk<>(attempt, chunk, chunk.size()), reading);
+                reading.items.addAndGet(chunk.size());
+                total += chunk.size();
+            }
+            attempt.total = total;
+            if (attempt.written.get() == total) complete(attempt);
+            progress.addBytes(iter.getBytesOnWire() - bytesReported);
+            progress.setDone(CreationProgress.Stage.DOWNLOAD, partsRead.incrementAndGet());
+        }
+        catch (InterruptedException e) {
+            throw new LocaUtils.WorkInterruptedException();
+        }
+        finally {
+            iter.close();
+            bytesOnWire.addAndGet(iter.getBytesOnWire());
+            bytesDecoded.addAndGet(iter.getBytesDecoded());
+        }
+    }
+
+    /**
+     * Reader of a stored part: Its accepted geo-objects straight to the writer.
+     */
+    private void load(Attempt attempt, List<GeoObject> stored) throws LocaUtils.WorkInterruptedException {
+        IngestSource.StoredPart part = (IngestSource.StoredPart)attempt.part;
+        List<GeoObject> chunk = new ArrayList<>(CHUNK_SIZE);
+        long total = 0;
+
+        try {
+            for (GeoObject go : stored) {
+                if (!part.accepts(go)) continue;
+                chunk.add(go);
+                if (chunk.size() == CHUNK_SIZE) {
+                    put(geoObjects, new Chunk<>(attempt, chunk, chunk.size()), reading);
+                    total += chunk.size();
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+            if (chunk.size() > 0) {
+                put(geoObjects, new Chunk<>(attempt, chunk, chunk.size()), reading);
+                total += chunk.size();
+            }
+            attempt.total = total;
+            if (attempt.written.get() == total) complete(attempt);
+            partsLoaded.incrementAndGet();
+            progress.setDone(CreationProgress.Stage.DOWNLOAD, partsRead.incrementAndGet());
+        }
+        catch (InterruptedException e) {
+            throw new LocaUtils.WorkInterruptedException();
+        }
+    }
+
+    /**
+     * Builder: Records into geo-objects, until end.
+     */
+    private Void build() throws Exception {
+        try {
+            while (true) {
+                Chunk<GeoObjRecord> chunk = take(records, building);
+                if (chunk == END) {
+                    put(geoObjects, end(), building);
+                    return null;
+                }
+
+                List<GeoObject> built = new ArrayList<>(chunk.items.size());
+                for (GeoObjRecord record : chunk.items) {
+                    token.throwIfCancelled();
+                    try {
+                        built.add(new GeoObject(record, classifier, dictionary));
+                    }
+                    catch (GeoObject.BuildException e) {
+                        Log.i("<ME>", "Can't build: " + e.toString());
+                    }
+                }
+                building.items.addAndGet(built.size());
+                put(geoObjects, new Chunk<>(chunk.attempt, built, chunk.records), building);
+                progress.setDone(CreationProgress.Stage.BUILD, recordsConsumed.addAndGet(chunk.records));
+            }
+        }
+        catch (Throwable e) {
+            setFailure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Writer: Insert new geo-objects, until end from all builders.
+     */
+    private Void write() throws Exception {
+        try {
+            int ended = 0;
+            while (ended < noBuilders) {
+                Chunk<GeoObject> chunk = poll(geoObjects, writing);
+                if (chunk == null) {
+                    inserter.flushIfDue();
+                    handleCompletedAttempts();
+                    continue;
+                }
+                if (chunk == END) {
+                    ended++;
+                    continue;
+                }
+
+                Attempt attempt = chunk.attempt;
+                IngestSource.StoredPart stored = attempt.built != null ?
+                        (IngestSource.StoredPart)attempt.part : null;
+
+                int added = 0;
+                for (GeoObject go : chunk.items) {
+                    if (stored != null) {
+                        attempt.built.add(go);
+                        if (!stored.accepts(go)) continue;
+                    }
+                    if (insertedOsmIds.add(go.getOsmId())) {
+                        inserter.add(go);
+                        added++;
+                    }
+                }
+                writing.items.addAndGet(added);
+                progress.addObjects(added);
+                inserter.flushIfDue();
+
+                if (attempt.written.addAndGet(chunk.records) == attempt.total) complete(attempt);
+                handleCompletedAttempts();
+            }
+            handleCompletedAttempts();
+            inserter.flush();
+            return null;
+        }
+        catch (Throwable e) {
+            setFailure(e);
+            throw e;
+        }
+    }
+
+    //endregion
+
+    //region completed parts
+
+    /**
+     * Attempt's records all passed the writer: its part is inserted (once flushed).
+     * Called by reader or writer, whichever is last.
+     */
+    private void complete(Attempt attempt) {
+        if (attempt.built != null && attempt.complete.compareAndSet(false, true))
+            completedAttempts.add(attempt);
+    }
+
+    /**
+     * Writer: Store geo-objects of completely read stored parts.
+     */
+    private void handleCompletedAttempts() {
+        Attempt attempt;
+        while ((attempt=completedAttempts.poll()) != null) store(attempt);
+    }
+
+    /**
+     * Store geo-objects of a completely read stored part. A failure only costs a
+     * fetch next time.
+     */
+    private void store(Attempt attempt) {
+        try {
+            ((IngestSource.StoredPart)attempt.part).store(attempt.built, attempt.start);
+            partsStored++;
+        }
+        catch (IOException e) {
+            Log.w("<ME>", "Can't store " + attempt.part, e);
+        }
+        attempt.built = null;
+    }
+
+    //endregion
+
+    //region queues
+
+    /**
+     * Blocking put. Gives up if another stage failed, or cancelled.
+     *
+     * @param stage Stage putting, NULL if none.
+     */
+    private <T> void put(BlockingQueue<Chunk<T>> queue, Chunk<T> chunk, Stage stage) throws InterruptedException, LocaUtils.WorkInterruptedException {
+        long start = System.nanoTime();
+        while (!queue.offer(chunk, POLL_TIME, TimeUnit.MILLISECONDS)) checkAbort();
+        checkAbort();
+
+        if (stage != null) stage.blockedNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Blocking take. Gives up if another stage failed, or cancelled.
+     */
+    private <T> Chunk<T> take(BlockingQueue<Chunk<T>> queue, Stage stage) throws InterruptedException, LocaUtils.WorkInterruptedException {
+        long start = System.nanoTime();
+        Chunk<T> chunk;
+        while ((chunk=queue.poll(POLL_TIME, TimeUnit.MILLISECONDS)) == null) checkAbort();
+        checkAbort();
+
+        stage.blockedNanos.addAndGet(System.nanoTime() - start);
+        return chunk;
+    }
+
+    /**
+     * Blocking take, with timeout. Gives up if another stage failed, or cancelled.
+     *
+     * @return Chunk, or NULL if none within a short time.
+     */
+    private <T> Chunk<T> poll(BlockingQueue<Chunk<T>> queue, Stage stage) throws InterruptedException, LocaUtils.WorkInterruptedException {
+        long start = System.nanoTime();
+        Chunk<T> chunk = queue.poll(POLL_TIME, TimeUnit.MILLISECONDS);
+        checkAbort();
+
+        stage.blockedNanos.addAndGet(System.nanoTime() - start);
+        return chunk;
+    }
+
+    private void checkAbort() throws LocaUtils.WorkInterruptedException {
+        token.throwIfCancelled();
+        if (failure != null) throw new RuntimeException("Other stage failed", failure);
+    }
+
+    /**
+     * Remember first failure (later ones are consequences).
+     */
+    private synchronized void setFailure(Throwable e) {
+        if (failure == null) failure = e;
+    }
+
+    //endregion
+
+    /**
+     * Throw failure of a stage as it is.
+     */
+    private void fail(Throwable e) throws IOException, LocaUtils.WorkInterruptedException {
+        if (e instanceof IOException) throw (IOException)e;
+        if (e instanceof LocaUtils.WorkInterruptedException) throw (LocaUtils.WorkInterruptedException)e;
+        if (e instanceof RuntimeException) throw (RuntimeException)e;
+        if (e instanceof Error) throw (Error)e;
+        throw new RuntimeException(e);
+    }
+
+    private void log(long time) {
+        Log.i("<ME>", "Pipeline done in " + time + " ms, builders: " + noBuilders);
+        Log.i("<ME>", reading.toString(time));
+        Log.i("<ME>", building.toString(time));
+        Log.i("<ME>", writing.toString(time) + ", " + inserter.toString());
+        Log.i("<ME>", "Bytes on wire: " + bytesOnWire.get() + ", decoded: " + bytesDecoded.get());
+        Log.i("<ME>", "Stored parts loaded: " + partsLoaded.get() + ", stored: " + partsStored);
+    }
+
+    public Stage getReading() {
+        return reading;
+    }
+
+    public Stage getBuilding() {
+        return building;
+    }
+
+    public Stage getWriting() {
+        return writing;
+    }
+
+    public BatchInserter getInserter() {
+        return inserter;
+    }
+}
@@ -0,0 +1,645 @@
+package com.localore.localore.modelManipulation;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.localore.localore.LocaUtils;
+import com.localore.localore.model.AppDatabase;
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.GeoObject;
+import com.localore.localore.model.NodeShape;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Dedupe of all raw geo-objects in one pass (see ExerciseControl.dedupeAndInsertGeoObjects):
+ *
+ * - Geo-objects are read from src once, in pages (by id).
+ * - They are grouped by name (case-folded as the db compares names) in a hash-map.
+ *   Optionally, variants of a name are grouped too (see setMinNameSimilarity).
+ * - Within a group, geo-objects within MERGE_LIMIT of each other are joined (union-find),
+ *   so a chain of close pieces (e.g of a long road) becomes one geo-object: the highest
+ *   ranked piece, with the shapes of all. In big groups ("Bus stop") only geo-objects in
+ *   neighbouring cells of a MERGE_LIMIT-grid are compared.
+ * - Merged geo-objects are inserted into dest in batches.
+ *
+ * With a heap-budget (see setHeapBudget), geo-objects beyond it are spilled to sorted
+ * run-files, and groups are read back one at a time: memory is bounded by the budget
+ * (and the biggest name-group).
+ */
+public class BatchDeduper {
+
+    /**
+     * Max n.o geo-objects read from src in one query.
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * Groups at least this big are joined through a grid (see joinByGrid), smaller ones
+     * pair by pair.
+     */
+    static final int GRID_MIN_GROUP_SIZE = 16;
+
+    /**
+     * Heap-size estimates (see estimateSize): geo-object with its fields, a shape, a node
+     * ([lon, lat] array and its reference).
+     */
+    private static final long GEO_OBJECT_BYTES = 200;
+    private static final long NODE_SHAPE_BYTES = 64;
+    private static final long NODE_BYTES = 40;
+
+    /**
+     * Heap-size estimates of name-grouping: a name while indexed (see NameIndex: string,
+     * trigrams, postings), and an entry of nameGroups.
+     */
+    private static final long INDEXED_NAME_BYTES = 100;
+    private static final long INDEXED_NAME_CHAR_BYTES = 48;
+    private static final long NAME_GROUP_BYTES = 90;
+
+    /**
+     * Earth-radius of LocaUtils.distance, in meters.
+     */
+    private static final double EARTH_RADIUS = 6371000;
+
+    /**
+     * Height of grid-cells (see joinByGrid), in degrees: at least MERGE_LIMIT.
+     */
+    static final double CELL_LAT = 1.01 * Math.toDegrees(ExerciseControl.MERGE_LIMIT / EARTH_RADIUS);
+
+    /**
+     * Order of a group's geo-objects when merged: by OSM-id, not read-order (timing of
+     * parts), for the same merges and survivors every time.
+     */
+    static final Comparator<GeoObject> BY_OSM_ID = (g1, g2) -> g1.getOsmId().compareTo(g2.getOsmId());
+
+    private final AppDatabase src;
+    private final AppDatabase dest;
+    private final int insertBatchSize;
+    private final CreationProgress progress;
+    private final CancellationToken token;
+    private final Gson gson = new Gson();
+
+    private long heapBudget = Long.MAX_VALUE;
+    private File spillDir = null;
+    private double minNameSimilarity = 0;
+
+    /**
+     * Folded name -> key of its name-group, NULL if names not grouped by similarity.
+     */
+    private Map<String, String> nameGroups;
+
+    /**
+     * Estimated heap-size of nameGroups: not left for held geo-objects.
+     */
+    private long nameGroupsBytes;
+
+    private BatchInserter inserter;
+    private int done;
+    private int noGroups;
+
+    /**
+     * @param src Raw geo-objects.
+     * @param dest Where deduped geo-objects are inserted.
+     * @param insertBatchSize Max geo-objects inserted in one transaction.
+     * @param progress Enters DEDUPE-stage, units: geo-objects in src.
+     * @param token If cancelled: stops with WorkInterruptedException.
+     */
+    public BatchDeduper(AppDatabase src, AppDatabase dest, int insertBatchSize, CreationProgress progress, CancellationToken token) {
+        this.src = src;
+        this.dest = dest;
+        this.insertBatchSize = insertBatchSize;
+        this.progress = progress;
+        this.token = token;
+    }
+
+    /**
+     * Bounded memory: when the raw geo-objects held exceed heapBudget (estimated), they
+     * are sorted by name and written to a run-file in spillDir. Name-groups are then read
+     * back one at a time, by a k-way merge of the runs. Default: no budget, all held.
+     *
+     * Name-grouping (see setMinNameSimilarity) counts too: its index must fit in the
+     * budget, and its name-groups are held beside the geo-objects. Else names are not
+     * grouped by similarity.
+     *
+     * @param heapBudget Bytes.
+     * @param spillDir Where run-files are written (and deleted when done).
+     */
+    public void setHeapBudget(long heapBudget, File spillDir) {
+        this.heapBudget = heapBudget;
+        this.spillDir = spillDir;
+    }
+
+    /**
+     * Also group variants of a name ("Uppsala C", "Uppsala Central"), see NameIndex.
+     * Default: only same (case-folded) names are grouped.
+     *
+     * @param minNameSimilarity Names with at least this similarity are grouped, (0, 1].
+     */
+    public void setMinNameSimilarity(double minNameSimilarity) {
+        this.minNameSimilarity = minNameSimilarity;
+    }
+
+    /**
+     * Dedupe geo-objects of src into dest. Src is left as is.
+     *
+     * @return IDs of the geo-objects inserted into dest.
+     * @throws IOException If a run-file couldn't be written or read.
+     */
+    public List<Long> run() throws LocaUtils.WorkInterruptedException, IOException {
+        int total = src.geoDao().count();
+        progress.setStage(CreationProgress.Stage.DEDUPE, total);
+        inserter = new BatchInserter(dest, insertBatchSize, Long.MAX_VALUE);
+        inserter.setKeepIds(true);
+        done = 0;
+        noGroups = 0;
+        nameGroupsBytes = 0;
+        nameGroups = minNameSimilarity > 0 ? groupSimilarNames() : null;
+        long budget = heapBudget - nameGroupsBytes;
+
+        List<File> runs = new ArrayList<>();
+        try {
+            List<Raw> held = new ArrayList<>();
+            long heldBytes = 0;
+            long lastId = -1;
+            List<GeoObject> page;
+            while (!(page=src.geoDao().loadWithIdAbove(lastId, PAGE_SIZE)).isEmpty()) {
+                token.throwIfCancelled();
+                for (GeoObject go : page) {
+                    held.add(new Raw(key(go), go));
+                    heldBytes += estimateSize(go);
+                    if (heldBytes >= budget) {
+                        runs.add(writeRun(held));
+                        held = new ArrayList<>();
+                        heldBytes = 0;
+                    }
+                }
+                lastId = page.get(page.size() - 1).getId();
+            }
+
+            if (runs.isEmpty()) {
+                dedupeHeld(held);
+            }
+            else {
+                if (!held.isEmpty()) runs.add(writeRun(held));
+                held = null;
+                dedupeRuns(runs);
+            }
+            inserter.flush();
+        }
+        finally {
+            for (File run : runs) run.delete();
+        }
+
+        Log.i("<ME>", String.format("Deduped %d geo-objects in %d groups (%d runs) into %d, %s",
+                total, noGroups, runs.size(), inserter.getRows(), inserter));
+        return inserter.getInsertedIds();
+    }
+
+    /**
+     * Group held geo-objects by name in a hash-map, dedupe each group.
+     */
+    private void dedupeHeld(List<Raw> held) throws LocaUtils.WorkInterruptedException {
+        Map<String, List<GeoObject>> groups = new LinkedHashMap<>();
+        for (Raw raw : held) {
+            List<GeoObject> group = groups.get(raw.key);
+            if (group == null) {
+                group = new ArrayList<>(1);
+                groups.put(raw.key, group);
+            }
+            group.add(raw.geoObject);
+        }
+        held.clear();
+
+        for (List<GeoObject> group : groups.values()) dedupeGroup(group);
+    }
+
+    /**
+     * Merge group, insert into dest.
+     */
+    private void dedupeGroup(List<GeoObject> group) throws LocaUtils.WorkInterruptedException {
+        token.throwIfCancelled();
+        for (GeoObject merged : mergeGroup(group)) inserter.add(merged);
+
+        noGroups++;
+        done += group.size();
+        progress.setDone(CreationProgress.Stage.DEDUPE, done);
+    }
+
+    //region runs
+
+    /**
+     * @return File with held geo-objects sorted by name (stable: in src-order within a
+     * name), one json per line.
+     */
+    private File writeRun(List<Raw> held) throws IOException {
+        Collections.sort(held);
+        File run = File.createTempFile("dedupe", ".run", spillDir);
+        Writer writer = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(run)), "UTF-8");
+        try {
+            for (Raw raw : held) {
+                gson.toJson(raw.geoObject, writer);
+                writer.write('\n');
+            }
+        }
+        finally {
+            writer.close();
+        }
+        return run;
+    }
+
+    /**
+     * K-way merge of runs: each name-group is read from all runs, then deduped.
+     */
+    private void dedupeRuns(List<File> runs) throws IOException, LocaUtils.WorkInterruptedException {
+        PriorityQueue<RunReader> heads = new PriorityQueue<>(runs.size());
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(runs.get(i), i);
+                if (reader.next()) heads.add(reader);
+                else reader.close();
+            }
+
+            while (!heads.isEmpty()) {
+                String key = heads.peek().head.key;
+                List<GeoObject> group = new ArrayList<>(1);
+                while (!heads.isEmpty() && heads.peek().head.key.equals(key)) {
+                    RunReader reader = heads.poll();
+                    do {
+                        group.add(reader.head.geoObject);
+                    } while (reader.next() && reader.head.key.equals(key));
+
+                    if (reader.head != null) heads.add(reader);
+                    else reader.close();
+                }
+                dedupeGroup(group);
+            }
+        }
+        finally {
+            for (RunReader reader : heads) reader.close();
+        }
+    }
+
+    /**
+     * Reads a run-file, one geo-object ahead.
+     */
+    private class RunReader implements Comparable<RunReader> {
+        private final BufferedReader reader;
+        private final int index;
+
+        /**
+         * Next geo-object of run, NULL if at end.
+         */
+        private Raw head = null;
+
+        RunReader(File run, int index) throws IOException {
+            this.reader = new BufferedReader(new InputStreamReader(new FileInputStream(run), "UTF-8"));
+            this.index = index;
+        }
+
+        /**
+         * @return False if at end.
+         */
+        boolean next() throws IOException {
+            String line = reader.readLine();
+            if (line == null) {
+                head = null;
+                return false;
+            }
+            GeoObject go = gson.fromJson(line, GeoObject.class);
+            head = new Raw(key(go), go);
+            return true;
+        }
+
+        void close() {
+            try {
+                reader.close();
+            }
+            catch (IOException ignored) {}
+        }
+
+        /**
+         * By name of head, then by run: geo-objects of a name keep src-order.
+         */
+        @Override
+        public int compareTo(RunReader other) {
+            int c = head.compareTo(other.head);
+            return c != 0 ? c : Integer.compare(index, other.index);
+        }
+    }
+
+    /**
+     * Raw geo-object and its name-key (see key).
+     */
+    private static class Raw implements Comparable<Raw> {
+        final String key;
+        final GeoObject geoObject;
+
+        Raw(String key, GeoObject geoObject) {
+            this.key = key;
+            this.geoObject = geoObject;
+        }
+
+        @Override
+        public int compareTo(Raw other) {
+            return key.compareTo(other.key);
+        }
+    }
+
+    /**
+     * @return Approximate heap-size of geo-object, in bytes.
+     */
+    static long estimateSize(GeoObject go) {
+        long size = GEO_OBJECT_BYTES + 2 * go.getName().length();
+        if (go.getTags() != null) size += go.getTags().length;
+        for (NodeShape shape : go.getShapes()) size += NODE_SHAPE_BYTES + NODE_BYTES * shape.size();
+        return size;
+    }
+
+    //endregion
+
+    //region names
+
+    /**
+     * @return Key of geo-object's group: its folded name, or the name-group's (see
+     * groupSimilarNames).
+     */
+    private String key(GeoObject go) {
+        String name = fold(go.getName());
+        if (nameGroups == null) return name;
+
+        String key = nameGroups.get(name);
+        return key != null ? key : name;
+    }
+
+    /**
+     * Join names of src with at least minNameSimilarity (transitively). Sets
+     * nameGroupsBytes.
+     *
+     * @return See groupSimilarNames(Collection, double, long).
+     */
+    private Map<String, String> groupSimilarNames() {
+        Set<String> folded = new HashSet<>();
+        for (String name : src.geoDao().loadNames()) folded.add(fold(name));
+
+        Map<String, String> keys = groupSimilarNames(folded, minNameSimilarity, heapBudget);
+        if (keys != null) nameGroupsBytes = estimateSize(keys);
+        return keys;
+    }
+
+    /**
+     * Join names with at least minNameSimilarity (transitively).
+     *
+     * @param folded Folded names.
+     * @param heapBudget Bytes the index may use, and twice what the name-groups may.
+     * @return Folded name -> key of its group (a folded name in the group), for names
+     * joined with a variant (others are their own key). NULL if over heap-budget.
+     */
+    static Map<String, String> groupSimilarNames(Collection<String> folded, double minNameSimilarity, long heapBudget) {
+        List<String> names = new ArrayList<>(folded);
+        Collections.sort(names);
+
+        long indexBytes = 0;
+        for (String name : names) indexBytes += INDEXED_NAME_BYTES + INDEXED_NAME_CHAR_BYTES * name.length();
+        if (indexBytes > heapBudget) {
+            Log.w("<ME>", String.format("Names not grouped: index of %d names (~%d MB) over heap-budget",
+                    names.size(), indexBytes / (1 << 20)));
+            return null;
+        }
+
+        NameIndex index = new NameIndex(names, minNameSimilarity);
+        int[] parents = new int[names.size()];
+        for (int i = 0; i < parents.length; i++) parents[i] = i;
+        for (int i = 0; i < parents.length; i++) {
+            for (int j : index.similarTo(i)) parents[find(parents, j)] = find(parents, i);
+        }
+
+        Map<String, String> keys = new HashMap<>();
+        for (int i = 0; i < parents.length; i++) {
+            int root = find(parents, i);
+            if (root != i) keys.put(names.get(i), names.get(root));
+        }
+        Log.i("<ME>", String.format("Name-groups: %d names, %d joined with a variant", names.size(), keys.size()));
+
+        if (estimateSize(keys) > heapBudget / 2) {
+            Log.w("<ME>", "Names not grouped: name-groups over half of heap-budget");
+            return null;
+        }
+        return keys;
+    }
+
+    /**
+     * @return Approximate heap-size of name-groups, in bytes.
+     */
+    private static long estimateSize(Map<String, String> nameGroups) {
+        long size = 0;
+        for (String name : nameGroups.keySet()) size += NAME_GROUP_BYTES + 2 * name.length();
+        return size;
+    }
+
+    //endregion
+
+    //region merge
+
+    /**
+     * Join geo-objects within MERGE_LIMIT of each other (transitively), each set into
+     * its highest ranked geo-object.
+     *
+     * @param sameNames All have same (or similar) name.
+     * @return Merged geo-objects, in order of (OSM-id of) first piece.
+     */
+    public static List<GeoObject> mergeGroup(List<GeoObject> sameNames) {
+        int n = sameNames.size();
+        if (n == 1) return new ArrayList<>(sameNames);
+
+        sameNames = new ArrayList<>(sameNames);
+        Collections.sort(sameNames, BY_OSM_ID);
+
+        double[][][] points = new double[n][][];
+        for (int i = 0; i < n; i++) points[i] = mergePoints(sameNames.get(i));
+
+        int[] parents = new int[n];
+        for (int i = 0; i < n; i++) parents[i] = i;
+
+        if (n < GRID_MIN_GROUP_SIZE) joinPairwise(points, parents);
+        else joinByGrid(points, parents);
+
+        Map<Integer, List<GeoObject>> sets = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            int root = find(parents, i);
+            List<GeoObject> set = sets.get(root);
+            if (set == null) {
+                set = new ArrayList<>();
+                sets.put(root, set);
+            }
+            set.add(sameNames.get(i));
+        }
+
+        List<GeoObject> merged = new ArrayList<>(sets.size());
+        for (List<GeoObject> set : sets.values()) merged.add(merge(set));
+        return merged;
+    }
+
+    /**
+     * Join all pairs within MERGE_LIMIT. O(n^2).
+     */
+    private static void joinPairwise(double[][][] points, int[] parents) {
+        for (int i = 0; i < points.length; i++) {
+            for (int j = i + 1; j < points.length; j++) join(points, parents, i, j);
+        }
+    }
+
+    /**
+     * Join all pairs within MERGE_LIMIT. Points are put in a grid with cells at least
+     * MERGE_LIMIT wide, so a geo-object is only compared with those having a point in
+     * a neighbouring cell of one of its points. ~O(n) for spread out geo-objects.
+     */
+    private static void joinByGrid(double[][][] points, int[] parents) {
+        double maxLat = 0;
+        for (double[][] ps : points) {
+            for (double[] p : ps) maxLat = Math.max(maxLat, Math.abs(p[1]));
+        }
+        double cellLat = CELL_LAT;
+        double cellLon = cellLon(maxLat);
+
+        Map<Long, List<Integer>> cells = new HashMap<>();
+        for (int i = 0; i < points.length; i++) {
+            for (double[] p : points[i]) {
+                long cell = cell((long)Math.floor(p[0] / cellLon), (long)Math.floor(p[1] / cellLat));
+                List<Integer> members = cells.get(cell);
+                if (members == null) {
+                    members = new ArrayList<>(2);
+                    cells.put(cell, members);
+                }
+                if (members.isEmpty() || members.get(members.size() - 1) != i) members.add(i);
+            }
+        }
+
+        int[] comparedWith = new int[points.length];
+        Arrays.fill(comparedWith, -1);
+        for (int i = 0; i < points.length; i++) {
+            comparedWith[i] = i;
+            for (double[] p : points[i]) {
+                long x = (long)Math.floor(p[0] / cellLon);
+                long y = (long)Math.floor(p[1] / cellLat);
+                for (long dx = -1; dx <= 1; dx++) {
+                    for (long dy = -1; dy <= 1; dy++) {
+                        List<Integer> members = cells.get(cell(x + dx, y + dy));
+                        if (members == null) continue;
+
+                        for (int j : members) {
+                            if (comparedWith[j] == i) continue;
+                            comparedWith[j] = i;
+                            join(points, parents, i, j);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Width of grid-cells, in degrees: at least MERGE_LIMIT up to latitude maxLat.
+     */
+    static double cellLon(double maxLat) {
+        return CELL_LAT / Math.max(0.01, Math.cos(Math.toRadians(Math.min(90, maxLat + CELL_LAT))));
+    }
+
+    static long cell(long x, long y) {
+        return (x << 32) ^ (y & 0xffffffffL);
+    }
+
+    /**
+     * Join sets of i and j if within MERGE_LIMIT (and not already same set).
+     */
+    private static void join(double[][][] points, int[] parents, int i, int j) {
+        int ri = find(parents, i);
+        int rj = find(parents, j);
+        if (ri != rj && isWithinMergeLimit(points[i], points[j])) parents[rj] = ri;
+    }
+
+    /**
+     * @return Root of i's set. Path is halved on the way.
+     */
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    /**
+     * @param set In order BY_OSM_ID.
+     * @return Highest ranked of set, with shapes of the others added.
+     */
+    static GeoObject merge(List<GeoObject> set) {
+        GeoObject top = set.get(0);
+        for (GeoObject go : set) {
+            if (go.getRank() > top.getRank()) top = go;
+        }
+        for (GeoObject go : set) {
+            if (go != top) top.addShapes(go.getShapes());
+        }
+        return top;
+    }
+
+    /**
+     * @return Points merge-distance is measured between: corners and center of bounds.
+     */
+    static double[][] mergePoints(GeoObject go) {
+        double[] bs = go.getBounds();
+        return new double[][]{
+                {bs[0], bs[1]},
+                {bs[0], bs[3]},
+                {bs[2], bs[1]},
+                {bs[2], bs[3]},
+                {(bs[0] + bs[2]) / 2, (bs[1] + bs[3]) / 2}};
+    }
+
+    /**
+     * @return True if any points of ps1 and ps2 are within MERGE_LIMIT (approximate
+     * distance between their geo-objects).
+     */
+    static boolean isWithinMergeLimit(double[][] ps1, double[][] ps2) {
+        for (double[] p1 : ps1) {
+            for (double[] p2 : ps2) {
+                if (LocaUtils.distance(p1, p2) <= ExerciseControl.MERGE_LIMIT) return true;
+            }
+        }
+        return false;
+    }
+
+    //endregion
+
+    /**
+     * @return Name as compared by the db (NOCASE: ascii-letters folded).
+     */
+    static String fold(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            sb.append(c >= 'A' && c <= 'Z' ? (char)(c + 'a' - 'A') : c);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,108 @@
+package com.localore.localore.modelManipulation;
+
+import com.localore.localore.model.AppDatabase;
+import com.localore.localore.model.GeoObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inserts geo-objects in batches, one transaction per batch.
+ * A batch is committed when full, or when its oldest object has waited long enough.
+ *
+ * Not thread-safe: used by one writer.
+ */
+public class BatchInserter {
+
+    private final AppDatabase db;
+    private final int batchSize;
+    private final long maxDelay;
+
+    private List<GeoObject> batch;
+    private long batchStart = 0;
+
+    private long rows = 0;
+    private long batches = 0;
+    private long insertNanos = 0;
+
+    private List<Long> insertedIds = null;
+
+    /**
+     * @param db Where geo-objects are inserted.
+     * @param batchSize Max number of geo-objects in a batch.
+     * @param maxDelay Max ms from first geo-object added to a batch until committed.
+     */
+    public BatchInserter(AppDatabase db, int batchSize, long maxDelay) {
+        this.db = db;
+        this.batchSize = batchSize;
+        this.maxDelay = maxDelay;
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * @param keepIds True: ids of committed geo-objects are kept (see getInsertedIds).
+     * Default false.
+     */
+    public void setKeepIds(boolean keepIds) {
+        this.insertedIds = keepIds ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Add to batch. Commits batch if full.
+     */
+    public void add(GeoObject go) {
+        if (batch.isEmpty()) batchStart = System.currentTimeMillis();
+        batch.add(go);
+        if (batch.size() >= batchSize) flush();
+    }
+
+    /**
+     * Commit batch if it has waited too long.
+     */
+    public void flushIfDue() {
+        if (!batch.isEmpty() && System.currentTimeMillis() - batchStart >= maxDelay) flush();
+    }
+
+    /**
+     * Commit batch (if any).
+     */
+    public void flush() {
+        if (batch.isEmpty()) return;
+
+        long start = System.nanoTime();
+        List<Long> ids = db.geoDao().insert(batch);
+        if (insertedIds != null) insertedIds.addAll(ids);
+        insertNanos += System.nanoTime() - start;
+
+        rows += batch.size();
+        batches++;
+        batch = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * @return N.o committed geo-objects.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return IDs of committed geo-objects, if kept (else NULL).
+     */
+    public List<Long> getInsertedIds() {
+        return insertedIds;
+    }
+
+    /**
+     * @return Committed rows per second of time spent inserting.
+     */
+    public double getRowsPerSecond() {
+        return rows * 1e9 / Math.max(1, insertNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("inserted %d rows in %d batches, %d ms, %.0f rows/s",
+                rows, batches, insertNanos / 1000000, getRowsPerSecond());
+    }
+}
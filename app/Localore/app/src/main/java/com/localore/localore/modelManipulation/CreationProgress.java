@@ -0,0 +1,191 @@
+package com.localore.localore.modelManipulation;
+
+import java.io.Serializable;
+
+/**
+ * Progress of an exercise-creation. Updated by the creation-process (from any thread),
+ * published to a listener at a throttled rate (and at once when stage changes).
+ *
+ * Work done in a stage is counted in units of the stage (e.g downloaded parts,
+ * deduped geo-objects). ETA is of current stage, from its rate so far.
+ */
+public class CreationProgress {
+
+    public enum Stage { DOWNLOAD, BUILD, DEDUPE, RANK, QUIZZES }
+
+    /**
+     * Min ms between two published snapshots of same stage.
+     */
+    public static final long DEFAULT_PUBLISH_INTERVAL = 500;
+
+    public interface Listener {
+        void onProgress(Snapshot snapshot);
+    }
+
+    /**
+     * Progress at one point in time.
+     */
+    public static class Snapshot implements Serializable {
+        private final Stage stage;
+        private final long bytes;
+        private final long objects;
+        private final double objectsPerSecond;
+        private final double stageFraction;
+        private final long eta;
+
+        Snapshot(Stage stage, long bytes, long objects, double objectsPerSecond, double stageFraction, long eta) {
+            this.stage = stage;
+            this.bytes = bytes;
+            this.objects = objects;
+            this.objectsPerSecond = objectsPerSecond;
+            this.stageFraction = stageFraction;
+            this.eta = eta;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        /**
+         * @return Bytes received from network.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return Geo-objects acquired (deduped by OSM-id).
+         */
+        public long getObjects() {
+            return objects;
+        }
+
+        /**
+         * @return Geo-objects acquired per second since start.
+         */
+        public double getObjectsPerSecond() {
+            return objectsPerSecond;
+        }
+
+        /**
+         * @return Done part of current stage [0,1], or -1 if unknown.
+         */
+        public double getStageFraction() {
+            return stageFraction;
+        }
+
+        /**
+         * @return Ms left of current stage, or -1 if unknown.
+         */
+        public long getEta() {
+            return eta;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.0f%%, %d bytes, %d objects (%.0f/s), eta %d ms",
+                    stage, stageFraction * 100, bytes, objects, objectsPerSecond, eta);
+        }
+    }
+
+    private final Listener listener;
+    private final long publishInterval;
+    private final long start = System.currentTimeMillis();
+
+    private Stage stage = Stage.DOWNLOAD;
+    private long stageStart = start;
+    private long stageTotal = -1;
+    private long stageDone = 0;
+    private long bytes = 0;
+    private long objects = 0;
+    private long lastPublish = 0;
+
+    /**
+     * @param listener Receiver of published snapshots, NULL for none.
+     */
+    public CreationProgress(Listener listener) {
+        this(listener, DEFAULT_PUBLISH_INTERVAL);
+    }
+
+    /**
+     * @param listener Receiver of published snapshots, NULL for none.
+     * @param publishInterval Min ms between snapshots of same stage.
+     */
+    public CreationProgress(Listener listener, long publishInterval) {
+        this.listener = listener;
+        this.publishInterval = publishInterval;
+    }
+
+    /**
+     * Enter next stage.
+     *
+     * @param total Units of work in stage, -1 if unknown.
+     */
+    public void setStage(Stage stage, long total) {
+        synchronized (this) {
+            this.stage = stage;
+            this.stageStart = System.currentTimeMillis();
+            this.stageTotal = total;
+            this.stageDone = 0;
+        }
+        publish(true);
+    }
+
+    /**
+     * @param stage Stage of work. Ignored if not current stage.
+     * @param done Units of work done in stage (so far).
+     */
+    public void setDone(Stage stage, long done) {
+        synchronized (this) {
+            if (stage != this.stage || done <= stageDone) return;
+            this.stageDone = done;
+        }
+        publish(false);
+    }
+
+    public void addBytes(long n) {
+        synchronized (this) {
+            bytes += n;
+        }
+        publish(false);
+    }
+
+    public void addObjects(long n) {
+        synchronized (this) {
+            objects += n;
+        }
+        publish(false);
+    }
+
+    public synchronized Snapshot snapshot() {
+        long now = System.currentTimeMillis();
+        double objectsPerSecond = objects * 1000.0 / Math.max(1, now - start);
+
+        double fraction = -1;
+        long eta = -1;
+        if (stageTotal > 0) {
+            fraction = Math.min(1, (double)stageDone / stageTotal);
+            if (stageDone > 0) eta = (long)((now - stageStart) * (1 - fraction) / fraction);
+        }
+
+        return new Snapshot(stage, bytes, objects, objectsPerSecond, fraction, eta);
+    }
+
+    /**
+     * Publish snapshot to listener, unless published recently.
+     *
+     * @param force Publish anyway.
+     */
+    private void publish(boolean force) {
+        if (listener == null) return;
+
+        Snapshot snapshot;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (!force && now - lastPublish < publishInterval) return;
+            lastPublish = now;
+            snapshot = snapshot();
+        }
+        listener.onProgress(snapshot);
+    }
+}
@@ -3,27 +3,37 @@ package com.localore.localore.modelManipulation;
 import android.content.Context;
 import android.util.Log;
 
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.localore.localore.LocaUtils;
-import com.localore.localore.R;
 import com.localore.localore.model.AppDatabase;
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.CategoryDictionary;
 import com.localore.localore.model.Exercise;
 import com.localore.localore.model.GeoObjInstructionsIter;
+import com.localore.localore.model.GeoObjRecord;
 import com.localore.localore.model.GeoObject;
 import com.localore.localore.model.GeoObjectDao;
+import com.localore.localore.model.IngestSource;
 import com.localore.localore.model.NodeShape;
+import com.localore.localore.model.OverpassIngestSource;
 import com.localore.localore.model.Quiz;
 import com.localore.localore.model.QuizCategory;
+import com.localore.localore.model.TagClassifier;
+import com.localore.localore.model.TagDictionary;
+import com.localore.localore.model.TileStore;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Static class for exercise related operations (manipulate the database).
@@ -39,13 +49,35 @@ public class ExerciseControl {
     /**
      * Max allowed distance in meters between two geo-objects for a merge.
      */
-    private static final double MERGE_LIMIT = 200;
+    static final double MERGE_LIMIT = 200;
+
+    /**
+     * Min similarity of variants of a name ("Uppsala C", "Uppsala Central") for a merge,
+     * see NameIndex.
+     */
+    static final double MIN_NAME_SIMILARITY = 0.5;
+
+    /**
+     * Results of reclassifyExercise when not done.
+     */
+    public static final int QUIZ_RUNNING = -1;
+    public static final int UNDER_CONSTRUCTION = -2;
+
+    /**
+     * Geo-objects per page when re-coding kept tags.
+     */
+    private static final int TAGS_PAGE_SIZE = 1000;
 
     /**
      * Length based rank boost for geo-objects, by multiplying rank with [1, this].
      */
     private static final double RANK_BOOST_FACTOR = 0.1;
 
+    /**
+     * Part of max heap that raw geo-objects may use during dedupe (see dedupeHeapBudget).
+     */
+    private static final double DEDUPE_HEAP_FRACTION = 0.25;
+
     /**
      * Max number of geo-objects in a level. If more: split into two levels.
      */
@@ -59,12 +91,14 @@ public class ExerciseControl {
      * @param userId
      * @param exerciseName
      * @param workingArea
+     * @param tagTableVersion Version of conversion-table geo-objects are classified by.
      * @param db
      *
      * @pre exerciseName unique
      */
-    public static long newExercise(long userId, String exerciseName, NodeShape workingArea, AppDatabase db) {
+    public static long newExercise(long userId, String exerciseName, NodeShape workingArea, String tagTableVersion, AppDatabase db) {
         Exercise exercise = new Exercise(userId, exerciseName, workingArea);
+        exercise.setTagTableVersion(tagTableVersion);
         incrementExerciseDisplayIndexes(userId, db);
         long exerciseId = db.exerciseDao().insert(exercise);
         return exerciseId;
@@ -84,50 +118,91 @@ public class ExerciseControl {
 
     //region acquire
 
+    /**
+     * Max number of tiles fetched at once. Overpass allows a client few parallel queries.
+     */
+    private static final int MAX_PARALLEL_TILE_FETCHES = 2;
 
     /**
-     * If true: stops acquiring and exits with exception.
+     * Max number of fetches of a tile before acquisition fails.
      */
-    public static volatile boolean interruptAcquisition;
+    private static final int MAX_TILE_FETCH_ATTEMPTS = 3;
 
+    /**
+     * Max number of raw geo-objects inserted in one transaction.
+     */
+    public static final int INSERT_BATCH_SIZE = 1000;
 
-     /**
+    /**
+     * Max ms a raw geo-object waits for its batch to be inserted.
+     */
+    public static final long INSERT_BATCH_DELAY = 2000;
+
+    /**
+     * Fetches geo-objects in the working-area of exercise from Overpass, without
+     * progress-reports or cancel.
+     * See acquireGeoObjects(NodeShape, IngestSource, AppDatabase, IncrementalDeduper, CreationProgress, CancellationToken, Context).
+     */
+    public static void acquireGeoObjects(NodeShape workingArea, AppDatabase tempDb, Context context)  throws IOException, LocaUtils.WorkInterruptedException {
+        acquireGeoObjects(workingArea, new OverpassIngestSource(context), tempDb, null,
+                new CreationProgress(null), new CancellationToken(), context);
+    }
+
+    /**
      * Fetches geo-objects in the working-area of exercise. Processes raw OSM.
      * Updates database with geo-objects. They all have quizId -1.
      *
+     * The data is read in parts (e.g tiles), in parallel. Reading, building and inserting
+     * are overlapping stages (see AcquisitionPipeline). An element appearing in several
+     * parts (e.g a long road) is only inserted once (dedupe by OSM-id).
+     *
+     * Meanwhile, the geo-objects inserted are deduped (see IncrementalDeduper), if a
+     * deduper is given.
+     *
      * @param workingArea Area containing objects.
+     * @param source Where data is read from: Overpass, or a recording.
      * @param tempDb Where geo-objects are inserted.
-     * @param context For reading conversion-table from file.
+     * @param deduper Dedupe of tempDb while acquiring, NULL if none (see incrementalDeduper).
+     * @param progress Updated during acquisition.
+     * @param token If cancelled: connections are aborted, and WorkInterruptedException thrown.
+     * @param context For the conversion-table (see TagClassifier) and tag-dictionary.
      */
-    public static void acquireGeoObjects(NodeShape workingArea, AppDatabase tempDb, Context context)  throws IOException, LocaUtils.WorkInterruptedException {
-        interruptAcquisition = false;
+    public static void acquireGeoObjects(NodeShape workingArea, IngestSource source, AppDatabase tempDb, IncrementalDeduper deduper, CreationProgress progress, CancellationToken token, Context context)  throws IOException, LocaUtils.WorkInterruptedException {
         tempDb.clearAllTables();
-        JsonObject convTable = openConversionTable(context);
-        GeoObjInstructionsIter iter = new GeoObjInstructionsIter(workingArea, context);
-        iter.open();
-        List<String> instr;
-
-        while ((instr=iter.next()) != null) {
-            if (interruptAcquisition == true) {
-                throw new LocaUtils.WorkInterruptedException();
-            }
+        TagClassifier classifier = TagClassifier.getInstance(context);
+        List<IngestSource.Part> parts = source.parts(workingArea);
+        Log.i("<ME>", "N.o parts: " + parts.size());
+
+        TileFetchScheduler scheduler = new TileFetchScheduler(MAX_PARALLEL_TILE_FETCHES, MAX_TILE_FETCH_ATTEMPTS, token);
+        AcquisitionPipeline pipeline = new AcquisitionPipeline(classifier, TagDictionary.getInstance(context), tempDb, INSERT_BATCH_SIZE, INSERT_BATCH_DELAY, progress, token);
+        if (deduper == null) {
+            pipeline.run(parts, scheduler);
+            return;
+        }
 
-            try {
-                GeoObject go = new GeoObject(instr, convTable);
-                tempDb.geoDao().insert(go);
-            }
-            catch (GeoObject.BuildException e) {
-                Log.i("<ME>", "Can't build: " + e.toString());
-            }
+        deduper.start();
+        boolean acquired = false;
+        try {
+            pipeline.run(parts, scheduler);
+            acquired = true;
+        }
+        finally {
+            if (!acquired) deduper.stop();
         }
+        deduper.end();
     }
 
     /**
-     * Open table for conversion from tags to category.
+     * @param tempDb Where geo-objects are acquired.
+     * @param mainDb Where they are deduped.
+     * @param token If cancelled: dedupe stops with WorkInterruptedException.
+     * @return Dedupe of geo-objects while acquired, for acquireGeoObjects and postProcessing.
      */
-    private static JsonObject openConversionTable(Context context) {
-        String json = LocaUtils.readTextFile(R.raw.tag_categories, context);
-        return new JsonParser().parse(json).getAsJsonObject();
+    public static IncrementalDeduper incrementalDeduper(AppDatabase tempDb, AppDatabase mainDb, CancellationToken token) {
+        IncrementalDeduper deduper = new IncrementalDeduper(tempDb, mainDb, token);
+        deduper.setHeapBudget(dedupeHeapBudget());
+        deduper.setMinNameSimilarity(MIN_NAME_SIMILARITY);
+        return deduper;
     }
 
     //endregion
@@ -142,16 +217,25 @@ public class ExerciseControl {
      * @param exerciseId Parent of created quizzes.
      * @param tempDb
      * @param mainDb
+     * @param deduper Dedupe done while acquiring, NULL if none.
+     * @param categories Categories of geo-objects' codes.
+     * @param spillDir Where dedupe spills geo-objects beyond its heap-budget.
+     * @param progress Updated with stage and work done.
+     * @param token If cancelled: stops between steps with WorkInterruptedException.
      * @return N.o geo-objects in the new exercise.
+     * @throws IOException If spilled geo-objects couldn't be written or read.
      */
-    public static int postProcessing(long exerciseId, AppDatabase tempDb, AppDatabase mainDb) {
-        List<Long> insertedIds = dedupeAndInsertGeoObjects(tempDb, mainDb);
+    public static int postProcessing(long exerciseId, AppDatabase tempDb, AppDatabase mainDb, IncrementalDeduper deduper, CategoryDictionary categories, File spillDir, CreationProgress progress, CancellationToken token) throws LocaUtils.WorkInterruptedException, IOException {
+        List<Long> insertedIds = dedupeAndInsertGeoObjects(tempDb, mainDb, deduper, dedupeHeapBudget(), spillDir, progress, token);
+
+        token.throwIfCancelled();
+        progress.setStage(CreationProgress.Stage.RANK, -1);
         double maxRank = boostGeoObjectRanksByLength(insertedIds, mainDb);
         Exercise exercise = mainDb.exerciseDao().load(exerciseId);
         exercise.setMaxRankOfGeoObject(maxRank);
         mainDb.exerciseDao().update(exercise);
 
-        insertGeoObjectQuizzes(exerciseId, mainDb);
+        insertGeoObjectQuizzes(exerciseId, mainDb, categories, progress, token);
         return insertedIds.size();
     }
 
@@ -163,27 +247,29 @@ public class ExerciseControl {
      * Dedupe:
      * Attempt to merge object-pieces into one object.
      * Same (similar) name + close proximity -> merge.
+     * Done in one pass over src, see BatchDeduper. Names are similar if variants
+     * (see MIN_NAME_SIMILARITY). Or mostly done already, while src was acquired (see
+     * IncrementalDeduper): then only finished.
      *
      * @param src
      * @param dest
+     * @param deduper Dedupe done while acquiring, NULL if none. If it gave up: as if none.
+     * @param heapBudget Max bytes (estimated) of raw geo-objects held. Beyond: spilled
+     * to sorted files.
+     * @param spillDir Where spilled geo-objects are written (and deleted).
+     * @param progress Enters DEDUPE-stage, units: geo-objects in src.
+     * @param token If cancelled: stops with WorkInterruptedException.
      * @pre Raw geo-objects in src
      * @return IDs of the geo-objects inserted into dest.
-     */
-    public static List<Long> dedupeAndInsertGeoObjects(AppDatabase src, AppDatabase dest) {
-        List<Long> insertedIds = new ArrayList<>();
-
-        while (src.geoDao().count() > 0) {
-            Log.d("<ME>", "count: " + src.geoDao().count());
-
-            GeoObject go = src.geoDao().loadOne();
-            src.geoDao().delete(go);
-
-            List<GeoObject> sameNames = deleteAllGeoObjectsWithSimilarName(go.getName(), src);
-            sameNames.add(go);
-            List<GeoObject> merged = mergeMergables(sameNames);
-
-            List<Long> ids = dest.geoDao().insert(merged);
-            insertedIds.addAll(ids);
+     * @throws IOException If spilled geo-objects couldn't be written or read.
+     */
+    public static List<Long> dedupeAndInsertGeoObjects(AppDatabase src, AppDatabase dest, IncrementalDeduper deduper, long heapBudget, File spillDir, CreationProgress progress, CancellationToken token) throws LocaUtils.WorkInterruptedException, IOException {
+        List<Long> insertedIds = deduper != null ? deduper.finish(progress) : null;
+        if (insertedIds == null) {
+            BatchDeduper batchDeduper = new BatchDeduper(src, dest, INSERT_BATCH_SIZE, progress, token);
+            batchDeduper.setHeapBudget(heapBudget, spillDir);
+            batchDeduper.setMinNameSimilarity(MIN_NAME_SIMILARITY);
+            insertedIds = batchDeduper.run();
         }
 
         src.clearAllTables();
@@ -192,123 +278,10 @@ public class ExerciseControl {
     }
 
     /**
-     * Remove all geo-objects with specified (or similar) name.
-     * @param name
-     * @param db
-     * @return Deleted geo-objects.
+     * @return Heap-budget of dedupe: DEDUPE_HEAP_FRACTION of max heap (of the device).
      */
-    private static List<GeoObject> deleteAllGeoObjectsWithSimilarName(String name, AppDatabase db) {
-        List<GeoObject> rmvs = db.geoDao().loadWithSimilarName(name);
-        db.geoDao().delete(rmvs);
-        return rmvs;
-    }
-
-    /**
-     * @param sameNames All have same (or similar) name.
-     * @return List with merged (if possible) geo-objects.
-     */
-    private static List<GeoObject> mergeMergables(List<GeoObject> sameNames) {
-        List<GeoObject> merged = new ArrayList<>();
-
-        while (sameNames.size() > 0) {
-            GeoObject accum = sameNames.remove(0);
-            GeoObject temp;
-
-            while ((temp=mergeFirst(accum, sameNames)) != null) {
-                accum = temp;
-            }
-            merged.add(accum);
-        }
-        return merged;
-    }
-
-    /**
-     * Merges geo-object with one in list (first mergable one).
-     * Also removes the merged object from the list.
-     *
-     * @param sameNames Geo-objects with same (or similar) names
-     * as go.
-     * @return Merge between go and first mergable from sameNames,
-     * or NULL if no merge possible.
-     * @pre All geo-objects has same (or similar names).
-     */
-    private static GeoObject mergeFirst(GeoObject go, List<GeoObject> sameNames) {
-        for (GeoObject go2 : sameNames) {
-            GeoObject goMerge = merge(go, go2);
-            if (goMerge != null) {
-                sameNames.remove(go2);
-                return goMerge;
-            }
-        }
-        return null;
-    }
-
-    /**
-     * @return Merged object, or NULL if merge not possible.
-     * @pre g1, g2 has same (or similar) name.
-     */
-    private static GeoObject merge(GeoObject g1, GeoObject g2) {
-        // if (!g1.getSupercat().equals(g2.getSupercat()))
-        //     return null;
-
-        double d = approximateDistance(g1, g2);
-        if (d > MERGE_LIMIT)
-            return null;
-
-        if (g1.getRank() > g2.getRank()) {
-            g1.addShapes(g2.getShapes());
-            return g1;
-        }
-        else {
-            g2.addShapes(g1.getShapes());
-            return g2;
-        }
-    }
-
-
-    /**
-     * @return Distance in meters between g1 and g2's closest nodes.
-     */
-    private static double minDistance(GeoObject g1, GeoObject g2) {
-        double min = Double.POSITIVE_INFINITY;
-        for (double[] n1 : g1.getNodes()) {
-            for (double[] n2 : g2.getNodes()) {
-                double d = LocaUtils.distance(n1, n2);
-                if (d < min) min = d;
-            }
-        }
-        return min;
-    }
-
-    /**
-     * @return Approximate distance in meters between g1 and g2.
-     */
-    private static double approximateDistance(GeoObject g1, GeoObject g2) {
-        double min = Double.POSITIVE_INFINITY;
-
-        double[] bs1 = g1.getBounds();
-        List<double[]> ns1 = new ArrayList<>();
-        ns1.add(new double[]{bs1[0], bs1[1]});
-        ns1.add(new double[]{bs1[0], bs1[3]});
-        ns1.add(new double[]{bs1[2], bs1[1]});
-        ns1.add(new double[]{bs1[2], bs1[3]});
-        ns1.add(g1.getCenter());
-
-        double[] bs2 = g2.getBounds();
-        List<double[]> ns2 = new ArrayList<>();
-        ns2.add(new double[]{bs2[0], bs2[1]});
-        ns2.add(new double[]{bs2[0], bs2[3]});
-        ns2.add(new double[]{bs2[2], bs2[1]});
-        ns2.add(new double[]{bs2[2], bs2[3]});
-        ns2.add(g2.getCenter());
-
-        for (double[] n1 : ns1) {
-            for (double[] n2 : ns2) {
-                double d = LocaUtils.distance(n1, n2);
-                if (d < min) min = d;
-            }
-        }
-        return min;
+    public static long dedupeHeapBudget() {
+        return (long)(DEDUPE_HEAP_FRACTION * Runtime.getRuntime().maxMemory());
     }
 
     //endregion
@@ -366,11 +339,18 @@ public class ExerciseControl {
      *
      * @param exerciseId Parent exercise.
      * @param db
+     * @param categories Categories of geo-objects' codes.
+     * @param progress Enters QUIZZES-stage, units: quiz-categories.
+     * @param token If cancelled: stops with WorkInterruptedException.
      */
-    private static void insertGeoObjectQuizzes(long exerciseId, AppDatabase db) {
+    private static void insertGeoObjectQuizzes(long exerciseId, AppDatabase db, CategoryDictionary categories, CreationProgress progress, CancellationToken token) throws LocaUtils.WorkInterruptedException {
+        progress.setStage(CreationProgress.Stage.QUIZZES, QuizCategory.TYPES.length);
+
         for (int quizCategoryType = 0; quizCategoryType < QuizCategory.TYPES.length; quizCategoryType++) {
-            String supercat = QuizCategory.TYPES[quizCategoryType];
-            List<Long> ids = db.geoDao().loadQuizlessIdsWithSupercatOrderdByRank(supercat);
+            token.throwIfCancelled();
+            progress.setDone(CreationProgress.Stage.QUIZZES, quizCategoryType);
+            List<Integer> codes = categories.codesOfQuizCategoryType(quizCategoryType);
+            List<Long> ids = db.geoDao().loadQuizlessIdsWithCategoryInOrderedByRank(codes);
 
             if (ids.size() == 0) continue;
 
@@ -479,6 +459,222 @@ public class ExerciseControl {
 
     //endregion
 
+    //region reclassify
+
+    /**
+     * Re-classify every exercise classified by another conversion-table than the app's
+     * (see reclassifyExercise). Stops while a quiz is running, and skips an exercise
+     * under construction: done at a later call. Run by CreateExerciseService, never
+     * during a creation. If any exercise re-classified, the tag-dictionary is compacted.
+     *
+     * @param context
+     * @return N.o re-classified exercises.
+     */
+    public static int reclassifyOutdatedExercises(Context context) {
+        AppDatabase db = AppDatabase.getInstance(context);
+        TagClassifier classifier = TagClassifier.getInstance(context);
+        TagDictionary dictionary = TagDictionary.getInstance(context);
+
+        int count = 0;
+        for (Exercise exercise : db.exerciseDao().loadAll()) {
+            if (classifier.getVersion().equals(exercise.getTagTableVersion())) continue;
+
+            int noChanged = reclassifyExercise(exercise.getId(), classifier, dictionary, db);
+            if (noChanged == QUIZ_RUNNING) return count;
+            if (noChanged == UNDER_CONSTRUCTION) continue;
+
+            Log.i("<ME>", "Re-classified " + exercise.getName() + ", changed geo-objects: " + noChanged);
+            count++;
+        }
+
+        if (count == 0) return 0;
+        try {
+            Log.i("<ME>", "Tags dropped from tag-dictionary: " +
+                    compactTagDictionary(classifier, dictionary, TileStore.getInstance(context), db));
+        }
+        catch (IOException e) {
+            Log.w("<ME>", "Tag-dictionary not compacted", e);
+        }
+        return count;
+    }
+
+    /**
+     * Drop kept tags without a key of the conversion-table from geo-objects, and tags no
+     * longer used from the tag-dictionary (see TagDictionary.compact). Skipped while a
+     * new exercise is created (its geo-objects in temp-db have codes).
+     *
+     * Stored tiles have codes too, of tags not in the main db: the tile-store is
+     * cleared if any tag is dropped (tiles are fetched again).
+     *
+     * @param classifier
+     * @param dictionary
+     * @param tiles Tile-store of geo-objects with codes of dictionary.
+     * @param db Main db.
+     * @return N.o dropped tags.
+     * @throws IOException If dictionary couldn't be written.
+     */
+    public static int compactTagDictionary(TagClassifier classifier, TagDictionary dictionary, TileStore tiles, AppDatabase db) throws IOException {
+        synchronized (dictionary) { // no tags encoded meanwhile
+            if (SessionControl.isLoadingNewExercise(db)) return 0;
+
+            Set<String> used = new LinkedHashSet<>();
+            List<GeoObjectDao.KeptTags> page;
+            long lastId = 0;
+            while (!(page = db.geoDao().loadKeptTagsWithIdAbove(lastId, TAGS_PAGE_SIZE)).isEmpty()) {
+                for (GeoObjectDao.KeptTags kept : page) used.addAll(classifier.relevant(dictionary.decode(kept.tags)));
+                lastId = page.get(page.size() - 1).id;
+            }
+            if (used.size() < dictionary.size()) tiles.clear();
+
+            return dictionary.compact(used, () -> db.runInTransaction(() -> {
+                List<GeoObjectDao.KeptTags> recoded;
+                long recodedId = 0;
+                while (!(recoded = db.geoDao().loadKeptTagsWithIdAbove(recodedId, TAGS_PAGE_SIZE)).isEmpty()) {
+                    for (GeoObjectDao.KeptTags kept : recoded) {
+                        try {
+                            db.geoDao().updateTags(kept.id, dictionary.encode(classifier.relevant(dictionary.decode(kept.tags))));
+                        }
+                        catch (IOException e) { // all tags known: none appended
+                            throw new RuntimeException(e);
+                        }
+                    }
+                    recodedId = recoded.get(recoded.size() - 1).id;
+                }
+            }));
+        }
+    }
+
+    /**
+     * Re-classify geo-objects of exercise from their kept tags, without re-download.
+     * Quiz-categories whose geo-objects changed are re-grouped into levels, others are
+     * untouched. Geo-objects keep their ids and answer-statistics, and a re-grouped level
+     * is passed if all its geo-objects were in passed levels.
+     *
+     * Geo-objects without kept tags, or not matched by the table, keep their category.
+     * Elements only matched by the new table are not in the exercise (never downloaded).
+     *
+     * Not done while a quiz is running (questions refer to quizzes through their
+     * geo-objects), or if exercise is under construction: checked in the transaction.
+     *
+     * @param exerciseId
+     * @param classifier Conversion-table to classify by.
+     * @param dictionary Of kept tags.
+     * @param db
+     * @return N.o geo-objects with changed category, or QUIZ_RUNNING/ UNDER_CONSTRUCTION
+     * if not done.
+     */
+    public static int reclassifyExercise(long exerciseId, TagClassifier classifier, TagDictionary dictionary, AppDatabase db) {
+        CategoryDictionary categories = classifier.getCategories();
+        return db.runInTransaction(() -> {
+            if (db.runningQuizDao().loadOne() != null) return QUIZ_RUNNING;
+            if (SessionControl.isUnderConstruction(exerciseId, db)) return UNDER_CONSTRUCTION;
+
+            Map<Integer, QuizCategory> quizCategories = new HashMap<>();
+            Map<Integer, List<Quiz>> quizzes = new HashMap<>();
+            Set<Long> passedQuizIds = new HashSet<>();
+            List<GeoObject> geoObjects = new ArrayList<>();
+
+            for (QuizCategory quizCategory : db.quizCategoryDao().loadWithExercise(exerciseId)) {
+                List<Quiz> levels = db.quizDao().loadWithQuizCategoryOrderedByLevel(quizCategory.getId());
+                quizCategories.put(quizCategory.getType(), quizCategory);
+                quizzes.put(quizCategory.getType(), levels);
+
+                for (Quiz quiz : levels) {
+                    if (quiz.isPassed()) passedQuizIds.add(quiz.getId());
+                    geoObjects.addAll(db.geoDao().loadWithQuiz(quiz.getId()));
+                }
+            }
+
+            Set<GeoObject> changed = new HashSet<>();
+            Set<Integer> changedTypes = new HashSet<>();
+            Set<Long> passedGeoObjectIds = new HashSet<>();
+            for (GeoObject geoObject : geoObjects) {
+                if (passedQuizIds.contains(geoObject.getQuizId())) passedGeoObjectIds.add(geoObject.getId());
+
+                int type = categories.getQuizCategoryType(geoObject.getCategory());
+                if (!geoObject.reclassify(classifier, dictionary)) continue;
+
+                changed.add(geoObject);
+                int newType = categories.getQuizCategoryType(geoObject.getCategory());
+                if (newType != type) {
+                    changedTypes.add(type);
+                    changedTypes.add(newType);
+                }
+            }
+
+            int noReclassified = changed.size();
+            for (int type : changedTypes) {
+                if (type == -1) continue;
+
+                List<GeoObject> members = new ArrayList<>();
+                for (GeoObject geoObject : geoObjects) {
+                    if (categories.getQuizCategoryType(geoObject.getCategory()) == type) members.add(geoObject);
+                }
+                List<Quiz> oldLevels = quizzes.containsKey(type) ? quizzes.get(type) : new ArrayList<>();
+                regroupLevels(exerciseId, type, quizCategories.get(type), oldLevels, members, passedGeoObjectIds, db);
+                changed.addAll(members);
+            }
+
+            db.geoDao().update(new ArrayList<>(changed));
+
+            Exercise exercise = db.exerciseDao().load(exerciseId);
+            exercise.setTagTableVersion(classifier.getVersion());
+            db.exerciseDao().update(exercise);
+            return noReclassified;
+        });
+    }
+
+    /**
+     * Group geo-objects of a quiz-category into levels (by rank, as at creation), reusing
+     * existing level-quizzes. Sets quiz-ids of geo-objects (not updated in db).
+     *
+     * @param quizCategory NULL if none yet. Deleted if no members.
+     * @param oldLevels Level-quizzes of quiz-category, ordered by level.
+     * @param members Geo-objects of quiz-category.
+     * @param passedGeoObjectIds Geo-objects in passed levels, before.
+     */
+    private static void regroupLevels(long exerciseId, int type, QuizCategory quizCategory, List<Quiz> oldLevels, List<GeoObject> members, Set<Long> passedGeoObjectIds, AppDatabase db) {
+        if (members.size() == 0) {
+            for (Quiz quiz : oldLevels) db.quizDao().delete(quiz);
+            if (quizCategory != null) db.quizCategoryDao().delete(quizCategory);
+            return;
+        }
+        long quizCategoryId = quizCategory != null ?
+                quizCategory.getId() :
+                db.quizCategoryDao().insert(new QuizCategory(exerciseId, type));
+
+        Collections.sort(members, (a, b) -> Double.compare(b.getRank(), a.getRank()));
+        Map<Long, GeoObject> byId = new HashMap<>();
+        List<Long> ids = new ArrayList<>();
+        for (GeoObject geoObject : members) {
+            byId.put(geoObject.getId(), geoObject);
+            ids.add(geoObject.getId());
+        }
+
+        List<List<Long>> levelGroups = groupEquallySizedLevels(ids);
+        for (int level = 0; level < levelGroups.size(); level++) {
+            boolean passed = passedGeoObjectIds.containsAll(levelGroups.get(level));
+            Quiz quiz;
+            if (level < oldLevels.size()) {
+                quiz = oldLevels.get(level);
+                quiz.setPassed(passed);
+                db.quizDao().update(quiz);
+            }
+            else {
+                quiz = new Quiz(quizCategoryId, level);
+                quiz.setPassed(passed);
+                quiz.setId(db.quizDao().insert(quiz));
+            }
+
+            for (long id : levelGroups.get(level)) byId.get(id).setQuizId(quiz.getId());
+        }
+
+        for (int level = levelGroups.size(); level < oldLevels.size(); level++)
+            db.quizDao().delete(oldLevels.get(level));
+    }
+
+    //endregion
+
     //region delete
 
     /**
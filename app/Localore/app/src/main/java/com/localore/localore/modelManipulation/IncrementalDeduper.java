@@ -0,0 +1,612 @@
+package com.localore.localore.modelManipulation;
+
+import android.util.Log;
+
+import com.localore.localore.LocaUtils;
+import com.localore.localore.model.AppDatabase;
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.GeoObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Dedupe of raw geo-objects while they are acquired (see ExerciseControl.acquireGeoObjects),
+ * so little is left to do when acquisition ends. Same result as BatchDeduper, in any
+ * read-order:
+ *
+ * - Src is followed on a thread of its own: rows are read (by id) as the acquisition
+ *   commits them. Ids grow with commits: the acquisition has one writer.
+ * - A new geo-object is joined with those of its name within MERGE_LIMIT (union-find, in
+ *   big groups through a grid), as by BatchDeduper. Of a committed geo-object only its id
+ *   and merge-points are held.
+ * - A set not changed while settleRows more rows were read is merged and committed to
+ *   dest. If a later geo-object joins it anyway (e.g a long road reaching into a part
+ *   read later), its row is replaced by one of the grown set.
+ * - When acquisition has ended (see finish), variants of names are joined (see
+ *   setMinNameSimilarity), and sets not yet committed are.
+ *
+ * Over heap-budget it gives up: its rows are deleted, and dedupe is left to BatchDeduper.
+ *
+ * Not thread-safe: start, end, stop and finish are called by one thread.
+ */
+public class IncrementalDeduper {
+
+    /**
+     * Max n.o geo-objects read from src, or committed to dest, in one query.
+     */
+    private static final int PAGE_SIZE = 1000;
+
+    /**
+     * Ms between reads of src when all read.
+     */
+    private static final long POLL_TIME = 100;
+
+    /**
+     * Default of settleRows, see setSettleRows.
+     */
+    private static final long SETTLE_ROWS = 1000;
+
+    /**
+     * Heap-size estimate of a held geo-object: id, merge-points, set and grid-entries.
+     * Not committed: also the geo-object (see BatchDeduper.estimateSize).
+     */
+    private static final long PIECE_BYTES = 400;
+
+    /**
+     * Degrees of latitude a grid is made for beyond its geo-objects' (see Grid).
+     */
+    private static final double GRID_LAT_MARGIN = 1;
+
+    /**
+     * A held geo-object. The root of a set also holds the set.
+     */
+    private static class Piece {
+        final long id;
+        final double[][] points;
+        Piece parent = this;
+
+        /**
+         * Geo-object while not committed, else NULL (loaded from src when set replaced).
+         */
+        GeoObject geoObject;
+
+        /**
+         * Of root: Pieces of set, its row in dest (-1 if not committed), and n.o rows read
+         * when it last changed.
+         */
+        List<Piece> members;
+        long row = -1;
+        long changed;
+
+        /**
+         * Last piece this was found near (see Grid.near): a pair is compared once.
+         */
+        Piece seenBy = null;
+
+        Piece(GeoObject go, long changed) {
+            this.id = go.getId();
+            this.points = BatchDeduper.mergePoints(go);
+            this.geoObject = go;
+            this.members = new ArrayList<>(1);
+            this.members.add(this);
+            this.changed = changed;
+        }
+    }
+
+    /**
+     * Pieces of a name.
+     */
+    private static class Group {
+        final List<Piece> pieces = new ArrayList<>(1);
+
+        /**
+         * If at least GRID_MIN_GROUP_SIZE pieces, else NULL.
+         */
+        Grid grid = null;
+
+        /**
+         * @return Pieces that may be within MERGE_LIMIT of piece.
+         */
+        List<Piece> near(Piece piece) {
+            if (grid == null) return pieces;
+
+            if (!grid.covers(piece)) {
+                grid = new Grid(Math.max(grid.maxLat, maxLat(piece)) + GRID_LAT_MARGIN);
+                for (Piece p : pieces) grid.add(p);
+            }
+            return grid.near(piece);
+        }
+
+        void add(Piece piece) {
+            pieces.add(piece);
+            if (grid != null) {
+                grid.add(piece);
+            }
+            else if (pieces.size() >= BatchDeduper.GRID_MIN_GROUP_SIZE) {
+                double maxLat = 0;
+                for (Piece p : pieces) maxLat = Math.max(maxLat, maxLat(p));
+                grid = new Grid(maxLat + GRID_LAT_MARGIN);
+                for (Piece p : pieces) grid.add(p);
+            }
+        }
+    }
+
+    /**
+     * Points of pieces in cells at least MERGE_LIMIT wide, up to latitude maxLat (see
+     * BatchDeduper.joinByGrid). A piece beyond needs a new grid.
+     */
+    private static class Grid {
+        final double maxLat;
+        final double cellLon;
+        final Map<Long, List<Piece>> cells = new HashMap<>();
+
+        Grid(double maxLat) {
+            this.maxLat = maxLat;
+            this.cellLon = BatchDeduper.cellLon(maxLat);
+        }
+
+        boolean covers(Piece piece) {
+            return maxLat(piece) <= maxLat;
+        }
+
+        void add(Piece piece) {
+            for (double[] p : piece.points) {
+                long cell = BatchDeduper.cell(x(p), y(p));
+                List<Piece> members = cells.get(cell);
+                if (members == null) {
+                    members = new ArrayList<>(2);
+                    cells.put(cell, members);
+                }
+                if (members.isEmpty() || members.get(members.size() - 1) != piece) members.add(piece);
+            }
+        }
+
+        /**
+         * @return Pieces with a point in a neighbouring cell of a point of piece, once each.
+         */
+        List<Piece> near(Piece piece) {
+            List<Piece> near = new ArrayList<>();
+            for (double[] p : piece.points) {
+                for (long dx = -1; dx <= 1; dx++) {
+                    for (long dy = -1; dy <= 1; dy++) {
+                        List<Piece> members = cells.get(BatchDeduper.cell(x(p) + dx, y(p) + dy));
+                        if (members == null) continue;
+
+                        for (Piece other : members) {
+                            if (other.seenBy == piece) continue;
+                            other.seenBy = piece;
+                            near.add(other);
+                        }
+                    }
+                }
+            }
+            return near;
+        }
+
+        long x(double[] p) {
+            return (long)Math.floor(p[0] / cellLon);
+        }
+
+        long y(double[] p) {
+            return (long)Math.floor(p[1] / BatchDeduper.CELL_LAT);
+        }
+    }
+
+    private final AppDatabase src;
+    private final AppDatabase dest;
+    private final CancellationToken token;
+
+    private long heapBudget = Long.MAX_VALUE;
+    private double minNameSimilarity = 0;
+    private long settleRows = SETTLE_ROWS;
+
+    /**
+     * Folded name -> its pieces.
+     */
+    private final Map<String, Group> groups = new HashMap<>();
+
+    /**
+     * Roots of sets not committed, in order of last change.
+     */
+    private final Set<Piece> uncommitted = new LinkedHashSet<>();
+
+    /**
+     * Rows of dest replaced by a grown set: deleted at next commit.
+     */
+    private final List<Long> replaced = new ArrayList<>();
+
+    private long rowsRead = 0;
+    private long lastId = -1;
+    private long heldBytes = 0;
+    private long committed = 0;
+    private long noReplaced = 0;
+    private boolean gaveUp = false;
+
+    private ExecutorService executor;
+    private Future<Void> following;
+    private volatile boolean ended = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param src Where raw geo-objects are inserted by the acquisition.
+     * @param dest Where deduped geo-objects are inserted.
+     * @param token If cancelled: stops with WorkInterruptedException.
+     */
+    public IncrementalDeduper(AppDatabase src, AppDatabase dest, CancellationToken token) {
+        this.src = src;
+        this.dest = dest;
+        this.token = token;
+    }
+
+    /**
+     * Bounded memory: when the geo-objects held exceed heapBudget (estimated), dedupe
+     * gives up (see finish). Default: no budget.
+     *
+     * Name-grouping (see setMinNameSimilarity) is done as by BatchDeduper with the same
+     * budget.
+     *
+     * @param heapBudget Bytes.
+     */
+    public void setHeapBudget(long heapBudget) {
+        this.heapBudget = heapBudget;
+    }
+
+    /**
+     * Also group variants of a name, see BatchDeduper.setMinNameSimilarity. Done when
+     * acquisition has ended: all names are needed.
+     *
+     * @param minNameSimilarity Names with at least this similarity are grouped, (0, 1].
+     */
+    public void setMinNameSimilarity(double minNameSimilarity) {
+        this.minNameSimilarity = minNameSimilarity;
+    }
+
+    /**
+     * Only affects how early sets are committed, not the result: lower commits more while
+     * acquiring, but replaces more rows. Default SETTLE_ROWS.
+     *
+     * @param settleRows A set is committed when this many rows were read since it changed.
+     */
+    public void setSettleRows(long settleRows) {
+        this.settleRows = settleRows;
+    }
+
+    //region following
+
+    /**
+     * Start following src, on a thread of its own.
+     */
+    public void start() {
+        executor = Executors.newSingleThreadExecutor();
+        following = executor.submit(this::follow);
+    }
+
+    /**
+     * Acquisition has ended: read the rest of src. Returns when all read.
+     */
+    public void end() throws LocaUtils.WorkInterruptedException {
+        ended = true;
+        try {
+            following.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof LocaUtils.WorkInterruptedException) throw (LocaUtils.WorkInterruptedException)cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new RuntimeException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LocaUtils.WorkInterruptedException();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Acquisition failed: stop following. Returns when stopped. Rows committed are left
+     * in dest (they have quizId -1, see ExerciseControl.wipeConstructionJunk).
+     */
+    public void stop() {
+        stopped = true;
+        try {
+            following.get();
+        }
+        catch (ExecutionException e) {
+            Log.w("<ME>", "Dedupe stopped: " + e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Read rows of src as they are committed, commit settled sets. Until ended and all
+     * read, stopped, or over heap-budget.
+     */
+    private Void follow() throws LocaUtils.WorkInterruptedException {
+        try {
+            while (!stopped) {
+                boolean last = ended;
+                List<GeoObject> page = src.geoDao().loadWithIdAbove(lastId, PAGE_SIZE);
+                if (page.isEmpty()) {
+                    if (last) return null;
+                    Thread.sleep(POLL_TIME);
+                    continue;
+                }
+
+                token.throwIfCancelled();
+                for (GeoObject go : page) add(go);
+                lastId = page.get(page.size() - 1).getId();
+
+                if (heldBytes > heapBudget) {
+                    giveUp();
+                    return null;
+                }
+                commitSettled();
+            }
+            return null;
+        }
+        catch (InterruptedException e) {
+            throw new LocaUtils.WorkInterruptedException();
+        }
+    }
+
+    /**
+     * Join geo-object with those within MERGE_LIMIT in its group.
+     */
+    private void add(GeoObject go) {
+        rowsRead++;
+        Piece piece = new Piece(go, rowsRead);
+        uncommitted.add(piece);
+        heldBytes += PIECE_BYTES + BatchDeduper.estimateSize(go);
+
+        String name = BatchDeduper.fold(go.getName());
+        Group group = groups.get(name);
+        if (group == null) {
+            group = new Group();
+            groups.put(name, group);
+        }
+        join(group, piece);
+    }
+
+    private void join(Group group, Piece piece) {
+        for (Piece other : group.near(piece)) {
+            if (find(other) != find(piece) && BatchDeduper.isWithinMergeLimit(piece.points, other.points))
+                union(piece, other);
+        }
+        group.add(piece);
+    }
+
+    /**
+     * @return Root of piece's set. Path is halved on the way.
+     */
+    private static Piece find(Piece piece) {
+        while (piece.parent != piece) {
+            piece.parent = piece.parent.parent;
+            piece = piece.parent;
+        }
+        return piece;
+    }
+
+    /**
+     * Join sets of p1 and p2. A committed set's row is to be replaced.
+     */
+    private void union(Piece p1, Piece p2) {
+        Piece root = find(p1);
+        Piece other = find(p2);
+        if (root.members.size() < other.members.size()) {
+            Piece swap = root;
+            root = other;
+            other = swap;
+        }
+
+        other.parent = root;
+        root.members.addAll(other.members);
+        other.members = null;
+        uncommitted.remove(other);
+        uncommit(other);
+
+        uncommit(root);
+        root.changed = rowsRead;
+        uncommitted.remove(root);
+        uncommitted.add(root);
+    }
+
+    private void uncommit(Piece root) {
+        if (root.row == -1) return;
+        replaced.add(root.row);
+        root.row = -1;
+        noReplaced++;
+    }
+
+    /**
+     * Commit sets not changed while settleRows rows were read.
+     */
+    private void commitSettled() {
+        List<Piece> settled = new ArrayList<>();
+        for (Piece root : uncommitted) {
+            if (rowsRead - root.changed < settleRows) break;
+            settled.add(root);
+        }
+        commit(settled);
+    }
+
+    /**
+     * Merge sets, insert into dest (and delete rows replaced), PAGE_SIZE geo-objects at
+     * a time.
+     *
+     * @param roots Of uncommitted sets.
+     */
+    private void commit(List<Piece> roots) {
+        int from = 0;
+        while (from < roots.size()) {
+            int to = from;
+            int size = 0;
+            while (to < roots.size() && (to == from || size + roots.get(to).members.size() <= PAGE_SIZE))
+                size += roots.get(to++).members.size();
+
+            commitPage(roots.subList(from, to));
+            from = to;
+        }
+    }
+
+    private void commitPage(List<Piece> roots) {
+        List<Long> unheld = new ArrayList<>();
+        for (Piece root : roots) {
+            for (Piece piece : root.members) {
+                if (piece.geoObject == null) unheld.add(piece.id);
+            }
+        }
+        Map<Long, GeoObject> loaded = new HashMap<>();
+        for (GeoObject go : src.geoDao().loadWithIdIn(unheld)) loaded.put(go.getId(), go);
+
+        List<GeoObject> merged = new ArrayList<>(roots.size());
+        for (Piece root : roots) {
+            List<GeoObject> set = new ArrayList<>(root.members.size());
+            for (Piece piece : root.members) {
+                if (piece.geoObject != null) {
+                    set.add(piece.geoObject);
+                    heldBytes -= BatchDeduper.estimateSize(piece.geoObject);
+                    piece.geoObject = null;
+                }
+                else {
+                    set.add(loaded.get(piece.id));
+                }
+            }
+            Collections.sort(set, BatchDeduper.BY_OSM_ID);
+            merged.add(BatchDeduper.merge(set));
+        }
+
+        if (!replaced.isEmpty()) {
+            dest.geoDao().deleteWithIdIn(replaced);
+            replaced.clear();
+        }
+        List<Long> rows = dest.geoDao().insert(merged);
+        for (int i = 0; i < roots.size(); i++) {
+            roots.get(i).row = rows.get(i);
+            uncommitted.remove(roots.get(i));
+        }
+        committed += roots.size();
+    }
+
+    /**
+     * Over heap-budget: delete rows committed, let go of all held.
+     */
+    private void giveUp() {
+        for (Group group : groups.values()) {
+            for (Piece piece : group.pieces) {
+                if (piece.row != -1) replaced.add(piece.row);
+            }
+        }
+        dest.geoDao().deleteWithIdIn(replaced);
+        replaced.clear();
+        groups.clear();
+        uncommitted.clear();
+        gaveUp = true;
+        Log.w("<ME>", String.format("Dedupe while acquiring given up at %d geo-objects: ~%d MB over heap-budget",
+                rowsRead, heldBytes / (1 << 20)));
+    }
+
+    //endregion
+
+    /**
+     * Join variants of names, commit sets not committed.
+     *
+     * @param progress Enters DEDUPE-stage, units: geo-objects of sets not committed.
+     * @pre Ended (see end).
+     * @return IDs of all geo-objects in dest deduped from src, NULL if given up (dest
+     * then as before).
+     */
+    public List<Long> finish(CreationProgress progress) throws LocaUtils.WorkInterruptedException {
+        if (gaveUp) return null;
+
+        long start = System.currentTimeMillis();
+        if (minNameSimilarity > 0) joinVariants();
+
+        List<Piece> roots = new ArrayList<>(uncommitted);
+        int total = 0;
+        for (Piece root : roots) total += root.members.size();
+        progress.setStage(CreationProgress.Stage.DEDUPE, total);
+
+        int done = 0;
+        for (int i = 0; i < roots.size(); i += PAGE_SIZE) {
+            token.throwIfCancelled();
+            List<Piece> page = roots.subList(i, Math.min(roots.size(), i + PAGE_SIZE));
+            commit(page);
+            for (Piece root : page) done += root.members.size();
+            progress.setDone(CreationProgress.Stage.DEDUPE, done);
+        }
+        if (!replaced.isEmpty()) {
+            dest.geoDao().deleteWithIdIn(replaced);
+            replaced.clear();
+        }
+
+        List<Long> rows = new ArrayList<>();
+        for (Group group : groups.values()) {
+            for (Piece piece : group.pieces) {
+                if (piece.parent == piece) rows.add(piece.row);
+            }
+        }
+        Log.i("<ME>", String.format("Deduped %d geo-objects into %d while acquiring, %d left for the end (%d ms), %s",
+                rowsRead, rows.size(), total, System.currentTimeMillis() - start, this));
+        return rows;
+    }
+
+    /**
+     * Groups of variants of a name into one (see BatchDeduper.groupSimilarNames).
+     */
+    private void joinVariants() {
+        Map<String, String> nameGroups = BatchDeduper.groupSimilarNames(groups.keySet(), minNameSimilarity, heapBudget);
+        if (nameGroups == null) return;
+
+        for (Map.Entry<String, String> nameGroup : nameGroups.entrySet()) {
+            Group variant = groups.remove(nameGroup.getKey());
+            Group group = groups.get(nameGroup.getValue());
+            for (Piece piece : variant.pieces) join(group, piece);
+        }
+    }
+
+    /**
+     * @return Sets committed (also replaced ones).
+     */
+    public long getCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return Committed sets replaced by a grown set.
+     */
+    public long getReplaced() {
+        return noReplaced;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("committed %d sets, %d replaced", committed, noReplaced);
+    }
+
+    /**
+     * @return Max absolute latitude of piece's points.
+     */
+    private static double maxLat(Piece piece) {
+        double maxLat = 0;
+        for (double[] p : piece.points) maxLat = Math.max(maxLat, Math.abs(p[1]));
+        return maxLat;
+    }
+}
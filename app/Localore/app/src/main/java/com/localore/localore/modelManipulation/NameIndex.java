@@ -0,0 +1,215 @@
+package com.localore.localore.modelManipulation;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Index of names for finding variants of a name ("Uppsala C", "Uppsala Central"),
+ * used by dedupe (see BatchDeduper).
+ *
+ * Names are normalized (see normalize) and split into trigrams. Similarity is the
+ * Dice-coefficient of the trigram-sets, but 0 if the names are not variants: same
+ * words, except that a word after the first may be abbreviated ("Uppsala C", "Uppsala
+ * Central"), and same numbers ("Bus stop 1", "Bus stop 2", "Hus II"). A longer prefix
+ * is not an abbreviation: "Karin Boye", "Karin Boyegatan" are different places.
+ * Lookup only visits names with the rarest trigram of the name's first word (which all
+ * its variants have): not all names.
+ */
+public class NameIndex {
+
+    /**
+     * Max length of an abbreviated word.
+     */
+    private static final int MAX_ABBREVIATION_LENGTH = 3;
+
+    private final double minSimilarity;
+
+    /**
+     * Per name: trigram-codes, sorted.
+     */
+    private final int[][] trigrams;
+
+    /**
+     * Per name: rarest trigram-code of first word, -1 if none. Looked up by.
+     */
+    private final int[] anchors;
+    private final String[][] words;
+
+    /**
+     * Trigram-code -> names containing it.
+     */
+    private final List<List<Integer>> postings = new ArrayList<>();
+
+
+    /**
+     * @param names
+     * @param minSimilarity Names are similar from this similarity, (0, 1].
+     */
+    public NameIndex(List<String> names, double minSimilarity) {
+        this.minSimilarity = minSimilarity;
+        int n = names.size();
+        trigrams = new int[n][];
+        anchors = new int[n];
+        words = new String[n][];
+
+        Map<String, Integer> codes = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            String name = normalize(names.get(i));
+            words[i] = name.isEmpty() ? new String[0] : name.split(" ");
+            trigrams[i] = trigrams(name, codes);
+            for (int code : trigrams[i]) postings.get(code).add(i);
+        }
+
+        for (int i = 0; i < n; i++) {
+            anchors[i] = -1;
+            if (words[i].length == 0) continue;
+
+            // trigrams of "  " + first word
+            String padded = "  " + words[i][0];
+            for (int k = 0; k + 3 <= padded.length(); k++) {
+                int code = codes.get(padded.substring(k, k + 3));
+                if (anchors[i] == -1 || postings.get(code).size() < postings.get(anchors[i]).size())
+                    anchors[i] = code;
+            }
+        }
+    }
+
+    /**
+     * @return N.o names.
+     */
+    public int size() {
+        return trigrams.length;
+    }
+
+    /**
+     * @param i Index of name (in names of constructor).
+     * @return Indices of other names with similarity to name i at least minSimilarity.
+     */
+    public List<Integer> similarTo(int i) {
+        List<Integer> similar = new ArrayList<>();
+        if (anchors[i] == -1) return similar;
+
+        // shortest/longest n.o trigrams that may reach minSimilarity
+        int q = trigrams[i].length;
+        double t = minSimilarity;
+        int minLength = (int)Math.ceil(t * q / (2 - t) - 1e-9);
+        int maxLength = (int)Math.floor(q * (2 - t) / t + 1e-9);
+
+        for (int j : postings.get(anchors[i])) {
+            int length = trigrams[j].length;
+            if (j != i && length >= minLength && length <= maxLength && similarity(i, j) >= minSimilarity)
+                similar.add(j);
+        }
+        return similar;
+    }
+
+    /**
+     * @return Similarity of names i and j, [0, 1].
+     */
+    public double similarity(int i, int j) {
+        if (!isVariant(words[i], words[j])) return 0;
+        int[] a = trigrams[i];
+        int[] b = trigrams[j];
+        if (a.length + b.length == 0) return 1;
+
+        int common = 0;
+        for (int x = 0, y = 0; x < a.length && y < b.length; ) {
+            if (a[x] == b[y]) {
+                common++;
+                x++;
+                y++;
+            }
+            else if (a[x] < b[y]) x++;
+            else y++;
+        }
+        return 2.0 * common / (a.length + b.length);
+    }
+
+    /**
+     * @return Distinct trigram-codes of name (padded: "  name "), sorted. New trigrams
+     * get codes.
+     */
+    private int[] trigrams(String name, Map<String, Integer> codes) {
+        if (name.isEmpty()) return new int[0];
+
+        String padded = "  " + name + " ";
+        int[] trigrams = new int[padded.length() - 2];
+        for (int k = 0; k < trigrams.length; k++) {
+            String trigram = padded.substring(k, k + 3);
+            Integer code = codes.get(trigram);
+            if (code == null) {
+                code = codes.size();
+                codes.put(trigram, code);
+                postings.add(new ArrayList<>());
+            }
+            trigrams[k] = code;
+        }
+        Arrays.sort(trigrams);
+
+        int distinct = 0;
+        for (int k = 0; k < trigrams.length; k++) {
+            if (k == 0 || trigrams[k] != trigrams[k - 1]) trigrams[distinct++] = trigrams[k];
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+    /**
+     * @return True if same n.o words, and all equal except words after the first that
+     * are an abbreviation of the other: a short prefix (not a number).
+     */
+    private static boolean isVariant(String[] a, String[] b) {
+        if (a.length != b.length) return false;
+
+        for (int k = 0; k < a.length; k++) {
+            if (a[k].equals(b[k])) continue;
+            if (k == 0 || isNumber(a[k]) || isNumber(b[k])) return false;
+            String shorter = a[k].length() < b[k].length() ? a[k] : b[k];
+            String longer = shorter == a[k] ? b[k] : a[k];
+            if (shorter.length() > MAX_ABBREVIATION_LENGTH || !longer.startsWith(shorter)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return True if word has a digit, or is a roman numeral.
+     */
+    private static boolean isNumber(String word) {
+        boolean roman = true;
+        for (int k = 0; k < word.length(); k++) {
+            char c = word.charAt(k);
+            if (Character.isDigit(c)) return true;
+            if (c != 'i' && c != 'v' && c != 'x') roman = false;
+        }
+        return roman;
+    }
+
+    /**
+     * @return Name lower-cased, diacritics stripped ("Ärna" -> "arna"), other than
+     * letters and digits -> single spaces.
+     */
+    public static String normalize(String name) {
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean space = false;
+
+        for (int k = 0; k < decomposed.length(); k++) {
+            char c = decomposed.charAt(k);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+
+            if (Character.isLetterOrDigit(c)) {
+                if (space && sb.length() > 0) sb.append(' ');
+                sb.append(c);
+                space = false;
+            }
+            else {
+                space = true;
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -121,5 +121,24 @@ public class SessionControl {
         db.sessionDao().update(session);
     }
 
+    /**
+     * @param db
+     * @return True if a new exercise is being created (or its service died, unnoticed).
+     */
+    public static boolean isLoadingNewExercise(AppDatabase db) {
+        return load(db).getLoadingExerciseStatus() == LoadingNewExerciseActivity.RUNNING;
+    }
+
+    /**
+     * @param exerciseId
+     * @param db
+     * @return True if exercise is the new exercise being created.
+     */
+    public static boolean isUnderConstruction(long exerciseId, AppDatabase db) {
+        Session session = load(db);
+        return session.getLoadingExerciseStatus() == LoadingNewExerciseActivity.RUNNING &&
+                session.getExerciseId() == exerciseId;
+    }
+
     //
 }
@@ -0,0 +1,135 @@
+package com.localore.localore.modelManipulation;
+
+import android.util.Log;
+
+import com.localore.localore.LocaUtils;
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.OverpassEndpoints;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Fetches tiles (or other parts of the data) concurrently, with bounded parallelism.
+ *
+ * - At most maxParallel tiles fetched at once (Overpass gives a client few slots).
+ * - A failed tile is retried (after a back-off), without affecting other tiles.
+ * - Rate-limit aware: when a tile is refused for lack of slots, parallelism is
+ *   decreased (down to 1) and the tile is retried after a longer back-off.
+ * - Cancellable: no retries after cancel, back-offs are cut short.
+ */
+public class TileFetchScheduler {
+
+    /**
+     * Fetch of one tile. Must be restartable: a retry starts from scratch.
+     */
+    public interface TileTask<T> {
+        void fetch(T tile) throws IOException, LocaUtils.WorkInterruptedException;
+    }
+
+    /**
+     * Back-off in ms before retry n (doubled each retry).
+     */
+    private static final long RETRY_DELAY = 2 * 1000;
+    private static final long RATE_LIMIT_DELAY = 10 * 1000;
+
+    private final int maxParallel;
+    private final int maxAttempts;
+    private final CancellationToken token;
+
+    /**
+     * Fetch-slots. Permits removed (not released) when rate limited.
+     */
+    private final Semaphore slots;
+    private int allowedParallel;
+
+    /**
+     * @param maxParallel Max number of tiles fetched at once.
+     * @param maxAttempts Max number of fetches of a tile before giving up.
+     * @param token Cancels fetching (WorkInterruptedException thrown).
+     */
+    public TileFetchScheduler(int maxParallel, int maxAttempts, CancellationToken token) {
+        this.maxParallel = maxParallel;
+        this.maxAttempts = maxAttempts;
+        this.token = token;
+        this.slots = new Semaphore(maxParallel);
+        this.allowedParallel = maxParallel;
+    }
+
+    /**
+     * Fetch all tiles. Returns when all done, or throws at first tile failing permanently
+     * (remaining tiles are then cancelled).
+     */
+    public <T> void fetchAll(List<T> tiles, TileTask<T> task) throws IOException, LocaUtils.WorkInterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxParallel, tiles.size())));
+        List<Future<Void>> futures = new ArrayList<>();
+
+        try {
+            for (T tile : tiles)
+                futures.add(executor.submit(() -> fetchWithRetries(tile, task)));
+
+            for (Future<Void> future : futures) future.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException)cause;
+            if (cause instanceof LocaUtils.WorkInterruptedException) throw (LocaUtils.WorkInterruptedException)cause;
+            throw new RuntimeException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LocaUtils.WorkInterruptedException();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetch tile in a slot, retry on failure.
+     */
+    private <T> Void fetchWithRetries(T tile, TileTask<T> task) throws IOException, LocaUtils.WorkInterruptedException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            long delay;
+            slots.acquire();
+            try {
+                token.throwIfCancelled();
+                task.fetch(tile);
+                return null;
+            }
+            catch (OverpassEndpoints.RateLimitException e) {
+                token.throwIfCancelled();
+                if (attempt >= maxAttempts) throw e;
+                decreaseParallelism();
+                delay = RATE_LIMIT_DELAY << (attempt - 1);
+            }
+            catch (IOException e) {
+                token.throwIfCancelled();
+                if (attempt >= maxAttempts) throw e;
+                delay = RETRY_DELAY << (attempt - 1);
+            }
+            finally {
+                slots.release();
+            }
+
+            Log.i("<ME>", "Retry tile " + tile + " in " + delay + "ms");
+            if (!token.sleep(delay)) throw new LocaUtils.WorkInterruptedException("Cancelled");
+        }
+    }
+
+    /**
+     * Remove one permit for good, unless only one left.
+     */
+    private synchronized void decreaseParallelism() {
+        if (allowedParallel > 1 && slots.tryAcquire()) {
+            allowedParallel--;
+            Log.i("<ME>", "Rate limited, parallel tile-fetches: " + allowedParallel);
+        }
+    }
+}
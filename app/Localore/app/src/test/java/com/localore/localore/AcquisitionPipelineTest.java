@@ -0,0 +1,241 @@
+package com.localore.localore;
+
+import com.google.gson.JsonParser;
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.CategoryDictionary;
+import com.localore.localore.model.GeoObjInstructionsIter;
+import com.localore.localore.model.GeoObject;
+import com.localore.localore.model.IngestSource;
+import com.localore.localore.model.RecordedIngestSource;
+import com.localore.localore.model.TagClassifier;
+import com.localore.localore.model.TagDictionary;
+import com.localore.localore.modelManipulation.AcquisitionPipeline;
+import com.localore.localore.modelManipulation.CreationProgress;
+import com.localore.localore.modelManipulation.TileFetchScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Staged acquisition from recorded responses: dedupe across parts, no storing of a
+ * response cut short, and all stages stopping at a failure or cancel.
+ */
+public class AcquisitionPipelineTest {
+
+    /**
+     * Records in a large recording: more than the queues between stages hold.
+     */
+    private static final int LARGE = 20000;
+
+    private TagClassifier classifier;
+    private TagDictionary dictionary;
+    private CancellationToken token;
+
+    @Before
+    public void setUp() throws IOException {
+        classifier = new TagClassifier(new JsonParser().parse(
+                "{'constructions': [['food', 'amenity=cafe']]}").getAsJsonObject(), new CategoryDictionary());
+        File file = File.createTempFile("tags", ".txt");
+        file.deleteOnExit();
+        dictionary = new TagDictionary(file);
+        token = new CancellationToken();
+    }
+
+    /**
+     * @return Response with cafés NODE/from .. NODE/(to-1).
+     */
+    private static String response(int from, int to) {
+        StringBuilder sb = new StringBuilder(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<osm version=\"0.6\" generator=\"Overpass API 0.7.55.3 9da5e7ae\">\n" +
+                "<meta osm_base=\"2018-06-12T10:58:02Z\" areas=\"2018-06-12T10:51:01Z\"/>\n");
+        for (int i = from; i < to; i++) {
+            sb.append("  <NODE id=\"").append(i).append("\">\n")
+                    .append("    <point lat=\"").append(59.8 + i * 1e-6).append("\" lon=\"17.6\"/>\n")
+                    .append("    <tag k=\"version\" v=\"2\"/>\n")
+                    .append("    <tag k=\"amenity\" v=\"cafe\"/>\n")
+                    .append("    <tag k=\"name\" v=\"Café ").append(i).append("\"/>\n")
+                    .append("  </NODE>\n");
+        }
+        return sb.append("</osm>\n").toString();
+    }
+
+    private static void write(File file, String response) throws IOException {
+        Files.write(file.toPath(), response.getBytes(StandardCharsets.UTF_8));
+        file.deleteOnExit();
+    }
+
+    private static List<IngestSource.Part> recording(int from, int to) throws IOException {
+        File file = File.createTempFile("response", ".xml");
+        write(file, response(from, to));
+        return new RecordedIngestSource(file).parts(null);
+    }
+
+    private AcquisitionPipeline pipeline(FakeDatabase tempDb) {
+        return new AcquisitionPipeline(classifier, dictionary, tempDb, 100, 50, new CreationProgress(null), token);
+    }
+
+    /**
+     * Part opened as another, after running an action.
+     */
+    private static IngestSource.Part onOpen(IngestSource.Part part, Runnable action) {
+        return t -> {
+            GeoObjInstructionsIter iter = part.open(t);
+            action.run();
+            return iter;
+        };
+    }
+
+    @Test(timeout = 20000)
+    public void run_overlappingPartsInsertedOnce() throws Exception {
+        File dir = Files.createTempDirectory("recording").toFile();
+        write(new File(dir, "a.xml"), response(0, 600));
+        write(new File(dir, "b.xml"), response(400, 1000));
+        List<IngestSource.Part> parts = new RecordedIngestSource(dir).parts(null);
+        assertEquals(2, parts.size());
+
+        FakeDatabase tempDb = new FakeDatabase();
+        AcquisitionPipeline pipeline = pipeline(tempDb);
+        pipeline.run(parts, new TileFetchScheduler(2, 1, token));
+
+        Set<String> osmIds = new HashSet<>();
+        for (GeoObject go : tempDb.geoDao().loadAll()) {
+            assertTrue("Inserted twice: " + go.getOsmId(), osmIds.add(go.getOsmId()));
+        }
+        assertEquals(1000, osmIds.size());
+        assertTrue(osmIds.contains("NODE/0"));
+        assertTrue(osmIds.contains("NODE/999"));
+        assertEquals(1200, pipeline.getReading().getItems());
+        assertEquals(1000, pipeline.getWriting().getItems());
+    }
+
+    @Test(timeout = 20000)
+    public void run_remarkedResponseNotStored() throws Exception {
+        File file = File.createTempFile("response", ".xml");
+        write(file, response(0, 300).replace("</osm>", "<remark> runtime error: Query timed out </remark>\n</osm>"));
+        IngestSource.Part recorded = new RecordedIngestSource(file).parts(null).get(0);
+        List<List<GeoObject>> stored = new ArrayList<>();
+        IngestSource.StoredPart part = new IngestSource.StoredPart() {
+            @Override
+            public GeoObjInstructionsIter open(CancellationToken t) throws IOException {
+                return recorded.open(t);
+            }
+
+            @Override
+            public List<GeoObject> load() {
+                return null;
+            }
+
+            @Override
+            public void store(List<GeoObject> built, long fetchTime) {
+                stored.add(built);
+            }
+
+            @Override
+            public boolean accepts(GeoObject go) {
+                return true;
+            }
+        };
+
+        try {
+            pipeline(new FakeDatabase()).run(Arrays.<IngestSource.Part>asList(part), new TileFetchScheduler(1, 2, token));
+            fail("Remarked response accepted");
+        }
+        catch (IOException e) {
+            // Cut short by Overpass.
+        }
+        assertTrue(stored.isEmpty());
+    }
+
+    @Test(timeout = 20000)
+    public void run_failingPartStopsOtherStages() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        IngestSource.Part large = onOpen(recording(0, LARGE).get(0), reading::countDown);
+        IngestSource.Part failing = t -> {
+            try {
+                reading.await();
+            }
+            catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            throw new IOException("Part failed");
+        };
+
+        FakeDatabase tempDb = new FakeDatabase();
+        AcquisitionPipeline pipeline = pipeline(tempDb);
+        try {
+            pipeline.run(Arrays.asList(failing, large), new TileFetchScheduler(2, 1, token));
+            fail("Failure of part not thrown");
+        }
+        catch (IOException e) {
+            assertEquals("Part failed", e.getMessage());
+        }
+        assertStopped(pipeline, tempDb);
+    }
+
+    @Test(timeout = 20000)
+    public void run_failingWriterStopsReaders() throws Exception {
+        FakeDatabase tempDb = new FakeDatabase() {
+            private final GeoObjects failing = new GeoObjects() {
+                @Override
+                public synchronized List<Long> insert(List<GeoObject> gos) {
+                    throw new IllegalStateException("Disk full");
+                }
+            };
+
+            @Override
+            public GeoObjects geoDao() {
+                return failing;
+            }
+        };
+        AcquisitionPipeline pipeline = pipeline(tempDb);
+        try {
+            pipeline.run(recording(0, LARGE), new TileFetchScheduler(2, 1, token));
+            fail("Failure of writer not thrown");
+        }
+        catch (IllegalStateException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+        assertTrue(pipeline.getReading().getItems() < LARGE);
+    }
+
+    @Test(timeout = 20000)
+    public void run_cancelStopsAllStages() throws Exception {
+        List<IngestSource.Part> parts = new ArrayList<>();
+        parts.add(onOpen(recording(0, LARGE).get(0), token::cancel));
+
+        FakeDatabase tempDb = new FakeDatabase();
+        AcquisitionPipeline pipeline = pipeline(tempDb);
+        try {
+            pipeline.run(parts, new TileFetchScheduler(2, 1, token));
+            fail("Cancel not thrown");
+        }
+        catch (LocaUtils.WorkInterruptedException e) {
+            // Cancelled.
+        }
+        assertStopped(pipeline, tempDb);
+    }
+
+    /**
+     * Asserts that the pipeline stopped before all was read, and inserts nothing more.
+     */
+    private static void assertStopped(AcquisitionPipeline pipeline, FakeDatabase tempDb) throws InterruptedException {
+        assertTrue(pipeline.getReading().getItems() < LARGE);
+        int inserted = tempDb.geoDao().count();
+        Thread.sleep(300);
+        assertEquals(inserted, tempDb.geoDao().count());
+    }
+}
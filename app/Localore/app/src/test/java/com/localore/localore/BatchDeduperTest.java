@@ -0,0 +1,158 @@
+package com.localore.localore;
+
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.GeoObject;
+import com.localore.localore.model.NodeShape;
+import com.localore.localore.modelManipulation.BatchDeduper;
+import com.localore.localore.modelManipulation.CreationProgress;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Merge of same-named geo-objects by proximity, held or spilled to runs.
+ */
+public class BatchDeduperTest {
+
+    private static GeoObject geoObject(String osmId, double lat, double rank) {
+        GeoObject go = new GeoObject();
+        go.setOsmId(osmId);
+        go.setName("Kungsgatan");
+        go.setRank(rank);
+        go.setShapes(new ArrayList<>(Collections.singletonList(new NodeShape(Arrays.asList(
+                new double[]{17.64, lat}, new double[]{17.64, lat + 0.0001})))));
+        return go;
+    }
+
+    @Test
+    public void mergeGroup_chainIntoHighestRank() {
+        GeoObject a = geoObject("way/1", 59.850, 1);
+        GeoObject c = geoObject("way/3", 59.853, 2);
+        GeoObject far = geoObject("way/4", 59.870, 5);
+        GeoObject b = geoObject("way/2", 59.8515, 3);
+
+        List<GeoObject> merged = BatchDeduper.mergeGroup(Arrays.asList(a, c, far, b));
+
+        assertEquals(2, merged.size());
+        assertSame(b, merged.get(0));
+        assertEquals(3, b.getShapes().size());
+        assertSame(far, merged.get(1));
+        assertEquals(1, far.getShapes().size());
+    }
+
+    /**
+     * @return n bus-stops in a row, spacing meters apart, east-west or north-south.
+     */
+    private static List<GeoObject> row(int n, double spacing, boolean eastWest) {
+        double lat = 59.85;
+        double degrees = Math.toDegrees(spacing / 6371000);
+        if (eastWest) degrees /= Math.cos(Math.toRadians(lat));
+
+        List<GeoObject> gos = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            GeoObject go = new GeoObject();
+            go.setOsmId("node/" + i);
+            go.setName("Bus stop");
+            double[] node = eastWest ? new double[]{17.64 + i * degrees, lat} : new double[]{17.64, lat + i * degrees};
+            go.setShapes(new ArrayList<>(Collections.singletonList(new NodeShape(Collections.singletonList(node)))));
+            gos.add(go);
+        }
+        Collections.shuffle(gos, new Random(1));
+        return gos;
+    }
+
+    @Test
+    public void mergeGroup_bigGroupByGrid() {
+        assertEquals(1, BatchDeduper.mergeGroup(row(500, 190, true)).size());
+        assertEquals(1, BatchDeduper.mergeGroup(row(500, 190, false)).size());
+        assertEquals(500, BatchDeduper.mergeGroup(row(500, 210, true)).size());
+        assertEquals(500, BatchDeduper.mergeGroup(row(500, 210, false)).size());
+    }
+
+    @Test
+    public void mergeGroup_independentOfOrder() {
+        List<String> survivors = new ArrayList<>();
+        List<Double> firstShapes = new ArrayList<>();
+        for (int seed = 0; seed < 3; seed++) {
+            List<GeoObject> group = Arrays.asList(
+                    geoObject("way/1", 59.850, 1), geoObject("way/2", 59.851, 1), geoObject("way/3", 59.852, 1));
+            Collections.shuffle(group, new Random(seed));
+
+            List<GeoObject> merged = BatchDeduper.mergeGroup(group);
+            assertEquals(1, merged.size());
+            survivors.add(merged.get(0).getOsmId());
+            firstShapes.add(merged.get(0).getShapes().get(1).getNodes().get(0)[1]);
+        }
+        assertEquals(Arrays.asList("way/1", "way/1", "way/1"), survivors);
+        assertEquals(Arrays.asList(59.851, 59.851, 59.851), firstShapes);
+    }
+
+    @Test
+    public void mergeGroup_singleUnchanged() {
+        GeoObject a = geoObject("way/1", 59.850, 1);
+        assertEquals(Collections.singletonList(a), BatchDeduper.mergeGroup(Collections.singletonList(a)));
+    }
+
+    /**
+     * @return Raw geo-objects of a few names (some variants), close and far apart.
+     */
+    private static FakeDatabase rawGeoObjects(int n) {
+        String[] names = {"Kungsgatan", "KUNGSGATAN", "Uppsala C", "Uppsala Central", "Bus stop", "Fyrisån"};
+        Random random = new Random(3);
+        FakeDatabase src = new FakeDatabase();
+        for (int i = 0; i < n; i++) {
+            double lon = 17.60 + random.nextInt(40) * 0.002;
+            double lat = 59.84 + random.nextInt(40) * 0.001;
+            GeoObject go = new GeoObject();
+            go.setOsmId("way/" + i);
+            go.setName(names[random.nextInt(names.length)]);
+            go.setRank(random.nextInt(5));
+            go.setShapes(new ArrayList<>(Collections.singletonList(new NodeShape(Arrays.asList(
+                    new double[]{lon, lat}, new double[]{lon, lat + 0.0002})))));
+            src.geoDao().insert(go);
+        }
+        return src;
+    }
+
+    /**
+     * @return "osm-id name n.o-shapes", sorted.
+     */
+    private static List<String> describe(List<GeoObject> gos) {
+        List<String> descriptions = new ArrayList<>();
+        for (GeoObject go : gos) descriptions.add(go.getOsmId() + " " + go.getName() + " " + go.getShapes().size());
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+
+    @Test
+    public void run_spilledSameAsHeld() throws Exception {
+        FakeDatabase src = rawGeoObjects(600);
+
+        FakeDatabase held = new FakeDatabase();
+        BatchDeduper inMemory = new BatchDeduper(src, held, 100, new CreationProgress(null), new CancellationToken());
+        inMemory.setMinNameSimilarity(0.5);
+        inMemory.run();
+
+        // ~400 bytes per geo-object: a run per ~40 geo-objects
+        File spillDir = Files.createTempDirectory("dedupe").toFile();
+        FakeDatabase spilled = new FakeDatabase();
+        BatchDeduper withRuns = new BatchDeduper(src, spilled, 100, new CreationProgress(null), new CancellationToken());
+        withRuns.setMinNameSimilarity(0.5);
+        withRuns.setHeapBudget(16000, spillDir);
+        withRuns.run();
+
+        List<String> expected = describe(held.geoDao().loadAll());
+        assertTrue(expected.size() < 600);
+        assertEquals(expected, describe(spilled.geoDao().loadAll()));
+        assertEquals(0, spillDir.listFiles().length);
+    }
+}
@@ -0,0 +1,113 @@
+package com.localore.localore;
+
+import com.google.gson.JsonParser;
+import com.localore.localore.model.CategoryCode;
+import com.localore.localore.model.CategoryCodeDao;
+import com.localore.localore.model.CategoryDictionary;
+import com.localore.localore.model.QuizCategory;
+import com.localore.localore.model.TagClassifier;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Category-codes of a conversion-table, kept across tables and instances.
+ */
+public class CategoryDictionaryTest {
+
+    @Test
+    public void code_lookedUpByCode() throws IOException {
+        CategoryDictionary categories = new CategoryDictionary();
+        int bakeries = categories.code("constructions", "bakeries");
+        int stations = categories.code("transport", "stations");
+
+        assertEquals(bakeries, categories.code("constructions", "bakeries"));
+        assertEquals(2, categories.size());
+        assertEquals("Bakeries", categories.getDisplayName(bakeries));
+        assertEquals("transport", categories.getSupercat(stations));
+        assertEquals(QuizCategory.CONSTRUCTIONS, categories.getQuizCategoryType(bakeries));
+        assertEquals(-1, categories.getQuizCategoryType(7));
+        assertEquals("", categories.getDisplayName(-1));
+        assertEquals(Arrays.asList(stations), categories.codesOfQuizCategoryType(QuizCategory.TRANSPORT));
+    }
+
+    /**
+     * Category-codes in memory, as in the db. Insert fails while failing.
+     */
+    private static class MemoryCategoryCodeDao implements CategoryCodeDao {
+        private final List<CategoryCode> rows = new ArrayList<>();
+        private boolean failing = false;
+
+        @Override
+        public void insert(CategoryCode categoryCode) {
+            if (failing) throw new RuntimeException("disk full");
+            for (CategoryCode row : rows) {
+                if (row.getCode() == categoryCode.getCode()) throw new RuntimeException("code taken");
+            }
+            rows.add(categoryCode);
+        }
+
+        @Override
+        public List<CategoryCode> loadAll() {
+            return new ArrayList<>(rows);
+        }
+    }
+
+    @Test
+    public void code_keptAcrossTablesAndInstances() throws IOException {
+        MemoryCategoryCodeDao dao = new MemoryCategoryCodeDao();
+
+        CategoryDictionary categories = new CategoryDictionary(dao);
+        TagClassifier before = new TagClassifier(new JsonParser().parse(
+                "{'roads': [['streets', 'highway=*']], 'nature': [['parks', 'leisure=park']]}").getAsJsonObject(), categories);
+        int parks = before.classify("leisure=park").getCode();
+
+        CategoryDictionary reopened = new CategoryDictionary(dao);
+        TagClassifier after = new TagClassifier(new JsonParser().parse(
+                "{'nature': [['lakes', 'natural=water'], ['parks', 'leisure=park']]}").getAsJsonObject(), reopened);
+
+        assertEquals(parks, after.classify("leisure=park").getCode());
+        assertEquals(3, reopened.size());
+        assertEquals("streets", reopened.getSubcat(before.classify("highway=primary").getCode()));
+        assertEquals("Lakes", reopened.getDisplayName(after.classify("natural=water").getCode()));
+    }
+
+    @Test
+    public void code_notHandedOutUnlessStored() throws IOException {
+        MemoryCategoryCodeDao dao = new MemoryCategoryCodeDao();
+        CategoryDictionary categories = new CategoryDictionary(dao);
+        categories.code("nature", "parks");
+
+        dao.failing = true;
+        try {
+            categories.code("nature", "lakes");
+            fail("Code handed out, not stored");
+        }
+        catch (IOException e) {
+            assertEquals(1, categories.size());
+        }
+
+        dao.failing = false;
+        assertEquals(1, categories.code("nature", "lakes"));
+        assertEquals(2, new CategoryDictionary(dao).size());
+    }
+
+    @Test
+    public void constructor_failsOnMissingCode() {
+        MemoryCategoryCodeDao dao = new MemoryCategoryCodeDao();
+        dao.insert(new CategoryCode(0, "nature", "parks"));
+        dao.insert(new CategoryCode(2, "nature", "lakes"));
+        try {
+            new CategoryDictionary(dao);
+            fail("Missing code accepted");
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+}
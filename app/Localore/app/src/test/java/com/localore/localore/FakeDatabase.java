@@ -0,0 +1,314 @@
+package com.localore.localore;
+
+import android.arch.persistence.db.SupportSQLiteOpenHelper;
+import android.arch.persistence.room.DatabaseConfiguration;
+import android.arch.persistence.room.InvalidationTracker;
+
+import com.google.gson.Gson;
+import com.localore.localore.model.AppDatabase;
+import com.localore.localore.model.CategoryCodeDao;
+import com.localore.localore.model.ExerciseDao;
+import com.localore.localore.model.GeoObject;
+import com.localore.localore.model.GeoObjectDao;
+import com.localore.localore.model.QuestionDao;
+import com.localore.localore.model.QuizCategoryDao;
+import com.localore.localore.model.QuizDao;
+import com.localore.localore.model.RunningQuizDao;
+import com.localore.localore.model.SessionDao;
+import com.localore.localore.model.UserDao;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Database of geo-objects in memory, for exercising dedupe and acquisition (BatchDeduper,
+ * AcquisitionPipeline) without sqlite. Only geo-objects: other daos are NULL. Transactions
+ * are no-ops. As from a db, loaded geo-objects are copies, and inserted ones are copied.
+ */
+public class FakeDatabase extends AppDatabase {
+
+    private static final Gson GSON = new Gson();
+
+    private final GeoObjects geoObjects = new GeoObjects();
+
+    private static GeoObject copy(GeoObject go) {
+        return GSON.fromJson(GSON.toJson(go), GeoObject.class);
+    }
+
+    /**
+     * Geo-objects by id. Inserted geo-objects get the next id, ids are not reused.
+     */
+    public static class GeoObjects extends GeoObjectDao {
+        private final TreeMap<Long, GeoObject> rows = new TreeMap<>();
+        private long lastId = 0;
+
+        /**
+         * @return All geo-objects, by id.
+         */
+        public synchronized List<GeoObject> loadAll() {
+            return copies(rows.values());
+        }
+
+        private static List<GeoObject> copies(Iterable<GeoObject> gos) {
+            List<GeoObject> copies = new ArrayList<>();
+            for (GeoObject go : gos) copies.add(copy(go));
+            return copies;
+        }
+
+        @Override
+        public synchronized long insert(GeoObject go) {
+            GeoObject row = copy(go);
+            row.setId(++lastId);
+            rows.put(row.getId(), row);
+            return row.getId();
+        }
+
+        @Override
+        public synchronized List<Long> insert(List<GeoObject> gos) {
+            List<Long> ids = new ArrayList<>();
+            for (GeoObject go : gos) ids.add(insert(go));
+            return ids;
+        }
+
+        @Override
+        public synchronized void update(GeoObject geoObject) {
+            rows.put(geoObject.getId(), copy(geoObject));
+        }
+
+        @Override
+        public synchronized void update(List<GeoObject> gos) {
+            for (GeoObject go : gos) update(go);
+        }
+
+        @Override
+        public synchronized void delete(GeoObject go) {
+            rows.remove(go.getId());
+        }
+
+        @Override
+        public synchronized void delete(List<GeoObject> gos) {
+            for (GeoObject go : gos) delete(go);
+        }
+
+        @Override
+        public synchronized void deleteWithIdIn_(List<Long> ids) {
+            for (long id : ids) rows.remove(id);
+        }
+
+        @Override
+        public synchronized GeoObject loadOne() {
+            return rows.isEmpty() ? null : copy(rows.firstEntry().getValue());
+        }
+
+        @Override
+        public synchronized GeoObject load(long id) {
+            return rows.containsKey(id) ? copy(rows.get(id)) : null;
+        }
+
+        @Override
+        public synchronized List<GeoObject> loadWithIdAbove(long id, int limit) {
+            List<GeoObject> page = new ArrayList<>();
+            for (GeoObject go : rows.tailMap(id, false).values()) {
+                if (page.size() == limit) break;
+                page.add(copy(go));
+            }
+            return page;
+        }
+
+        @Override
+        public synchronized List<GeoObject> loadWithIdIn_(List<Long> ids) {
+            List<GeoObject> gos = new ArrayList<>();
+            for (long id : ids) {
+                if (rows.containsKey(id)) gos.add(copy(rows.get(id)));
+            }
+            return gos;
+        }
+
+        @Override
+        public synchronized List<GeoObject> loadWithSimilarName(String name) {
+            List<GeoObject> gos = new ArrayList<>();
+            for (GeoObject go : rows.values()) {
+                if (go.getName().equalsIgnoreCase(name)) gos.add(copy(go));
+            }
+            return gos;
+        }
+
+        @Override
+        public synchronized List<String> loadNames() {
+            Set<String> names = new LinkedHashSet<>();
+            for (GeoObject go : rows.values()) names.add(go.getName());
+            return new ArrayList<>(names);
+        }
+
+        @Override
+        public synchronized List<KeptTags> loadKeptTagsWithIdAbove(long id, int limit) {
+            List<KeptTags> page = new ArrayList<>();
+            for (GeoObject go : rows.tailMap(id, false).values()) {
+                if (page.size() == limit) break;
+                if (go.getTags() == null) continue;
+
+                KeptTags kept = new KeptTags();
+                kept.id = go.getId();
+                kept.tags = go.getTags();
+                page.add(kept);
+            }
+            return page;
+        }
+
+        @Override
+        public synchronized void updateTags(long id, byte[] tags) {
+            rows.get(id).setTags(tags);
+        }
+
+        @Override
+        public synchronized int count() {
+            return rows.size();
+        }
+
+        @Override
+        public synchronized List<Long> loadAllIds() {
+            return new ArrayList<>(rows.keySet());
+        }
+
+        //region by quiz: not used
+
+        @Override
+        public GeoObject loadOneWithQuizIn(List<Long> quizIds) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<GeoObject> loadWithQuiz(long quizId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<GeoObject> loadWithQuizIn(List<Long> quizIds) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<GeoObject> loadRandoms(int preferredCount) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<GeoObject> loadRandomsWithQuizIn(List<Long> quizIds, int preferredCount) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<GeoObject> loadWithQuizInOrderedByRank(List<Long> quizIds, int preferredCount) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Long> loadIdsWithQuiz(long quizId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Long> loadIdsWithQuizOrderedByRank(long quizId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Long> loadAllWithQuiz(long quizId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Long> loadIdsWithQuizIn(List<Long> quizIds) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Long> loadQuizlessIdsWithCategoryInOrderedByRank(List<Integer> categories) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int countInQuiz(long quizId) {
+            throw new UnsupportedOperationException();
+        }
+
+        //endregion
+    }
+
+    @Override
+    public GeoObjects geoDao() {
+        return geoObjects;
+    }
+
+    @Override
+    public CategoryCodeDao categoryCodeDao() {
+        return null;
+    }
+
+    @Override
+    public ExerciseDao exerciseDao() {
+        return null;
+    }
+
+    @Override
+    public QuestionDao questionDao() {
+        return null;
+    }
+
+    @Override
+    public QuizDao quizDao() {
+        return null;
+    }
+
+    @Override
+    public QuizCategoryDao quizCategoryDao() {
+        return null;
+    }
+
+    @Override
+    public RunningQuizDao runningQuizDao() {
+        return null;
+    }
+
+    @Override
+    public SessionDao sessionDao() {
+        return null;
+    }
+
+    @Override
+    public UserDao userDao() {
+        return null;
+    }
+
+    @Override
+    public void clearAllTables() {
+        synchronized (geoObjects) {
+            geoObjects.rows.clear();
+        }
+    }
+
+    @Override
+    public void beginTransaction() {
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+    }
+
+    @Override
+    public void endTransaction() {
+    }
+
+    @Override
+    protected SupportSQLiteOpenHelper createOpenHelper(DatabaseConfiguration config) {
+        return null;
+    }
+
+    @Override
+    protected InvalidationTracker createInvalidationTracker() {
+        return null;
+    }
+}
@@ -0,0 +1,262 @@
+package com.localore.localore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for an Overpass-server, for exercising the http-path (OverpassEndpoints,
+ * GeoObjInstructionsIter, ResponseCache) without network. Every query is answered with
+ * the same payload (e.g a recorded response in data_processing/), as set by a Behavior:
+ * latency, bandwidth, a stall, a disconnect mid-stream, an error-status, compression.
+ *
+ * Standalone, for benchmarks: FakeOverpassServer <payload-file> <port> [latency ms] [bytes/s]
+ */
+public class FakeOverpassServer implements Closeable {
+
+    private static final int WRITE_SIZE = 1024;
+
+    /**
+     * How queries are answered. Set before the request.
+     */
+    public static class Behavior {
+        int status = 200;
+        long latency = 0;
+        long bytesPerSecond = 0;
+        long stallAfter = -1;
+        long stallTime = 0;
+        long disconnectAfter = -1;
+        boolean gzip = false;
+
+        /**
+         * @param status Http-status. Not 200: sent without payload.
+         */
+        public Behavior status(int status) {
+            this.status = status;
+            return this;
+        }
+
+        /**
+         * @param latency Ms before response-headers are sent.
+         */
+        public Behavior latency(long latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * @param bytesPerSecond Throttled body-bandwidth, 0 for unlimited.
+         */
+        public Behavior bandwidth(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param bytes Body-bytes sent before stalling.
+         * @param time Ms of stall.
+         */
+        public Behavior stall(long bytes, long time) {
+            this.stallAfter = bytes;
+            this.stallTime = time;
+            return this;
+        }
+
+        /**
+         * @param bytes Body-bytes sent before the connection is closed.
+         */
+        public Behavior disconnect(long bytes) {
+            this.disconnectAfter = bytes;
+            return this;
+        }
+
+        /**
+         * @param gzip True: body gzipped (if requested).
+         */
+        public Behavior gzip(boolean gzip) {
+            this.gzip = gzip;
+            return this;
+        }
+    }
+
+    private final ServerSocket server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final byte[] payload;
+    private volatile Behavior behavior = new Behavior();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile String lastQuery = null;
+
+    /**
+     * Starts serving on a free port of localhost.
+     */
+    public FakeOverpassServer(byte[] payload) throws IOException {
+        this(payload, 0);
+    }
+
+    /**
+     * Starts serving on port of localhost.
+     */
+    public FakeOverpassServer(byte[] payload, int port) throws IOException {
+        this.payload = payload;
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        executor.submit(this::accept);
+    }
+
+    public void setBehavior(Behavior behavior) {
+        this.behavior = behavior;
+    }
+
+    /**
+     * @return Interpreter-url to use as endpoint.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getLocalPort() + "/api/interpreter";
+    }
+
+    /**
+     * @return N.o requests received.
+     */
+    public int getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return Query (decoded) of latest request, NULL if none.
+     */
+    public String getLastQuery() {
+        return lastQuery;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                executor.submit(() -> serve(socket));
+            }
+            catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        Behavior behavior = this.behavior;
+        try {
+            InputStream in = socket.getInputStream();
+            boolean acceptsGzip = false;
+            int contentLength = 0;
+            String line;
+            while (!(line=readLine(in)).isEmpty()) {
+                String lower = line.toLowerCase();
+                if (lower.startsWith("content-length:")) contentLength = Integer.parseInt(line.substring(15).trim());
+                if (lower.startsWith("accept-encoding:") && lower.contains("gzip")) acceptsGzip = true;
+            }
+            byte[] body = new byte[contentLength];
+            for (int n = 0, read; n < contentLength; n += read) {
+                if ((read=in.read(body, n, contentLength - n)) == -1) return;
+            }
+            requests.incrementAndGet();
+            String form = new String(body, StandardCharsets.UTF_8);
+            if (form.startsWith("data=")) lastQuery = URLDecoder.decode(form.substring(5), "UTF-8");
+
+            Thread.sleep(behavior.latency);
+            OutputStream out = socket.getOutputStream();
+
+            if (behavior.status != 200) {
+                out.write(("HTTP/1.1 " + behavior.status + " Error\r\nContent-Length: 0\r\n" +
+                        "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                return;
+            }
+
+            boolean gzip = behavior.gzip && acceptsGzip;
+            byte[] response = gzip ? gzip(payload) : payload;
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/osm3s+xml\r\n" +
+                    "Content-Length: " + response.length + "\r\n" +
+                    (gzip ? "Content-Encoding: gzip\r\n" : "") +
+                    "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            writeBody(response, out, behavior);
+        }
+        catch (IOException | InterruptedException e) {
+            // Client gone, or server closed.
+        }
+        finally {
+            try {
+                socket.close();
+            }
+            catch (IOException ignored) {}
+        }
+    }
+
+    private static void writeBody(byte[] response, OutputStream out, Behavior behavior) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        boolean stalled = false;
+        int sent = 0;
+
+        while (sent < response.length) {
+            int n = Math.min(WRITE_SIZE, response.length - sent);
+            if (behavior.stallAfter >= 0 && !stalled) n = (int)Math.min(n, Math.max(0, behavior.stallAfter - sent));
+            if (behavior.disconnectAfter >= 0) n = (int)Math.min(n, behavior.disconnectAfter - sent);
+
+            out.write(response, sent, n);
+            out.flush();
+            sent += n;
+
+            if (behavior.disconnectAfter >= 0 && sent >= behavior.disconnectAfter) return;
+            if (behavior.stallAfter >= 0 && !stalled && sent >= behavior.stallAfter) {
+                stalled = true;
+                Thread.sleep(behavior.stallTime);
+                start += behavior.stallTime;
+            }
+            if (behavior.bytesPerSecond > 0) {
+                long due = start + sent * 1000 / behavior.bytesPerSecond;
+                Thread.sleep(Math.max(0, due - System.currentTimeMillis()));
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c=in.read()) != -1 && c != '\n') {
+            if (c != '\r') sb.append((char)c);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gz = new GZIPOutputStream(out);
+        gz.write(bytes);
+        gz.close();
+        return out.toByteArray();
+    }
+
+    public static void main(String[] args) throws Exception {
+        FakeOverpassServer server = new FakeOverpassServer(Files.readAllBytes(Paths.get(args[0])), Integer.parseInt(args[1]));
+        Behavior behavior = new Behavior().gzip(true);
+        if (args.length > 2) behavior.latency(Long.parseLong(args[2]));
+        if (args.length > 3) behavior.bandwidth(Long.parseLong(args[3]));
+        server.setBehavior(behavior);
+        System.out.println("Serving " + args[0] + " at " + server.getUrl());
+    }
+}
@@ -0,0 +1,121 @@
+package com.localore.localore;
+
+import com.localore.localore.model.GeoObjInstructionsIter;
+import com.localore.localore.model.GeoObjRecord;
+import com.localore.localore.model.OverpassPullParser;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Both response-parsers on the same Overpass-fixture.
+ */
+public class GeoObjInstructionsIterTest {
+
+    static final String RESPONSE =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<osm version=\"0.6\" generator=\"Overpass API 0.7.55.3 9da5e7ae\">\n" +
+            "<note>The data included in this document is from www.openstreetmap.org.</note>\n" +
+            "<meta osm_base=\"2018-06-12T10:58:02Z\" areas=\"2018-06-12T10:51:01Z\"/>\n" +
+            "\n" +
+            "  <bounds minlat=\"59.0036221\" minlon=\"18.3657074\" maxlat=\"59.1098946\" maxlon=\"18.6231995\"/>\n" +
+            "\n" +
+            "  <NODE id=\"435221450\">\n" +
+            "    <point lat=\"59.0355543\" lon=\"18.5105136\"/>\n" +
+            "    <tag k=\"version\" v=\"3\"/>\n" +
+            "    <tag k=\"ferry\" v=\"yes\"/>\n" +
+            "    <tag k=\"name\" v=\"Fjärdlång brygga\"/>\n" +
+            "    <tag k=\"public_transport\" v=\"stop_position\"/>\n" +
+            "  </NODE>\n" +
+            "  <WAY id=\"5216574\">\n" +
+            "    <group>\n" +
+            "      <vertex lat=\"59.0144945\" lon=\"18.3726380\"/>\n" +
+            "      <vertex lat=\"59.0146776\" lon=\"18.3721726\"/>\n" +
+            "    </group>\n" +
+            "    <tag k=\"version\" v=\"2\"/>\n" +
+            "    <tag k=\"name\" v=\"Långträsk\"/>\n" +
+            "    <tag k=\"natural\" v=\"water\"/>\n" +
+            "  </WAY>\n" +
+            "  <REL id=\"2961935\">\n" +
+            "    <linestring>\n" +
+            "      <vertex lat=\"59.0258592\" lon=\"18.3878889\"/>\n" +
+            "    </linestring>\n" +
+            "    <tag k=\"version\" v=\"2\"/>\n" +
+            "    <tag k=\"name\" v=\"Maren\"/>\n" +
+            "    <tag k=\"type\" v=\"multipolygon\"/>\n" +
+            "  </REL>\n" +
+            "</osm>\n";
+
+    static List<GeoObjRecord> readAll(GeoObjInstructionsIter.Parser parser, String response) throws IOException {
+        GeoObjInstructionsIter iter = new GeoObjInstructionsIter(parser);
+        iter.open(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+
+        List<GeoObjRecord> all = new ArrayList<>();
+        GeoObjRecord record;
+        while ((record=iter.next()) != null) all.add(record);
+        return all;
+    }
+
+    @Test
+    public void pullParser_sameAsLineParser() throws IOException {
+        List<GeoObjRecord> pull = readAll(GeoObjInstructionsIter.Parser.PULL, RESPONSE);
+        List<GeoObjRecord> lines = readAll(GeoObjInstructionsIter.Parser.LINES, RESPONSE);
+
+        assertEquals(3, pull.size());
+        assertEquals(lines.size(), pull.size());
+        for (int i = 0; i < pull.size(); i++)
+            assertEquals(lines.get(i), pull.get(i));
+    }
+
+    @Test
+    public void pullParser_resolvesEntities() throws IOException {
+        String response = "<osm><NODE id=\"1\"><point lat=\"1.0\" lon=\"2.0\"/>" +
+                "<tag k=\"name\" v=\"Krig &amp; Fred\"/></NODE></osm>";
+
+        List<GeoObjRecord> pull = readAll(GeoObjInstructionsIter.Parser.PULL, response);
+        assertEquals("Krig & Fred", pull.get(0).getName());
+    }
+
+    @Test
+    public void pullParser_fillsRecord() throws IOException {
+        GeoObjRecord way = readAll(GeoObjInstructionsIter.Parser.PULL, RESPONSE).get(1);
+
+        assertEquals("WAY/5216574", way.getOsmId());
+        assertEquals(2, way.getVersion());
+        assertEquals("Långträsk", way.getName());
+        assertEquals(2, way.getNodeCount());
+        assertEquals(59.0146776, way.getLat(1), 0);
+        assertEquals(18.3721726, way.getLon(1), 0);
+        assertEquals(1, way.getTags().size());
+        assertEquals("natural=water", way.getTags().get(0));
+    }
+
+    @Test
+    public void pullParser_numbersSameAsParseDouble() throws IOException {
+        Random random = new Random(1);
+        List<String> literals = new ArrayList<>(Arrays.asList(
+                "0", "-0.0", "59.0355543", "-179.9999999", "18.3", "1.", ".5", "1e3", "12345678901234567.5"));
+        for (int i = 0; i < 10000; i++)
+            literals.add(String.format(Locale.US, "%.7f", (random.nextDouble() - 0.5) * 360));
+
+        for (String literal : literals) {
+            OverpassPullParser p = new OverpassPullParser(ByteBuffer.wrap(
+                    ("<point lat=\"" + literal + "\" v=\"" + literal.length() + "\"/>").getBytes(StandardCharsets.UTF_8)));
+            p.next();
+            assertEquals(literal, Double.doubleToLongBits(Double.parseDouble(literal)),
+                    Double.doubleToLongBits(p.getAttributeDouble(0)));
+            assertEquals(literal.length(), p.getAttributeInt(1));
+        }
+    }
+}
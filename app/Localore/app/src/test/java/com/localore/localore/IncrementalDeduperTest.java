@@ -0,0 +1,153 @@
+package com.localore.localore;
+
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.GeoObject;
+import com.localore.localore.model.NodeShape;
+import com.localore.localore.modelManipulation.BatchDeduper;
+import com.localore.localore.modelManipulation.CreationProgress;
+import com.localore.localore.modelManipulation.IncrementalDeduper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Dedupe while src is filled: same result as BatchDeduper, committed sets replaced when
+ * they grow.
+ */
+public class IncrementalDeduperTest {
+
+    private static GeoObject geoObject(String osmId, String name, double lon, double lat, double rank) {
+        GeoObject go = new GeoObject();
+        go.setOsmId(osmId);
+        go.setName(name);
+        go.setRank(rank);
+        go.setShapes(new ArrayList<>(Collections.singletonList(new NodeShape(Arrays.asList(
+                new double[]{lon, lat}, new double[]{lon, lat + 0.0002})))));
+        return go;
+    }
+
+    /**
+     * @return Raw geo-objects of a few names (some variants), close and far apart, in
+     * random order.
+     */
+    private static List<GeoObject> rawGeoObjects(int n) {
+        String[] names = {"Kungsgatan", "KUNGSGATAN", "Uppsala C", "Uppsala Central", "Bus stop", "Fyrisån"};
+        Random random = new Random(3);
+        List<GeoObject> gos = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            double lon = 17.60 + random.nextInt(40) * 0.002;
+            double lat = 59.84 + random.nextInt(40) * 0.001;
+            gos.add(geoObject("way/" + i, names[random.nextInt(names.length)], lon, lat, random.nextInt(5)));
+        }
+        return gos;
+    }
+
+    /**
+     * @return "osm-id name n.o-shapes", sorted.
+     */
+    private static List<String> describe(List<GeoObject> gos) {
+        List<String> descriptions = new ArrayList<>();
+        for (GeoObject go : gos) descriptions.add(go.getOsmId() + " " + go.getName() + " " + go.getShapes().size());
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+
+    private static IncrementalDeduper deduper(FakeDatabase src, FakeDatabase dest) {
+        IncrementalDeduper deduper = new IncrementalDeduper(src, dest, new CancellationToken());
+        deduper.setMinNameSimilarity(0.5);
+        deduper.setSettleRows(20);
+        return deduper;
+    }
+
+    @Test(timeout = 20000)
+    public void finish_sameAsBatch() throws Exception {
+        FakeDatabase src = new FakeDatabase();
+        FakeDatabase dest = new FakeDatabase();
+        IncrementalDeduper deduper = deduper(src, dest);
+        deduper.start();
+
+        List<GeoObject> gos = rawGeoObjects(600);
+        for (int i = 0; i < gos.size(); i += 30) {
+            src.geoDao().insert(gos.subList(i, i + 30));
+            Thread.sleep(20);
+        }
+        deduper.end();
+        List<Long> ids = deduper.finish(new CreationProgress(null));
+
+        FakeDatabase batch = new FakeDatabase();
+        BatchDeduper batchDeduper = new BatchDeduper(src, batch, 100, new CreationProgress(null), new CancellationToken());
+        batchDeduper.setMinNameSimilarity(0.5);
+        batchDeduper.run();
+
+        List<String> expected = describe(batch.geoDao().loadAll());
+        assertTrue(expected.size() < 600);
+        assertEquals(expected, describe(dest.geoDao().loadAll()));
+        assertEquals(expected.size(), ids.size());
+        assertTrue(deduper.getCommitted() > 0);
+    }
+
+    /**
+     * @return Geo-objects named Kungsgatan.
+     */
+    private static List<GeoObject> roads(FakeDatabase db) {
+        List<GeoObject> roads = new ArrayList<>();
+        for (GeoObject go : db.geoDao().loadAll()) {
+            if (go.getName().equals("Kungsgatan")) roads.add(go);
+        }
+        return roads;
+    }
+
+    @Test(timeout = 20000)
+    public void finish_grownSetReplaced() throws Exception {
+        FakeDatabase src = new FakeDatabase();
+        FakeDatabase dest = new FakeDatabase();
+        IncrementalDeduper deduper = deduper(src, dest);
+        deduper.start();
+
+        // pieces of a road 150 m apart: every other piece first, too far apart to merge
+        double spacing = Math.toDegrees(150 / 6371000.0);
+        for (int i = 0; i < 20; i += 2) {
+            src.geoDao().insert(geoObject("way/" + i, "Kungsgatan", 17.64, 59.85 + i * spacing, i));
+        }
+        for (int i = 0; i < 40; i++) {
+            src.geoDao().insert(geoObject("node/" + i, "Bus stop " + i, 17.70, 59.85, 1));
+        }
+        while (roads(dest).size() < 10) Thread.sleep(10);
+
+        for (int i = 1; i < 20; i += 2) {
+            src.geoDao().insert(geoObject("way/" + i, "Kungsgatan", 17.64, 59.85 + i * spacing, i));
+        }
+        deduper.end();
+        deduper.finish(new CreationProgress(null));
+
+        List<GeoObject> roads = roads(dest);
+        assertEquals(1, roads.size());
+        assertEquals("way/19", roads.get(0).getOsmId());
+        assertEquals(20, roads.get(0).getShapes().size());
+        assertEquals(41, dest.geoDao().count());
+        assertTrue(deduper.getReplaced() > 0);
+    }
+
+    @Test(timeout = 20000)
+    public void finish_overHeapBudgetGivesUp() throws Exception {
+        FakeDatabase src = new FakeDatabase();
+        FakeDatabase dest = new FakeDatabase();
+        IncrementalDeduper deduper = deduper(src, dest);
+        deduper.setHeapBudget(16000);
+        deduper.start();
+
+        List<GeoObject> gos = rawGeoObjects(600);
+        for (int i = 0; i < gos.size(); i += 30) src.geoDao().insert(gos.subList(i, i + 30));
+        deduper.end();
+
+        assertNull(deduper.finish(new CreationProgress(null)));
+        assertEquals(0, dest.geoDao().count());
+    }
+}
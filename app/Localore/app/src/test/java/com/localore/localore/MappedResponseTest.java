@@ -0,0 +1,94 @@
+package com.localore.localore;
+
+import com.localore.localore.model.GeoObjInstructionsIter;
+import com.localore.localore.model.GeoObjRecord;
+import com.localore.localore.model.MappedResponse;
+import com.localore.localore.model.ResponseCache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Spooled responses, parsed from memory-mapped ranges.
+ */
+public class MappedResponseTest {
+
+    private static File write(String response) throws IOException {
+        File file = File.createTempFile("response", ".xml");
+        file.deleteOnExit();
+        Files.write(file.toPath(), response.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static List<GeoObjRecord> readAll(ByteBuffer range) throws IOException {
+        GeoObjInstructionsIter iter = new GeoObjInstructionsIter(GeoObjInstructionsIter.Parser.PULL);
+        iter.open(range);
+
+        List<GeoObjRecord> all = new ArrayList<>();
+        GeoObjRecord record;
+        while ((record=iter.next()) != null) all.add(record);
+        return all;
+    }
+
+    @Test
+    public void split_rangesHaveSameRecordsAsWhole() throws IOException {
+        String response = GeoObjInstructionsIterTest.RESPONSE;
+        List<GeoObjRecord> whole = GeoObjInstructionsIterTest.readAll(GeoObjInstructionsIter.Parser.PULL, response);
+        MappedResponse mapped = new MappedResponse(write(response));
+
+        for (int n = 1; n <= 5; n++) {
+            List<ByteBuffer> ranges = mapped.split(n);
+            assertTrue(ranges.size() <= n);
+
+            List<GeoObjRecord> joined = new ArrayList<>();
+            for (ByteBuffer range : ranges) joined.addAll(readAll(range));
+            assertEquals(whole, joined);
+        }
+    }
+
+    @Test
+    public void split_rangeRestartable() throws IOException {
+        MappedResponse mapped = new MappedResponse(write(GeoObjInstructionsIterTest.RESPONSE));
+        ByteBuffer range = mapped.split(3).get(1);
+
+        List<GeoObjRecord> first = readAll(range);
+        assertFalse(first.isEmpty());
+        assertEquals(first, readAll(range));
+    }
+
+    @Test
+    public void isComplete_endAndNoRemark() throws IOException {
+        String response = GeoObjInstructionsIterTest.RESPONSE;
+        String truncated = response.substring(0, response.indexOf("</WAY>"));
+        String remarked = response.replace("</osm>", "<remark> runtime error: Query timed out </remark>\n</osm>");
+
+        assertTrue(new MappedResponse(write(response)).isComplete());
+        assertFalse(new MappedResponse(write(truncated)).isComplete());
+        assertFalse(new MappedResponse(write(remarked)).isComplete());
+    }
+
+    @Test
+    public void spool_committedEntryStillMapped() throws IOException {
+        ResponseCache cache = new ResponseCache(Files.createTempDirectory("cache").toFile(), 60000, 1 << 20);
+        byte[] bytes = GeoObjInstructionsIterTest.RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+        ResponseCache.TeeStream tee = cache.put("a", new ByteArrayInputStream(bytes));
+        MappedResponse mapped = new MappedResponse(tee.spool());
+        assertNull(cache.getFile("a"));
+
+        tee.commit();
+        tee.close();
+        assertNotNull(cache.getFile("a"));
+        assertEquals(3, readAll(mapped.getBuffer()).size());
+    }
+}
@@ -0,0 +1,51 @@
+package com.localore.localore;
+
+import com.localore.localore.modelManipulation.NameIndex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Variants of names found by the trigram-index.
+ */
+public class NameIndexTest {
+
+    @Test
+    public void normalize_foldedAndStripped() {
+        assertEquals("svartbacksgatan", NameIndex.normalize("Svartbäcksgatan"));
+        assertEquals("st eriks torg", NameIndex.normalize("St. Eriks  torg"));
+        assertEquals("h m", NameIndex.normalize("H&M"));
+    }
+
+    @Test
+    public void similarTo_variants() {
+        List<String> names = Arrays.asList(
+                "Uppsala C", "Uppsala Central", "uppsala centralstation",
+                "Karin Boye", "Karin Boyegatan",
+                "Västgöta nation", "Östgöta nation",
+                "Bus stop 1", "Bus stop 2",
+                "BioMedIT I", "BioMedIT II",
+                "Café Linné", "Cafe Linne");
+        NameIndex index = new NameIndex(names, 0.5);
+
+        assertEquals(Arrays.asList(1, 2), index.similarTo(0));
+        assertEquals(Collections.singletonList(0), index.similarTo(1));
+        assertEquals(Collections.emptyList(), index.similarTo(3));
+        assertEquals(Collections.emptyList(), index.similarTo(5));
+        assertEquals(Collections.emptyList(), index.similarTo(7));
+        assertEquals(Collections.emptyList(), index.similarTo(9));
+        assertEquals(Collections.singletonList(12), index.similarTo(11));
+        assertEquals(1.0, index.similarity(11, 12), 1e-9);
+    }
+
+    @Test
+    public void similarTo_byThreshold() {
+        NameIndex index = new NameIndex(Arrays.asList("Uppsala C", "Uppsala centralstation"), 0.6);
+        assertEquals(Collections.emptyList(), index.similarTo(0));
+    }
+}
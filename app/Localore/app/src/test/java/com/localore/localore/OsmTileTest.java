@@ -0,0 +1,71 @@
+package com.localore.localore;
+
+import com.localore.localore.model.NodeShape;
+import com.localore.localore.model.OsmTile;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Splitting of working-areas into tiles.
+ */
+public class OsmTileTest {
+
+    @Test
+    public void tile_boundsContainPoint() {
+        OsmTile tile = OsmTile.at(17.6390202, 59.8464155, OsmTile.FETCH_ZOOM);
+        double[] bs = tile.getBounds();
+
+        assertTrue(bs[0] <= 17.6390202 && 17.6390202 < bs[2]);
+        assertTrue(bs[1] < 59.8464155 && 59.8464155 <= bs[3]);
+    }
+
+    @Test
+    public void covering_coversBounds() {
+        double[] bounds = new double[]{17.558212, 59.783014, 17.731246, 59.910975};
+        List<OsmTile> tiles = OsmTile.covering(bounds, OsmTile.FETCH_ZOOM);
+
+        assertEquals(12, tiles.size());
+        for (double[] corner : new double[][]{{bounds[0], bounds[1]}, {bounds[2], bounds[3]}})
+            assertTrue(tiles.contains(OsmTile.at(corner[0], corner[1], OsmTile.FETCH_ZOOM)));
+    }
+
+    @Test
+    public void clip_insideOutsideAndCut() {
+        NodeShape square = new NodeShape(Arrays.asList(
+                new double[]{0, 0}, new double[]{2, 0}, new double[]{2, 2}, new double[]{0, 2}));
+
+        assertEquals(4, square.clip(new double[]{-1, -1, 3, 3}).size());
+        assertNull(square.clip(new double[]{5, 5, 6, 6}));
+
+        double[] bs = square.clip(new double[]{1, -1, 3, 1}).getBounds();
+        assertArrayEquals(new double[]{1, 0, 2, 1}, bs, 1e-9);
+    }
+
+    @Test
+    public void overlaps_nodeLineAndEnclosing() {
+        NodeShape square = new NodeShape(Arrays.asList(
+                new double[]{0, 0}, new double[]{2, 0}, new double[]{2, 2}, new double[]{0, 2}));
+
+        assertTrue(node(1, 1).overlaps(square));
+        assertFalse(node(3, 1).overlaps(square));
+        assertTrue(line(-1, 1, 3, 1).overlaps(square));
+        assertFalse(line(-1, 3, 3, 3).overlaps(square));
+
+        NodeShape enclosing = new NodeShape(Arrays.asList(new double[]{-1, -1}, new double[]{3, -1},
+                new double[]{3, 3}, new double[]{-1, 3}, new double[]{-1, -1}));
+        assertTrue(enclosing.overlaps(square));
+    }
+
+    private static NodeShape node(double lon, double lat) {
+        return new NodeShape(Arrays.asList(new double[]{lon, lat}));
+    }
+
+    private static NodeShape line(double lon1, double lat1, double lon2, double lat2) {
+        return new NodeShape(Arrays.asList(new double[]{lon1, lat1}, new double[]{lon2, lat2}));
+    }
+}
@@ -0,0 +1,163 @@
+package com.localore.localore;
+
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.GeoObjInstructionsIter;
+import com.localore.localore.model.GeoObjRecord;
+import com.localore.localore.model.OverpassEndpoints;
+import com.localore.localore.model.ResponseCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Http-path of the iterator against local fake servers (see FakeOverpassServer):
+ * compression, fail-over, hedging, incomplete responses, timeouts and cancel.
+ */
+public class OverpassHttpTest {
+
+    private static final String QUERY = "[out:xml]; node(1); out;";
+
+    private FakeOverpassServer primary;
+    private FakeOverpassServer secondary;
+    private OverpassEndpoints endpoints;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] payload = GeoObjInstructionsIterTest.RESPONSE.getBytes(StandardCharsets.UTF_8);
+        primary = new FakeOverpassServer(payload);
+        secondary = new FakeOverpassServer(payload);
+        endpoints = new OverpassEndpoints(new String[]{ primary.getUrl(), secondary.getUrl() });
+        endpoints.setTimeouts(2000, 500);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        primary.close();
+        secondary.close();
+    }
+
+    private GeoObjInstructionsIter iter() throws IOException {
+        GeoObjInstructionsIter iter = new GeoObjInstructionsIter(URLEncoder.encode(QUERY, "UTF-8"),
+                GeoObjInstructionsIter.Parser.PULL);
+        iter.setEndpoints(endpoints);
+        return iter;
+    }
+
+    private static List<GeoObjRecord> readAll(GeoObjInstructionsIter iter) throws IOException {
+        List<GeoObjRecord> all = new ArrayList<>();
+        GeoObjRecord record;
+        while ((record=iter.next()) != null) all.add(record);
+        return all;
+    }
+
+    @Test
+    public void open_gzippedResponseDecoded() throws IOException {
+        primary.setBehavior(new FakeOverpassServer.Behavior().gzip(true).bandwidth(100000));
+        GeoObjInstructionsIter iter = iter();
+        iter.open();
+
+        assertEquals(3, readAll(iter).size());
+        assertEquals(QUERY, primary.getLastQuery());
+        assertTrue(iter.getBytesOnWire() < iter.getBytesDecoded());
+    }
+
+    @Test
+    public void open_failsOverOnErrorStatus() throws IOException {
+        primary.setBehavior(new FakeOverpassServer.Behavior().status(504));
+        GeoObjInstructionsIter iter = iter();
+        iter.open();
+
+        assertEquals(3, readAll(iter).size());
+        assertEquals(1, primary.getRequests());
+        assertEquals(1, secondary.getRequests());
+    }
+
+    @Test(timeout = 10000)
+    public void open_notHedgedWithinHalfQueryTimeout() throws IOException {
+        endpoints.setTimeouts(2000, 4000);
+        primary.setBehavior(new FakeOverpassServer.Behavior().latency(1000));
+        endpoints.open(URLEncoder.encode(QUERY, "UTF-8")).close();
+
+        assertEquals(1, primary.getRequests());
+        assertEquals(0, secondary.getRequests());
+    }
+
+    @Test(timeout = 10000)
+    public void open_hedgedAfterHalfQueryTimeout() throws IOException {
+        endpoints.setTimeouts(2000, 4000);
+        primary.setBehavior(new FakeOverpassServer.Behavior().latency(3000));
+        endpoints.open(URLEncoder.encode("[timeout:2]" + QUERY, "UTF-8")).close();
+
+        assertEquals(1, primary.getRequests());
+        assertEquals(1, secondary.getRequests());
+    }
+
+    @Test
+    public void next_disconnectedResponseFailsNotCached() throws IOException {
+        int betweenElements = GeoObjInstructionsIterTest.RESPONSE.indexOf("  <WAY");
+        primary.setBehavior(new FakeOverpassServer.Behavior().disconnect(betweenElements));
+        ResponseCache cache = new ResponseCache(Files.createTempDirectory("cache").toFile(), 60000, 1 << 20);
+        GeoObjInstructionsIter iter = iter();
+        iter.setCache(cache);
+        iter.open();
+
+        try {
+            readAll(iter);
+            fail("Truncated response accepted");
+        }
+        catch (IOException e) {
+            // Incomplete.
+        }
+        iter.close();
+        assertNull(cache.get(ResponseCache.key(URLEncoder.encode(QUERY, "UTF-8"))));
+    }
+
+    @Test(timeout = 5000)
+    public void next_stallTimesOut() throws IOException {
+        primary.setBehavior(new FakeOverpassServer.Behavior().stall(100, 10000));
+        GeoObjInstructionsIter iter = iter();
+        iter.open();
+
+        try {
+            readAll(iter);
+            fail("Stall not detected");
+        }
+        catch (IOException e) {
+            // Read-timeout.
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void open_cancelAbortsWaitForResponse() throws IOException {
+        primary.setBehavior(new FakeOverpassServer.Behavior().latency(10000));
+        CancellationToken token = new CancellationToken();
+        GeoObjInstructionsIter iter = iter();
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            }
+            catch (InterruptedException ignored) {}
+            token.cancel();
+        }).start();
+
+        try {
+            iter.open(token);
+            fail("Not aborted");
+        }
+        catch (InterruptedIOException e) {
+            assertTrue(token.isCancelled());
+        }
+    }
+}
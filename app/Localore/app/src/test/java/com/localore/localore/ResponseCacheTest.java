@@ -0,0 +1,114 @@
+package com.localore.localore;
+
+import com.localore.localore.model.GeoObjInstructionsIter;
+import com.localore.localore.model.ResponseCache;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Store, verify and evict cached responses.
+ */
+public class ResponseCacheTest {
+
+    private static final String RESPONSE =
+            "<osm>\n" +
+            "  <NODE id=\"1\">\n" +
+            "    <point lat=\"59.0\" lon=\"18.0\"/>\n" +
+            "    <tag k=\"name\" v=\"A\"/>\n" +
+            "  </NODE>\n" +
+            "</osm>\n";
+
+    private static InputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n=in.read(buf)) != -1) out.write(buf, 0, n);
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void put_committedEntryReadBack() throws IOException {
+        ResponseCache cache = new ResponseCache(Files.createTempDirectory("cache").toFile(), 60000, 1 << 20);
+
+        ResponseCache.TeeStream tee = cache.put("a", stream(RESPONSE));
+        assertEquals(RESPONSE, readAll(tee));
+        assertNull(cache.get("a"));
+
+        tee = cache.put("a", stream(RESPONSE));
+        tee.commit();
+        tee.close();
+        assertEquals(RESPONSE, readAll(cache.get("a")));
+    }
+
+    @Test
+    public void get_corruptOrExpiredEntryDropped() throws IOException {
+        File dir = Files.createTempDirectory("cache").toFile();
+        ResponseCache cache = new ResponseCache(dir, 60000, 1 << 20);
+        cache.put("a", stream(RESPONSE)).commit();
+
+        RandomAccessFile file = new RandomAccessFile(new File(dir, "a.xml"), "rw");
+        file.seek(3);
+        file.write('X');
+        file.close();
+        assertNull(cache.get("a"));
+        assertFalse(new File(dir, "a.xml").exists());
+
+        ResponseCache expiring = new ResponseCache(dir, -1, 1 << 20);
+        expiring.put("b", stream(RESPONSE)).commit();
+        assertNull(expiring.get("b"));
+    }
+
+    @Test
+    public void put_leastRecentlyUsedEvicted() throws IOException {
+        File dir = Files.createTempDirectory("cache").toFile();
+        ResponseCache cache = new ResponseCache(dir, 60000, 2 * RESPONSE.length());
+
+        cache.put("a", stream(RESPONSE)).commit();
+        cache.put("b", stream(RESPONSE)).commit();
+        new File(dir, "a.xml").setLastModified(System.currentTimeMillis() - 10000);
+        cache.put("c", stream(RESPONSE)).commit();
+
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void iter_onlyCompleteResponseCached() throws IOException {
+        ResponseCache cache = new ResponseCache(Files.createTempDirectory("cache").toFile(), 60000, 1 << 20);
+        String[] responses = new String[]{
+                RESPONSE,
+                RESPONSE.substring(0, RESPONSE.length() - 7),
+                RESPONSE.replace("</osm>", "<remark> runtime error: Query timed out </remark>\n</osm>")};
+
+        for (int i = 0; i < responses.length; i++) {
+            GeoObjInstructionsIter iter = new GeoObjInstructionsIter(GeoObjInstructionsIter.Parser.PULL);
+            iter.open(cache.put("r" + i, stream(responses[i])));
+            try {
+                while (iter.next() != null);
+            }
+            catch (IOException e) {
+                assertEquals(2, i);
+            }
+        }
+        assertNotNull(cache.get("r0"));
+        assertNull(cache.get("r1"));
+        assertNull(cache.get("r2"));
+    }
+}
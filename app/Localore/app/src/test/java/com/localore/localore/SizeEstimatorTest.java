@@ -0,0 +1,56 @@
+package com.localore.localore;
+
+import com.localore.localore.model.CancellationToken;
+import com.localore.localore.model.GeoObject;
+import com.localore.localore.model.NodeShape;
+import com.localore.localore.model.OsmTile;
+import com.localore.localore.model.SizeEstimator;
+import com.localore.localore.model.TileStore;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pre-flight size-estimates of working-areas.
+ */
+public class SizeEstimatorTest {
+
+    @Test
+    public void estimate_storedTilesScaledByCoverage() throws IOException {
+        OsmTile tile = OsmTile.at(17.64, 59.86, OsmTile.FETCH_ZOOM);
+        TileStore store = new TileStore(Files.createTempDirectory("tiles").toFile(), "v1", 60000, 1 << 20);
+
+        List<GeoObject> gos = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            GeoObject go = new GeoObject();
+            go.setShapes(Collections.singletonList(new NodeShape(Arrays.asList(new double[]{17.64, 59.86}))));
+            gos.add(go);
+        }
+        store.store(tile, gos, System.currentTimeMillis());
+
+        double[] bs = tile.getBounds();
+        double midLon = (bs[0] + bs[2]) / 2;
+        NodeShape westHalf = new NodeShape(Arrays.asList(new double[]{bs[0], bs[1]},
+                new double[]{midLon, bs[1]}, new double[]{midLon, bs[3]}, new double[]{bs[0], bs[3]}));
+
+        SizeEstimator estimator = new SizeEstimator(store, null, null);
+        SizeEstimator.Estimate estimate = estimator.estimate(westHalf, new CancellationToken());
+        assertEquals(500, estimate.getElements());
+        assertEquals(0, estimate.getBytes());
+    }
+
+    @Test
+    public void boundsArea_inSquareKilometers() {
+        NodeShape area = new NodeShape(Arrays.asList(new double[]{17.6, 59.9},
+                new double[]{17.7, 59.9}, new double[]{17.7, 60.0}, new double[]{17.6, 60.0}));
+        assertEquals(11.12 * 5.57, SizeEstimator.boundsArea(area), 0.5);
+    }
+}
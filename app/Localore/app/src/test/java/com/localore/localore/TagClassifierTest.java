@@ -0,0 +1,63 @@
+package com.localore.localore;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.localore.localore.model.CategoryDictionary;
+import com.localore.localore.model.TagClassifier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Classification of OSM-tags by a compiled conversion-table.
+ */
+public class TagClassifierTest {
+
+    private static final JsonObject TABLE = new JsonParser().parse(
+            "{'roads': [['streets', 'highway=*']]," +
+            " 'constructions': [['shops', 'shop=*', 'amenity=marketplace'], ['food', 'shop=bakery', 'amenity=cafe']]," +
+            " 'transport': [['bus', 'highway=bus_stop', 'amenity=bus_station']]}"
+    ).getAsJsonObject();
+
+    private TagClassifier classifier;
+
+    @Before
+    public void compile() throws IOException {
+        classifier = new TagClassifier(TABLE, new CategoryDictionary());
+    }
+
+    @Test
+    public void classify_firstCategoryOfTag() {
+        assertEquals("transport:bus", classifier.classify("highway=bus_stop").toString());
+        assertEquals("roads:streets", classifier.classify("highway=primary").toString());
+        assertEquals("constructions:shops", classifier.classify("shop=bakery").toString());
+        assertEquals("constructions:food", classifier.classify("amenity=cafe").toString());
+        assertNull(classifier.classify("amenity=bench"));
+    }
+
+    @Test
+    public void classify_wildcardExcludesNo() {
+        assertNull(classifier.classify("shop=no"));
+        assertEquals("constructions:shops", classifier.classify("shop=nova").toString());
+    }
+
+    @Test
+    public void classify_firstCategoryOfAllTags() {
+        assertEquals("transport:bus", classifier.classify(
+                Arrays.asList("name=X", "highway=primary", "amenity=bus_station")).toString());
+        assertEquals("constructions:shops", classifier.classify(
+                Arrays.asList("amenity=cafe", "shop=books")).toString());
+        assertNull(classifier.classify(Arrays.asList("name=X", "shop=no")));
+    }
+
+    @Test
+    public void relevant_onlyKeysOfTable() {
+        assertEquals(Arrays.asList("highway=primary", "amenity=bench", "shop=no"), classifier.relevant(
+                Arrays.asList("name=X", "highway=primary", "amenity=bench", "ref=12", "shop=no", "wikidata=Q1")));
+    }
+}
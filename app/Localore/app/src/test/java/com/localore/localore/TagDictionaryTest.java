@@ -0,0 +1,151 @@
+package com.localore.localore;
+
+import com.google.gson.JsonParser;
+import com.localore.localore.model.CategoryDictionary;
+import com.localore.localore.model.GeoObjRecord;
+import com.localore.localore.model.GeoObject;
+import com.localore.localore.model.TagClassifier;
+import com.localore.localore.model.TagDictionary;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Raw tags kept as dictionary-codes, and re-classification from them.
+ */
+public class TagDictionaryTest {
+
+    private static File tempFile() throws IOException {
+        File file = Files.createTempFile("tags", ".txt").toFile();
+        file.delete();
+        return file;
+    }
+
+    @Test
+    public void encode_decodedBack() throws IOException {
+        TagDictionary dictionary = new TagDictionary(tempFile());
+        List<String> tags = Arrays.asList("highway=bus_stop", "shelter=yes", "highway=bus_stop");
+
+        byte[] packed = dictionary.encode(tags);
+        assertEquals(3, packed.length);
+        assertEquals(2, dictionary.size());
+        assertEquals(tags, dictionary.decode(packed));
+    }
+
+    @Test
+    public void encode_largeCodesVarint() throws IOException {
+        TagDictionary dictionary = new TagDictionary(tempFile());
+        List<String> tags = new ArrayList<>();
+        for (int i = 0; i < 300; i++) tags.add("ref=" + i);
+
+        byte[] packed = dictionary.encode(tags);
+        assertEquals(128 + 2 * 172, packed.length);
+        assertEquals(tags, dictionary.decode(packed));
+    }
+
+    @Test
+    public void encode_codesKeptAcrossInstances() throws IOException {
+        File file = tempFile();
+        List<String> tags = Arrays.asList("name:en=A\\B", "note=two\nlines", "shop=bakery");
+        byte[] packed = new TagDictionary(file).encode(tags);
+
+        TagDictionary reopened = new TagDictionary(file);
+        assertEquals(3, reopened.size());
+        assertEquals(tags, reopened.decode(packed));
+        assertArrayEquals(packed, reopened.encode(tags));
+        assertArrayEquals(new byte[]{ 3 }, reopened.encode(Arrays.asList("amenity=cafe")));
+    }
+
+    @Test
+    public void constructor_halfWrittenTagCutOff() throws IOException {
+        File file = tempFile();
+        Files.write(file.toPath(), "highway=bus_stop\nshelter=yes\nsho".getBytes("UTF-8"));
+
+        TagDictionary dictionary = new TagDictionary(file);
+        assertEquals(2, dictionary.size());
+        assertArrayEquals(new byte[]{ 2 }, dictionary.encode(Arrays.asList("shop=bakery")));
+
+        TagDictionary reopened = new TagDictionary(file);
+        assertEquals(Arrays.asList("highway=bus_stop", "shelter=yes", "shop=bakery"),
+                reopened.decode(new byte[]{ 0, 1, 2 }));
+    }
+
+    @Test
+    public void compact_unusedTagsDropped() throws IOException {
+        File file = tempFile();
+        TagDictionary dictionary = new TagDictionary(file);
+        byte[][] kept = {
+                dictionary.encode(Arrays.asList("name=A", "shop=bakery")),
+                dictionary.encode(Arrays.asList("ref=1", "railway=station")),
+                dictionary.encode(Arrays.asList("wikidata=Q1"))};
+
+        Set<String> used = new LinkedHashSet<>(Arrays.asList("shop=bakery", "railway=station"));
+        int dropped = dictionary.compact(used, () -> {
+            for (int i = 0; i < kept.length; i++) {
+                List<String> tags = new ArrayList<>(dictionary.decode(kept[i]));
+                tags.retainAll(used);
+                try {
+                    kept[i] = dictionary.encode(tags);
+                }
+                catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        assertEquals(3, dropped);
+        assertEquals(2, dictionary.size());
+        assertEquals(Arrays.asList("shop=bakery"), dictionary.decode(kept[0]));
+        assertEquals(Arrays.asList("railway=station"), dictionary.decode(kept[1]));
+        assertEquals(Arrays.asList(), dictionary.decode(kept[2]));
+        assertEquals(Arrays.asList(), dictionary.decode(new byte[]{ 1 }));
+
+        TagDictionary reopened = new TagDictionary(file);
+        assertEquals(2, reopened.size());
+        assertEquals(Arrays.asList("railway=station"), reopened.decode(kept[1]));
+        assertArrayEquals(new byte[]{ 7 }, reopened.encode(Arrays.asList("amenity=cafe")));
+        assertEquals(Arrays.asList("amenity=cafe"), new TagDictionary(file).decode(new byte[]{ 7 }));
+    }
+
+    @Test
+    public void reclassify_byNewTable() throws Exception {
+        CategoryDictionary categories = new CategoryDictionary();
+        TagClassifier before = new TagClassifier(new JsonParser().parse(
+                "{'transport': [['trams', 'railway=tram_stop']], 'constructions': [['shops', 'shop=*']]}").getAsJsonObject(), categories);
+        TagClassifier after = new TagClassifier(new JsonParser().parse(
+                "{'transport': [['stations', 'railway=station']], 'constructions': [['bakeries', 'shop=bakery']]}").getAsJsonObject(), categories);
+        TagDictionary dictionary = new TagDictionary(tempFile());
+
+        GeoObjRecord record = new GeoObjRecord();
+        record.setOsmId("node/1");
+        record.setVersion(3);
+        record.setName("Central");
+        record.addNode(59.85, 17.64);
+        record.addTag("shop=bakery");
+        record.addTag("railway=station");
+        record.addTag("wikidata=Q1");
+
+        GeoObject geoObject = new GeoObject(record, before, dictionary);
+        assertEquals("shops", categories.getSubcat(geoObject.getCategory()));
+        assertEquals(Arrays.asList("shop=bakery", "railway=station"), dictionary.decode(geoObject.getTags()));
+
+        assertTrue(geoObject.reclassify(after, dictionary));
+        assertEquals("transport", categories.getSupercat(geoObject.getCategory()));
+        assertEquals("stations", categories.getSubcat(geoObject.getCategory()));
+        assertFalse(geoObject.reclassify(after, dictionary));
+
+        geoObject.setTags(null);
+        assertFalse(geoObject.reclassify(before, dictionary));
+        assertEquals("stations", categories.getSubcat(geoObject.getCategory()));
+    }
+}
@@ -0,0 +1,43 @@
+package com.localore.localore;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.localore.localore.model.TagFilter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Overpass tag-predicates generated from a conversion-table.
+ */
+public class TagFilterTest {
+
+    private static final JsonObject TABLE = new JsonParser().parse(
+            "{'transport': [['bus', 'highway=bus_stop', 'amenity=bus_station'], ['train', 'railway=station']]," +
+            " 'constructions': [['shops', 'shop=*', 'amenity=marketplace', 'shop=bakery'], ['misc', 'service=dealer;repair', 'amenity=a.b']]}"
+    ).getAsJsonObject();
+
+    @Test
+    public void union_onePredicatePerKey() {
+        String union = new TagFilter(TABLE).union("node.ns[name]");
+
+        assertEquals(
+                "node.ns[name][\"highway\"~\"^(bus_stop)$\"]; " +
+                "node.ns[name][\"amenity\"~\"^(bus_station|marketplace|a\\\\.b)$\"]; " +
+                "node.ns[name][\"railway\"~\"^(station)$\"]; " +
+                "node.ns[name][\"service\"~\"^(dealer;repair)$\"]; " +
+                "node.ns[name][\"shop\"][\"shop\"!=\"no\"]; ",
+                union);
+    }
+
+    @Test
+    public void expand_replacesAllPlaceholders() {
+        TagFilter filter = new TagFilter(TABLE);
+        String query = "({{filter:node.ns[name]}});\nout;\n({{filter:way.ws[name]}}) -> .wf;";
+
+        assertEquals(
+                "(" + filter.union("node.ns[name]") + ");\nout;\n(" + filter.union("way.ws[name]") + ") -> .wf;",
+                filter.expand(query));
+    }
+}
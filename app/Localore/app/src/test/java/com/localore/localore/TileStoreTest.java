@@ -0,0 +1,87 @@
+package com.localore.localore;
+
+import com.localore.localore.model.GeoObject;
+import com.localore.localore.model.NodeShape;
+import com.localore.localore.model.OsmTile;
+import com.localore.localore.model.TileStore;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Store, load and evict tiles of geo-objects.
+ */
+public class TileStoreTest {
+
+    private static final OsmTile A = new OsmTile(12, 2248, 1190);
+    private static final OsmTile B = new OsmTile(12, 2249, 1190);
+
+    private static List<GeoObject> geoObjects(int n) {
+        List<GeoObject> gos = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            GeoObject go = new GeoObject();
+            go.setOsmId("node/" + i);
+            go.setName("Name " + i);
+            go.setShapes(Collections.singletonList(new NodeShape(Arrays.asList(
+                    new double[]{17.6 + i * 0.001, 59.8}, new double[]{17.7, 59.9 - i * 0.001}))));
+            gos.add(go);
+        }
+        return gos;
+    }
+
+    @Test
+    public void store_loadedBack() throws IOException {
+        TileStore store = new TileStore(Files.createTempDirectory("tiles").toFile(), "v1", 60000, 1 << 20);
+        assertNull(store.load(A));
+        assertFalse(store.isFresh(A));
+
+        long now = System.currentTimeMillis();
+        store.store(A, geoObjects(3), now);
+
+        List<GeoObject> loaded = store.load(A);
+        assertEquals(3, loaded.size());
+        assertEquals("node/2", loaded.get(2).getOsmId());
+        assertEquals(59.898, loaded.get(2).getShapes().get(0).getLast()[1], 1e-9);
+        assertEquals(now, store.getFetchTime(A));
+        assertNull(store.load(B));
+    }
+
+    @Test
+    public void load_staleTileNotUsed() throws IOException {
+        File dir = Files.createTempDirectory("tiles").toFile();
+        TileStore store = new TileStore(dir, "v1", 60000, 1 << 20);
+        store.store(A, geoObjects(1), System.currentTimeMillis() - 120000);
+        store.store(B, geoObjects(1), System.currentTimeMillis());
+
+        assertFalse(store.isFresh(A));
+        assertNull(store.load(A));
+        assertTrue(store.isFresh(B));
+
+        TileStore otherVersion = new TileStore(dir, "v2", 60000, 1 << 20);
+        assertFalse(otherVersion.isFresh(B));
+    }
+
+    @Test
+    public void store_leastRecentlyUsedEvicted() throws IOException {
+        File dir = Files.createTempDirectory("tiles").toFile();
+        TileStore store = new TileStore(dir, "v1", 60000, Long.MAX_VALUE);
+        store.store(A, geoObjects(200), System.currentTimeMillis());
+        long size = dir.listFiles((d, name) -> name.endsWith(".gz"))[0].length();
+
+        store = new TileStore(dir, "v1", 60000, size * 3 / 2);
+        new File(dir, "12_2248_1190.json.gz").setLastModified(System.currentTimeMillis() - 10000);
+        store.store(B, geoObjects(200), System.currentTimeMillis());
+
+        assertFalse(store.isFresh(A));
+        assertTrue(store.isFresh(B));
+    }
+}